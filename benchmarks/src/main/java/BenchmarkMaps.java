@@ -0,0 +1,83 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Generates maps of any size for the benchmarks, so that they do not
+ * depend on the maps shipped with the game.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BenchmarkMaps {
+
+    /**
+     * Writes a generated map to a file that the server can load with
+     * its <code>map=FILE</code> option, so that load tests can have
+     * more players than the example map has room for:
+     * <pre>java -cp target/benchmarks.jar BenchmarkMaps 400 400 maps/load_400x400.txt</pre>
+     *
+     * @param args  the width, the height and the file to write.
+     * @throws IOException  if the file cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.out.println("Usage: java BenchmarkMaps WIDTH HEIGHT FILE");
+            return;
+        }
+        Map map = generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]), 1);
+        PrintWriter out = new PrintWriter(new FileWriter(args[2]));
+        try {
+            out.println("name " + map.getMapName());
+            out.println("win " + map.getGoldToWin());
+            for (char[] row : map.getMap()) {
+                out.println(row);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Generates a map with a wall around its edge, scattered walls
+     * and gold inside it, and a single exit.
+     *
+     * @param width     the width of the map.
+     * @param height    the height of the map.
+     * @param seed      the seed for the random layout.
+     * @return  the generated map.
+     */
+    public static Map generate(int width, int height, long seed) {
+        Random random = new Random(seed);
+        char[][] tiles = new char[height][width];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                if (x == 0 || y == 0 || x == width - 1 || y == height - 1) {
+                    tiles[y][x] = '#';
+                } else {
+                    int roll = random.nextInt(100);
+                    tiles[y][x] = roll < 10 ? '#' : roll < 12 ? 'G' : '.';
+                }
+            }
+        }
+        tiles[height / 2][width / 2] = 'E';
+        return new Map("Benchmark " + width + "x" + height, 1, tiles);
+    }
+
+    /**
+     * Creates a game on a generated map with one human, whose id is
+     * 0, and a number of bots.
+     *
+     * @param map   the map to play on.
+     * @param bots  the number of bots to add.
+     * @return  the game.
+     */
+    public static GameLogic populatedGame(Map map, int bots) {
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), map);
+        game.addPlayer(new Player(new DiscardingConnection(), game, 0, "human"));
+        for (int id = 1; id <= bots; id++) {
+            game.addPlayer(new Player(new DiscardingConnection(), game, id, "bot"));
+        }
+        return game;
+    }
+}
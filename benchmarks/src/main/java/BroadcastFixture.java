@@ -0,0 +1,45 @@
+import benchmarks.BroadcastOperations;
+
+import java.util.ArrayList;
+
+/**
+ * Sends a SHOUT to every human in a game of humans on a generated
+ * 400x400 map, for BroadcastBenchmark: once as a Broadcast that is
+ * encoded once and shared, as the game does, and once by writing the
+ * message to each human in turn, as it used to.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BroadcastFixture implements BroadcastOperations {
+
+    private static final String MESSAGE = "hello everyone, meet me by the exit";
+
+    private GameLogic game;
+    private ArrayList<Player> humans;
+
+    public void setUp(int players) {
+        game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), BenchmarkMaps.generate(400, 400, 1));
+        humans = new ArrayList<>();
+        for (int id = 0; id < players; id++) {
+            Player human = new Player(new QueueingConnection(), game, id, "human");
+            game.addPlayer(human);
+            humans.add(human);
+        }
+    }
+
+    public void tearDown() {
+        game.endGame();
+    }
+
+    public Object shout() {
+        return game.processCommand("SHOUT " + MESSAGE, 0);
+    }
+
+    public Object shoutToEachRecipient() {
+        String message = humans.get(0).getUsername() + " (TO ALL): " + MESSAGE;
+        for (int i = 1; i < humans.size(); i++) {
+            humans.get(i).writeToClient(message);
+        }
+        return message;
+    }
+}
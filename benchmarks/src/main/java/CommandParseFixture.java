@@ -0,0 +1,59 @@
+import benchmarks.CommandParseOperations;
+
+/**
+ * Parses a line as <code>GameLogic.processCommand()</code> used to,
+ * by splitting it and rebuilding messages with
+ * <code>String.replace()</code>, and as it does now, with
+ * <code>Command.parse()</code> into a reused Command, for
+ * CommandParseBenchmark. Both read everything processCommand needs,
+ * including the message of a WHISPER or SHOUT.
+ *
+ * @author Jonathan Beaumont
+ */
+public class CommandParseFixture implements CommandParseOperations {
+
+    private String line;
+    private Command command;
+
+    public void setUp(String line) {
+        this.line = line;
+        command = new Command();
+    }
+
+    public int splitParse() {
+        String[] words = line.trim().split(" ");
+        switch (words[0].toUpperCase()) {
+            case "MOVE":
+                return words.length == 2 ? words[1].toUpperCase().charAt(0) : 0;
+            case "LOOK":
+                return words.length == 2 && words[1].equalsIgnoreCase("PUSH") ? 1 : 0;
+            case "WHISPER":
+                if (words.length >= 3) {
+                    return words[1].length() + line.replace(words[0], "").replace(words[1], "").trim().length();
+                }
+                return 0;
+            case "SHOUT":
+            case "USERNAME":
+                return line.replace(words[0], "").trim().length();
+            default:
+                return words.length;
+        }
+    }
+
+    public int tokenizerParse() {
+        command.parse(line);
+        switch (command.getType()) {
+            case MOVE:
+                return command.getDirection();
+            case LOOK_PUSH:
+                return 1;
+            case WHISPER:
+                return command.getTarget() == null ? 0 : command.getTarget().length() + command.getPayload().length();
+            case SHOUT:
+            case USERNAME:
+                return command.getPayload().length();
+            default:
+                return command.getType().ordinal();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import benchmarks.GameLogicOperations;
+
+/**
+ * Runs the commands players send most through
+ * <code>GameLogic.processCommand()</code>, for GameLogicBenchmark. Every
+ * game is on the same generated 400x400 map, with one human, whose
+ * commands are measured, and the rest bots.
+ *
+ * @author Jonathan Beaumont
+ */
+public class GameLogicFixture implements GameLogicOperations {
+
+    private GameLogic game;
+    private Map map;
+    private Player human;
+    private Player mover;
+    private String[] moves;
+    private int move;
+    private int nextId;
+
+    public void setUp(int players) {
+        map = BenchmarkMaps.generate(400, 400, 1);
+        game = BenchmarkMaps.populatedGame(map, players - 1);
+        for (int y = 0; y < map.getMapHeight(); y++) {
+            for (int x = 0; x < map.getMapWidth(); x++) {
+                Player player = game.getPlayerOccupyingTile(x, y);
+                if (player == null) {
+                    continue;
+                } else if (player.getPlayerId() == 0) {
+                    human = player;
+                } else if (mover == null && canMoveBackAndForth(player)) {
+                    mover = player;
+                }
+            }
+        }
+        moves = new String[] {"MOVE W", "MOVE E"};
+        nextId = players;
+    }
+
+    public void tearDown() {
+        game.endGame();
+    }
+
+    public Object look() {
+        return game.processCommand("LOOK", 0);
+    }
+
+    /**
+     * Moves a bot back and forth between two empty floor tiles, so
+     * that every move succeeds.
+     */
+    public Object move() {
+        move ^= 1;
+        return game.processCommand(moves[move], mover.getPlayerId());
+    }
+
+    /**
+     * Puts gold back under the human before picking it up, so that
+     * every pickup succeeds.
+     */
+    public Object pickup() {
+        map.replaceTile(human.getXCoordinate(), human.getYCoordinate(), 'G');
+        return game.processCommand("PICKUP", 0);
+    }
+
+    public Object shout() {
+        return game.processCommand("SHOUT hello everyone", 0);
+    }
+
+    public Object usernames() {
+        return game.processCommand("USERNAMES", 0);
+    }
+
+    /**
+     * Adds a bot with a new id, so that it never collides with one
+     * that has left, and removes it again.
+     */
+    public Object join() {
+        Player bot = new Player(new DiscardingConnection(), game, nextId++, "bot");
+        game.addPlayer(bot);
+        game.removePlayer(bot.getPlayerId(), "QUIT");
+        return bot;
+    }
+
+    /**
+     * @param player    a player.
+     * @return  whether the tile east of the player is empty floor.
+     */
+    private boolean canMoveBackAndForth(Player player) {
+        int x = player.getXCoordinate() + 1;
+        int y = player.getYCoordinate();
+        return map.getTile(x, y) == '.' && game.getPlayerOccupyingTile(x, y) == null;
+    }
+}
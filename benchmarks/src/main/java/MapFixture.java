@@ -0,0 +1,82 @@
+import benchmarks.MapOperations;
+
+import java.util.Random;
+
+/**
+ * Reads a generated map on its own, without any players, for
+ * MapBenchmark: a look window from the middle of the map, tiles from
+ * all over it, and the copy of the whole map that the server draws.
+ * Looks and tiles are also read from a copy of the map in a
+ * <code>char[][]</code>, the way Map held its tiles before they were
+ * packed, to compare against.
+ *
+ * @author Jonathan Beaumont
+ */
+public class MapFixture implements MapOperations {
+
+    private static final int POSITIONS = 1024;
+
+    private Map map;
+    private char[][] unpacked;
+    private char[] window;
+    private int x;
+    private int y;
+    private int[] xs;
+    private int[] ys;
+    private int next;
+
+    public void setUp(int size) {
+        map = BenchmarkMaps.generate(size, size, 1);
+        unpacked = map.getMap();
+        window = new char[Map.LOOK_WINDOW_LENGTH];
+        x = size / 2;
+        y = size / 2;
+        Random random = new Random(1);
+        xs = new int[POSITIONS];
+        ys = new int[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            xs[i] = random.nextInt(size);
+            ys[i] = random.nextInt(size);
+        }
+    }
+
+    public Object look() {
+        map.look(x, y, window);
+        return window;
+    }
+
+    public Object lookUnpacked() {
+        for (int i = 0; i < Map.LOOK_RADIUS; i++) {
+            int row = i * (Map.LOOK_RADIUS + 1);
+            for (int j = 0; j < Map.LOOK_RADIUS; j++) {
+                window[row + j] = getUnpackedTile(x + j - Map.LOOK_RADIUS / 2, y + i - Map.LOOK_RADIUS / 2);
+            }
+            if (i + 1 != Map.LOOK_RADIUS) {
+                window[row + Map.LOOK_RADIUS] = '\n';
+            }
+        }
+        return window;
+    }
+
+    public char getTile() {
+        next = (next + 1) & (POSITIONS - 1);
+        return map.getTile(xs[next], ys[next]);
+    }
+
+    public char getTileUnpacked() {
+        next = (next + 1) & (POSITIONS - 1);
+        return getUnpackedTile(xs[next], ys[next]);
+    }
+
+    public Object getMap() {
+        return map.getMap();
+    }
+
+    // Map.getTile() as it was before the tiles were packed
+    private char getUnpackedTile(int x, int y) {
+        if (y < 0 || x < 0 || y >= unpacked.length || x >= unpacked[0].length) {
+            return '#';
+        }
+        return unpacked[y][x];
+    }
+}
@@ -0,0 +1,79 @@
+import benchmarks.PlayerLookOperations;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * Runs a LOOK as the server does for a player, from the player's own
+ * look window buffer to a client socket, in a game of 1,000 players,
+ * for PlayerLookBenchmark. One player speaks the text protocol and
+ * another the binary protocol.
+ *
+ * @author Jonathan Beaumont
+ */
+public class PlayerLookFixture implements PlayerLookOperations {
+
+    private GameLogic game;
+    private ServerSocket sink;
+    private Player player;
+    private Player binaryPlayer;
+    private Command look = new Command().set(CommandType.LOOK, (char) 0, null, null);
+
+    public void setUp() throws IOException {
+        game = BenchmarkMaps.populatedGame(BenchmarkMaps.generate(400, 400, 1), 999);
+        sink = new ServerSocket(0);
+        player = new Player(new SocketPlayerConnection(connectToSink(), game.newOutboundQueue(), game.getPlayerThreads()), game, 1000000, "human");
+        game.addPlayer(player);
+        binaryPlayer = new Player(new SocketPlayerConnection(connectToSink(), game.newOutboundQueue(), game.getPlayerThreads()), game, 1000001, "human binary");
+        game.addPlayer(binaryPlayer);
+    }
+
+    public void tearDown() throws IOException {
+        game.endGame();
+        sink.close();
+    }
+
+    public boolean lookToSocket() {
+        return player.executeCommand(look);
+    }
+
+    public boolean binaryLookToSocket() {
+        return binaryPlayer.executeCommand(look);
+    }
+
+    /**
+     * @return  a client socket connected to the sink, whose other end
+     *          is drained.
+     * @throws IOException  if the socket cannot be opened.
+     */
+    private Socket connectToSink() throws IOException {
+        Socket client = new Socket("localhost", sink.getLocalPort());
+        drain(sink.accept());
+        return client;
+    }
+
+    /**
+     * Reads and discards everything sent to a socket, on a new Thread.
+     *
+     * @param socket    the socket.
+     */
+    private static void drain(final Socket socket) {
+        Thread drainer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[65536];
+                try {
+                    InputStream in = socket.getInputStream();
+                    while (in.read(buffer) >= 0) {
+                    }
+                } catch (IOException e) {
+                    // the benchmark has finished
+                }
+            }
+        });
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * A PlayerConnection that encodes everything written to it into an
+ * OutboundQueue, as a real connection does, then empties the queue
+ * straight away instead of writing it to a client, so that the
+ * benchmarks measure the cost of queueing output.
+ *
+ * @author Jonathan Beaumont
+ */
+public class QueueingConnection implements PlayerConnection {
+
+    private OutboundQueue outbound = new OutboundQueue(OutboundQueue.DEFAULT_MAX_BYTES, OverflowPolicy.DROP);
+    private char[] chars = new char[1024];
+    private volatile boolean closed;
+
+    public synchronized void writeLine(String message) {
+        if (chars.length < message.length()) {
+            chars = new char[message.length()];
+        }
+        message.getChars(0, message.length(), chars, 0);
+        writeLine(chars, message.length());
+    }
+
+    public synchronized void writeLine(char[] line, int length) {
+        outbound.offerLine(line, length);
+        outbound.clear();
+    }
+
+    public synchronized void writeBytes(byte[] bytes, int offset, int length) {
+        outbound.offerBytes(bytes, offset, length);
+        outbound.clear();
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
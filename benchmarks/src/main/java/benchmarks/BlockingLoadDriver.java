@@ -0,0 +1,158 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs every simulated client on a Thread of its own with a blocking
+ * socket. The Threads are virtual when the runtime supports them, so
+ * thousands of clients only need a few platform threads.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BlockingLoadDriver implements LoadDriver {
+
+    private InetSocketAddress server;
+    private LoadResults results;
+    private ThreadFactory threads;
+    private List<Thread> clientThreads;
+    private ConcurrentLinkedQueue<Socket> sockets;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param server    the address of the server.
+     * @param results   where connection failures are recorded.
+     * @param virtual   whether to run clients on virtual Threads.
+     */
+    public BlockingLoadDriver(InetSocketAddress server, LoadResults results, boolean virtual) {
+        this.server = server;
+        this.results = results;
+        this.threads = virtual ? getVirtualThreadFactory() : null;
+        if (virtual && threads == null) {
+            System.out.println("Load : Virtual threads need Java 21, using platform threads");
+        }
+        if (threads == null) {
+            threads = new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        clientThreads = new ArrayList<>();
+        sockets = new ConcurrentLinkedQueue<>();
+    }
+
+    public void start(List<SimulatedClient> clients) {
+        running = true;
+        for (final SimulatedClient client : clients) {
+            Thread thread = threads.newThread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running) {
+                        runSession(client);
+                    }
+                }
+            });
+            clientThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        for (Socket socket : sockets) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+        for (Thread thread : clientThreads) {
+            thread.join();
+        }
+    }
+
+    /**
+     * Joins the game as a client and plays until the server ends the
+     * session, the connection is lost or the driver is stopped.
+     *
+     * @param client    the client.
+     */
+    private void runSession(SimulatedClient client) {
+        Socket socket = new Socket();
+        sockets.add(socket);
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(server);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            OutputStream out = socket.getOutputStream();
+            send(out, client.handshake());
+            while (running) {
+                if (client.isWaiting()) {
+                    String line = in.readLine();
+                    if (line == null || client.onLine(line, System.nanoTime())) {
+                        break;
+                    }
+                } else {
+                    long wait = client.getNextSendNanos() - System.nanoTime();
+                    if (wait > 0) {
+                        LockSupport.parkNanos(wait);
+                    } else {
+                        send(out, client.nextCommand(System.nanoTime()));
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (running) {
+                results.recordConnectionFailure();
+                LockSupport.parkNanos(100000000L);
+            }
+        } finally {
+            sockets.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closed
+            }
+        }
+    }
+
+    private static void send(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    /**
+     * Looks up <code>Thread.ofVirtual().factory()</code> reflectively,
+     * so that the load generator still runs on older runtimes.
+     *
+     * @return  a factory for virtual Threads, or null if the runtime
+     *          does not support them.
+     */
+    private static ThreadFactory getVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = ofVirtual.getReturnType().getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
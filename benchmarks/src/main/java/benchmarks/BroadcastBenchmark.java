@@ -0,0 +1,60 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a SHOUT to every other human in the game, through
+ * <code>GameLogic.processCommand()</code>, against writing the same
+ * message to each recipient, which encodes it again for each of them.
+ *
+ * Run with <code>java -jar target/benchmarks.jar BroadcastBenchmark -prof gc</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    public int players;
+
+    private BroadcastOperations game;
+
+    @Setup
+    public void setUp() {
+        game = Fixtures.create("BroadcastFixture", BroadcastOperations.class);
+        game.setUp(players);
+    }
+
+    @TearDown
+    public void tearDown() {
+        game.tearDown();
+    }
+
+    @Benchmark
+    public Object shout() {
+        return game.shout();
+    }
+
+    @Benchmark
+    public Object shoutToEachRecipient() {
+        return game.shoutToEachRecipient();
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+/**
+ * The broadcasts measured by BroadcastBenchmark, run by
+ * <code>BroadcastFixture</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface BroadcastOperations {
+
+    /**
+     * Creates a game of humans.
+     *
+     * @param players   the number of humans.
+     */
+    void setUp(int players);
+
+    /**
+     * Ends the game.
+     */
+    void tearDown();
+
+    Object shout();
+
+    Object shoutToEachRecipient();
+}
@@ -0,0 +1,58 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * A weighted choice between commands, such as
+ * <code>MOVE=40,LOOK=40,PICKUP=10,SHOUT=5,USERNAMES=5</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public class CommandMix {
+
+    private LoadCommand[] commands;
+    private int[] cumulativeWeights;
+    private int totalWeight;
+
+    /**
+     * Parses a mix.
+     *
+     * @param mix   comma separated <code>COMMAND=weight</code> pairs.
+     * @throws IllegalArgumentException if the mix is not in that form,
+     *                                  or all of its weights are 0.
+     */
+    public CommandMix(String mix) {
+        String[] entries = mix.split(",");
+        commands = new LoadCommand[entries.length];
+        cumulativeWeights = new int[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            String[] entry = entries[i].trim().split("=");
+            if (entry.length != 2) {
+                throw new IllegalArgumentException("Invalid command mix entry : " + entries[i]);
+            }
+            int weight = Integer.parseInt(entry[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative weight : " + entries[i]);
+            }
+            commands[i] = LoadCommand.valueOf(entry[0].trim().toUpperCase());
+            totalWeight += weight;
+            cumulativeWeights[i] = totalWeight;
+        }
+        if (totalWeight == 0) {
+            throw new IllegalArgumentException("Command mix has no weight : " + mix);
+        }
+    }
+
+    /**
+     * @param random    the random number generator to choose with.
+     * @return  a command, chosen in proportion to its weight.
+     */
+    public LoadCommand next(Random random) {
+        int roll = random.nextInt(totalWeight);
+        int i = 0;
+        while (cumulativeWeights[i] <= roll) {
+            i++;
+        }
+        return commands[i];
+    }
+}
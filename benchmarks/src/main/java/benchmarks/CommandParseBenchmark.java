@@ -0,0 +1,53 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares splitting a command line against tokenizing it into a
+ * reused Command. Run it with the gc profiler to see the bytes
+ * allocated per command:
+ * <pre>java -jar target/benchmarks.jar CommandParseBenchmark -prof gc</pre>
+ *
+ * @author Jonathan Beaumont
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandParseBenchmark {
+
+    @Param({"MOVE N", "LOOK", "SHOUT hello everyone", "WHISPER PLAYER_12 meet me by the gold"})
+    public String line;
+
+    private CommandParseOperations parser;
+
+    @Setup
+    public void setUp() {
+        parser = Fixtures.create("CommandParseFixture", CommandParseOperations.class);
+        parser.setUp(line);
+    }
+
+    @Benchmark
+    public int splitParse() {
+        return parser.splitParse();
+    }
+
+    @Benchmark
+    public int tokenizerParse() {
+        return parser.tokenizerParse();
+    }
+}
@@ -0,0 +1,21 @@
+package benchmarks;
+
+/**
+ * The parsers compared by CommandParseBenchmark, run by
+ * <code>CommandParseFixture</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface CommandParseOperations {
+
+    /**
+     * Chooses the line to parse.
+     *
+     * @param line  the line.
+     */
+    void setUp(String line);
+
+    int splitParse();
+
+    int tokenizerParse();
+}
@@ -0,0 +1,28 @@
+package benchmarks;
+
+/**
+ * Creates the fixtures that the benchmarks run against.
+ *
+ * @author Jonathan Beaumont
+ */
+public class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * Creates a fixture from the default package by name. This is only
+     * done once per trial, so it does not affect the measurements.
+     *
+     * @param className     the name of the fixture class.
+     * @param type          the interface it implements.
+     * @return  a new instance of the fixture.
+     */
+    public static <T> T create(String className, Class<T> type) {
+        try {
+            return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create " + className, e);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures <code>GameLogic.processCommand()</code> for MOVE, LOOK,
+ * PICKUP, SHOUT and USERNAMES, and a bot joining and leaving, as the
+ * number of players in the game grows.
+ *
+ * Run with <code>java -jar target/benchmarks.jar GameLogicBenchmark</code>,
+ * adding <code>-prof gc</code> to see the bytes allocated per command.
+ *
+ * @author Jonathan Beaumont
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameLogicBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int players;
+
+    private GameLogicOperations game;
+
+    @Setup
+    public void setUp() {
+        game = Fixtures.create("GameLogicFixture", GameLogicOperations.class);
+        game.setUp(players);
+    }
+
+    @TearDown
+    public void tearDown() {
+        game.tearDown();
+    }
+
+    @Benchmark
+    public Object look() {
+        return game.look();
+    }
+
+    @Benchmark
+    public Object move() {
+        return game.move();
+    }
+
+    @Benchmark
+    public Object pickup() {
+        return game.pickup();
+    }
+
+    @Benchmark
+    public Object shout() {
+        return game.shout();
+    }
+
+    @Benchmark
+    public Object usernames() {
+        return game.usernames();
+    }
+
+    @Benchmark
+    public Object join() {
+        return game.join();
+    }
+}
@@ -0,0 +1,39 @@
+package benchmarks;
+
+/**
+ * The commands measured by GameLogicBenchmark, run against a game by
+ * <code>GameLogicFixture</code>. The game classes are in the default
+ * package, which JMH benchmarks cannot be in or import from, so the
+ * benchmarks reach them through this interface.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface GameLogicOperations {
+
+    /**
+     * Creates a game.
+     *
+     * @param players   the number of players in the game.
+     */
+    void setUp(int players);
+
+    /**
+     * Ends the game.
+     */
+    void tearDown();
+
+    Object look();
+
+    Object move();
+
+    Object pickup();
+
+    Object shout();
+
+    Object usernames();
+
+    /**
+     * Adds a bot to the game and removes it again.
+     */
+    Object join();
+}
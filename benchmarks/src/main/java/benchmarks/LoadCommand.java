@@ -0,0 +1,98 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * The commands a simulated client can send, and how to recognise the
+ * end of the server's reply to each of them among the other lines the
+ * server sends, such as other players' chat.
+ *
+ * @author Jonathan Beaumont
+ */
+public enum LoadCommand {
+
+    MOVE {
+        String text(Random random) {
+            return "MOVE " + DIRECTIONS[random.nextInt(DIRECTIONS.length)];
+        }
+
+        boolean endsReply(String line, int repliesSoFar) {
+            return line.equals("SUCCESS") || line.equals("FAIL");
+        }
+    },
+    LOOK {
+        String text(Random random) {
+            return "LOOK";
+        }
+
+        // the window is sent as one row per line
+        boolean endsReply(String line, int repliesSoFar) {
+            return isLookRow(line) && repliesSoFar == LOOK_ROWS - 1;
+        }
+
+        boolean isPartOfReply(String line) {
+            return isLookRow(line);
+        }
+    },
+    PICKUP {
+        String text(Random random) {
+            return "PICKUP";
+        }
+
+        // a failed pickup is "FAIL" followed by this line
+        boolean endsReply(String line, int repliesSoFar) {
+            return line.startsWith("GOLD COINS: ") || line.equals("There is nothing to pick up...");
+        }
+
+        boolean isPartOfReply(String line) {
+            return line.equals("FAIL");
+        }
+    },
+    SHOUT {
+        String text(Random random) {
+            return "SHOUT load test";
+        }
+
+        boolean endsReply(String line, int repliesSoFar) {
+            return line.startsWith("YOU (TO ALL): ");
+        }
+    },
+    USERNAMES {
+        String text(Random random) {
+            return "USERNAMES";
+        }
+
+        boolean endsReply(String line, int repliesSoFar) {
+            return line.matches("^[0-9]+ OTHER PLAYERS? ACTIVE:.*");
+        }
+    };
+
+    private static final char[] DIRECTIONS = {'N', 'E', 'S', 'W'};
+    private static final int LOOK_ROWS = 5;
+
+    /**
+     * @param random    the client's random number generator.
+     * @return  the line to send.
+     */
+    abstract String text(Random random);
+
+    /**
+     * @param line          a line from the server.
+     * @param repliesSoFar  the number of earlier lines that were part
+     *                      of the reply.
+     * @return  whether the line is the last line of the reply.
+     */
+    abstract boolean endsReply(String line, int repliesSoFar);
+
+    /**
+     * @param line  a line from the server that does not end the reply.
+     * @return  whether the line is part of the reply all the same.
+     */
+    boolean isPartOfReply(String line) {
+        return false;
+    }
+
+    private static boolean isLookRow(String line) {
+        return !line.isEmpty() && line.matches("^[HBGE.#]+$");
+    }
+}
@@ -0,0 +1,30 @@
+package benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Connects simulated clients to the server and carries their commands
+ * and the server's replies.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface LoadDriver {
+
+    /**
+     * Connects the clients and starts them sending commands, returning
+     * straight away.
+     *
+     * @param clients   the clients.
+     * @throws IOException  if the driver cannot start.
+     */
+    void start(List<SimulatedClient> clients) throws IOException;
+
+    /**
+     * Stops every client and closes their connections.
+     *
+     * @throws InterruptedException if interrupted while waiting for
+     *                              the driver's threads to finish.
+     */
+    void stop() throws InterruptedException;
+}
@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A headless load generator. Connects a number of simulated humans and
+ * bots to a running server, drives them with a configurable command
+ * mix and think time, and reports the throughput and p50/p99/p999
+ * latency of each command, with the full HdrHistogram distributions.
+ *
+ * Start a server without windows, then run, for example:
+ * <pre>
+ * java DoDServerGUI 5000 nio headless
+ * java -cp target/benchmarks.jar benchmarks.LoadGenerator -port 5000 -humans 1000 -bots 1000
+ * </pre>
+ *
+ * @author Jonathan Beaumont
+ */
+public class LoadGenerator {
+
+    private static final String[][] OPTIONS = {
+            {"host", "localhost", "the server's host name"},
+            {"port", "5000", "the server's port"},
+            {"humans", "100", "the number of simulated humans"},
+            {"bots", "0", "the number of simulated bots"},
+            {"transport", "nio", "nio, virtual or platform threads"},
+            {"mix", "MOVE=40,LOOK=40,PICKUP=10,SHOUT=5,USERNAMES=5", "the humans' command mix"},
+            {"botmix", "MOVE=100", "the bots' command mix"},
+            {"think", "100", "the mean think time between commands, in ms"},
+            {"warmup", "5", "seconds to run before measuring"},
+            {"duration", "30", "seconds to measure for"},
+            {"hgrm", "", "a directory to write .hgrm files to, instead of printing them"},
+            {"seed", "1", "the seed for the clients' choices"},
+    };
+
+    public static void main(String[] args) throws Exception {
+        HashMap<String, String> options = parseOptions(args);
+        if (options == null) {
+            printUsage();
+            return;
+        }
+        InetSocketAddress server = new InetSocketAddress(options.get("host"), Integer.parseInt(options.get("port")));
+        int humans = Integer.parseInt(options.get("humans"));
+        int bots = Integer.parseInt(options.get("bots"));
+        CommandMix humanMix = new CommandMix(options.get("mix"));
+        CommandMix botMix = new CommandMix(options.get("botmix"));
+        long thinkNanos = Long.parseLong(options.get("think")) * 1000000L;
+        int warmup = Integer.parseInt(options.get("warmup"));
+        int duration = Integer.parseInt(options.get("duration"));
+        long seed = Long.parseLong(options.get("seed"));
+        File hgrmDir = options.get("hgrm").isEmpty() ? null : new File(options.get("hgrm"));
+
+        LoadResults results = new LoadResults();
+        List<SimulatedClient> clients = new ArrayList<>();
+        for (int i = 0; i < humans + bots; i++) {
+            boolean human = i < humans;
+            clients.add(new SimulatedClient(human, human ? humanMix : botMix, thinkNanos, results, seed + i));
+        }
+        LoadDriver driver = createDriver(options.get("transport"), server, results);
+
+        System.out.println("Load : " + humans + " humans and " + bots + " bots over " + options.get("transport")
+                + " to " + server + ", think time " + options.get("think") + " ms");
+        driver.start(clients);
+        Thread.sleep(warmup * 1000L);
+        results.reset();
+        long start = System.nanoTime();
+        Thread.sleep(duration * 1000L);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        driver.stop();
+
+        if (hgrmDir != null) {
+            hgrmDir.mkdirs();
+        }
+        results.report(System.out, seconds, hgrmDir);
+    }
+
+    /**
+     * @param transport the name of a transport.
+     * @param server    the address of the server.
+     * @param results   where the driver records failures.
+     * @return  the driver for the transport.
+     */
+    private static LoadDriver createDriver(String transport, InetSocketAddress server, LoadResults results) {
+        switch (transport) {
+            case "nio":
+                return new NioLoadDriver(server, results);
+            case "virtual":
+                return new BlockingLoadDriver(server, results, true);
+            case "platform":
+                return new BlockingLoadDriver(server, results, false);
+            default:
+                throw new IllegalArgumentException("Unknown transport : " + transport);
+        }
+    }
+
+    /**
+     * Reads options of the form <code>-name value</code> over the
+     * defaults.
+     *
+     * @param args  the arguments.
+     * @return  the options, or null if the arguments are not valid.
+     */
+    private static HashMap<String, String> parseOptions(String[] args) {
+        HashMap<String, String> options = new HashMap<>();
+        for (String[] option : OPTIONS) {
+            options.put(option[0], option[1]);
+        }
+        for (int i = 0; i < args.length; i += 2) {
+            String name = args[i].startsWith("-") ? args[i].substring(1) : null;
+            if (name == null || !options.containsKey(name) || i + 1 == args.length) {
+                return null;
+            }
+            options.put(name, args[i + 1]);
+        }
+        return options;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: java -cp target/benchmarks.jar benchmarks.LoadGenerator [-option value]...");
+        for (String[] option : OPTIONS) {
+            System.out.printf("  -%-10s %s (default %s)%n", option[0], option[2], option[1].isEmpty() ? "none" : option[1]);
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package benchmarks;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+/**
+ * The latency of every reply, by command, in HdrHistograms, and counts
+ * of everything else that happened during a load test. Safe to record
+ * into from any number of threads.
+ *
+ * @author Jonathan Beaumont
+ */
+public class LoadResults {
+
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    private ConcurrentHistogram[] latencies;
+    private AtomicLong unsolicitedLines;
+    private AtomicLong sessionsEnded;
+    private AtomicLong connectionFailures;
+
+    public LoadResults() {
+        latencies = new ConcurrentHistogram[LoadCommand.values().length];
+        for (int i = 0; i < latencies.length; i++) {
+            latencies[i] = new ConcurrentHistogram(3);
+        }
+        unsolicitedLines = new AtomicLong();
+        sessionsEnded = new AtomicLong();
+        connectionFailures = new AtomicLong();
+    }
+
+    public void recordLatency(LoadCommand command, long nanos) {
+        latencies[command.ordinal()].recordValue(nanos);
+    }
+
+    /**
+     * Records a line that was not part of a reply, such as another
+     * player's chat or the arrival of a new player.
+     */
+    public void recordUnsolicitedLine() {
+        unsolicitedLines.incrementAndGet();
+    }
+
+    /**
+     * Records the server ending a session, e.g. because a bot caught
+     * the player.
+     */
+    public void recordSessionEnded() {
+        sessionsEnded.incrementAndGet();
+    }
+
+    public void recordConnectionFailure() {
+        connectionFailures.incrementAndGet();
+    }
+
+    /**
+     * Forgets everything recorded so far, at the end of the warmup.
+     */
+    public void reset() {
+        for (Histogram histogram : latencies) {
+            histogram.reset();
+        }
+        unsolicitedLines.set(0);
+        sessionsEnded.set(0);
+        connectionFailures.set(0);
+    }
+
+    /**
+     * Prints the throughput and latency percentiles of each command,
+     * in microseconds, and writes the full percentile distribution of
+     * each command to a <code>.hgrm</code> file, which HdrHistogram's
+     * plotter can read.
+     *
+     * @param out       where to print the summary.
+     * @param seconds   the length of the measurement.
+     * @param hgrmDir   the directory for the .hgrm files, or null to
+     *                  print the distributions to <code>out</code>.
+     * @throws FileNotFoundException    if a file cannot be written.
+     */
+    public void report(PrintStream out, double seconds, File hgrmDir) throws FileNotFoundException {
+        out.printf("%-10s %12s %10s %10s %10s %10s %10s%n",
+                "command", "count", "per sec", "p50 us", "p99 us", "p999 us", "max us");
+        long total = 0;
+        for (LoadCommand command : LoadCommand.values()) {
+            Histogram histogram = latencies[command.ordinal()].copy();
+            long count = histogram.getTotalCount();
+            total += count;
+            if (count == 0) {
+                continue;
+            }
+            out.printf("%-10s %12d %10.0f %10.1f %10.1f %10.1f %10.1f%n",
+                    command, count, count / seconds,
+                    histogram.getValueAtPercentile(50) / NANOS_PER_MICRO,
+                    histogram.getValueAtPercentile(99) / NANOS_PER_MICRO,
+                    histogram.getValueAtPercentile(99.9) / NANOS_PER_MICRO,
+                    histogram.getMaxValue() / NANOS_PER_MICRO);
+        }
+        out.printf("%-10s %12d %10.0f%n", "all", total, total / seconds);
+        out.println("unsolicited lines: " + unsolicitedLines.get()
+                + ", sessions ended by server: " + sessionsEnded.get()
+                + ", failed or lost connections: " + connectionFailures.get());
+
+        for (LoadCommand command : LoadCommand.values()) {
+            Histogram histogram = latencies[command.ordinal()].copy();
+            if (histogram.getTotalCount() == 0) {
+                continue;
+            }
+            if (hgrmDir == null) {
+                out.println();
+                out.println(command + " latency (us)");
+                histogram.outputPercentileDistribution(out, NANOS_PER_MICRO);
+            } else {
+                File file = new File(hgrmDir, command.name().toLowerCase() + ".hgrm");
+                PrintStream hgrm = new PrintStream(file);
+                try {
+                    histogram.outputPercentileDistribution(hgrm, NANOS_PER_MICRO);
+                } finally {
+                    hgrm.close();
+                }
+            }
+        }
+    }
+}
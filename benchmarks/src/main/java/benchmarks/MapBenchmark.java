@@ -0,0 +1,69 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures <code>Map.look()</code>, <code>Map.getTile()</code> and
+ * <code>Map.getMap()</code> as the map grows, and looks and tiles read
+ * from the same map held unpacked in a <code>char[][]</code>.
+ *
+ * Run with <code>java -jar target/benchmarks.jar MapBenchmark</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MapBenchmark {
+
+    @Param({"50", "400", "1000", "10000"})
+    public int size;
+
+    private MapOperations map;
+
+    @Setup
+    public void setUp() {
+        map = Fixtures.create("MapFixture", MapOperations.class);
+        map.setUp(size);
+    }
+
+    @Benchmark
+    public Object look() {
+        return map.look();
+    }
+
+    @Benchmark
+    public Object lookUnpacked() {
+        return map.lookUnpacked();
+    }
+
+    @Benchmark
+    public char getTile() {
+        return map.getTile();
+    }
+
+    @Benchmark
+    public char getTileUnpacked() {
+        return map.getTileUnpacked();
+    }
+
+    @Benchmark
+    public Object getMap() {
+        return map.getMap();
+    }
+}
@@ -0,0 +1,26 @@
+package benchmarks;
+
+/**
+ * The map reads measured by MapBenchmark, run by <code>MapFixture</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface MapOperations {
+
+    /**
+     * Generates a square map.
+     *
+     * @param size  the width and height of the map.
+     */
+    void setUp(int size);
+
+    Object look();
+
+    Object lookUnpacked();
+
+    char getTile();
+
+    char getTileUnpacked();
+
+    Object getMap();
+}
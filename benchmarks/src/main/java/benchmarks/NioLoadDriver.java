@@ -0,0 +1,266 @@
+package benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Runs every simulated client on one Thread, with non-blocking
+ * channels multiplexed by a single Selector. Clients that are thinking
+ * wait in a queue ordered by when they next want to send, so the
+ * Thread only wakes up for replies and for commands that are due.
+ * Only a limited number of clients connect at once, so that the
+ * server's accept backlog is not overrun.
+ *
+ * @author Jonathan Beaumont
+ */
+public class NioLoadDriver implements LoadDriver, Runnable {
+
+    private static final int MAX_CONNECTING = 64;
+    private static final int READ_BUFFER_SIZE = 16384;
+
+    private InetSocketAddress server;
+    private LoadResults results;
+    private Selector selector;
+    private ArrayDeque<Connection> waitingToConnect;
+    private PriorityQueue<Connection> thinking;
+    private ByteBuffer readBuffer;
+    private int connecting;
+    private Thread thread;
+    private volatile boolean running;
+
+    /**
+     * A simulated client's connection to the server.
+     */
+    private static class Connection {
+
+        private SimulatedClient client;
+        private SocketChannel channel;
+        private SelectionKey key;
+        private StringBuilder line = new StringBuilder();
+        private ByteBuffer out;
+        private boolean welcomed;
+
+        private Connection(SimulatedClient client) {
+            this.client = client;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param server    the address of the server.
+     * @param results   where connection failures are recorded.
+     */
+    public NioLoadDriver(InetSocketAddress server, LoadResults results) {
+        this.server = server;
+        this.results = results;
+        waitingToConnect = new ArrayDeque<>();
+        thinking = new PriorityQueue<>(11, new Comparator<Connection>() {
+            @Override
+            public int compare(Connection a, Connection b) {
+                return Long.compare(a.client.getNextSendNanos(), b.client.getNextSendNanos());
+            }
+        });
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+    }
+
+    public void start(List<SimulatedClient> clients) throws IOException {
+        selector = Selector.open();
+        for (SimulatedClient client : clients) {
+            waitingToConnect.add(new Connection(client));
+        }
+        running = true;
+        thread = new Thread(this, "NioLoadDriver");
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        thread.join();
+    }
+
+    /**
+     * Executed when it is started in a new Thread. Connects clients,
+     * sends the commands that are due and reads replies, until stopped.
+     */
+    public void run() {
+        try {
+            while (running) {
+                connectWaitingClients();
+                long now = System.nanoTime();
+                while (!thinking.isEmpty() && thinking.peek().client.isReadyToSend(now)) {
+                    Connection connection = thinking.poll();
+                    send(connection, connection.client.nextCommand(now));
+                }
+                if (thinking.isEmpty()) {
+                    selector.select();
+                } else {
+                    long waitMillis = (thinking.peek().client.getNextSendNanos() - now) / 1000000;
+                    if (waitMillis > 0) {
+                        selector.select(waitMillis);
+                    } else {
+                        selector.selectNow();
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key);
+                }
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    /**
+     * Starts connecting waiting clients, up to the limit of clients
+     * connecting at once.
+     */
+    private void connectWaitingClients() {
+        while (connecting < MAX_CONNECTING && !waitingToConnect.isEmpty()) {
+            Connection connection = waitingToConnect.poll();
+            try {
+                connection.channel = SocketChannel.open();
+                connection.channel.configureBlocking(false);
+                connection.channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                connection.line.setLength(0);
+                connection.out = null;
+                connection.welcomed = false;
+                connection.channel.connect(server);
+                connection.key = connection.channel.register(selector, SelectionKey.OP_CONNECT, connection);
+                connecting++;
+            } catch (IOException e) {
+                results.recordConnectionFailure();
+                closeQuietly(connection.channel);
+                waitingToConnect.add(connection);
+                return;
+            }
+        }
+    }
+
+    private void handle(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isConnectable()) {
+                connection.channel.finishConnect();
+                key.interestOps(SelectionKey.OP_READ);
+                send(connection, connection.client.handshake());
+            }
+            if (key.isValid() && key.isWritable()) {
+                flush(connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(connection);
+            }
+        } catch (IOException e) {
+            results.recordConnectionFailure();
+            reconnect(connection);
+        }
+    }
+
+    /**
+     * Reads what the server has sent and passes each complete line to
+     * the client.
+     */
+    private void read(Connection connection) throws IOException {
+        readBuffer.clear();
+        int read = connection.channel.read(readBuffer);
+        if (read < 0) {
+            throw new IOException("Server closed the connection");
+        }
+        readBuffer.flip();
+        long now = System.nanoTime();
+        while (readBuffer.hasRemaining()) {
+            char c = (char) (readBuffer.get() & 0xff);
+            if (c == '\r') {
+                continue;
+            } else if (c != '\n') {
+                connection.line.append(c);
+                continue;
+            }
+            String line = connection.line.toString();
+            connection.line.setLength(0);
+            boolean wasWaiting = connection.client.isWaiting();
+            if (connection.client.onLine(line, now)) {
+                reconnect(connection);
+                return;
+            }
+            if (!connection.welcomed && !connection.client.isWaiting()) {
+                connection.welcomed = true;
+                connecting--;
+            }
+            if (wasWaiting && !connection.client.isWaiting()) {
+                thinking.add(connection);
+            }
+        }
+    }
+
+    private void send(Connection connection, String line) throws IOException {
+        byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+        if (connection.out != null && connection.out.hasRemaining()) {
+            ByteBuffer out = ByteBuffer.allocate(connection.out.remaining() + bytes.length);
+            out.put(connection.out).put(bytes).flip();
+            connection.out = out;
+        } else {
+            connection.out = ByteBuffer.wrap(bytes);
+        }
+        flush(connection);
+    }
+
+    /**
+     * Writes as much of a client's outgoing bytes as the channel takes,
+     * waiting to be told it is writable if some are left.
+     */
+    private void flush(Connection connection) throws IOException {
+        connection.channel.write(connection.out);
+        if (connection.out.hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        } else {
+            connection.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    /**
+     * Closes a client's connection and queues them to join again.
+     */
+    private void reconnect(Connection connection) {
+        if (!connection.welcomed) {
+            connecting--;
+        }
+        thinking.remove(connection);
+        closeQuietly(connection.channel);
+        if (running) {
+            waitingToConnect.add(connection);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException e) {
+            // nothing more can be done
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a LOOK written from a player's own buffer to a client
+ * socket, as 30 bytes of text or a 12 byte binary frame. Run it with the gc profiler to check that nothing is
+ * allocated:
+ * <pre>java -jar target/benchmarks.jar PlayerLookBenchmark -prof gc</pre>
+ *
+ * @author Jonathan Beaumont
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlayerLookBenchmark {
+
+    private PlayerLookOperations player;
+
+    @Setup
+    public void setUp() throws Exception {
+        player = Fixtures.create("PlayerLookFixture", PlayerLookOperations.class);
+        player.setUp();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        player.tearDown();
+    }
+
+    @Benchmark
+    public boolean lookToSocket() {
+        return player.lookToSocket();
+    }
+
+    @Benchmark
+    public boolean binaryLookToSocket() {
+        return player.binaryLookToSocket();
+    }
+}
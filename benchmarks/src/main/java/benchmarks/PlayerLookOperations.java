@@ -0,0 +1,29 @@
+package benchmarks;
+
+/**
+ * The LOOK measured by PlayerLookBenchmark, run by
+ * <code>PlayerLookFixture</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface PlayerLookOperations {
+
+    /**
+     * Creates a game with a text and a binary player, each connected
+     * to a socket.
+     *
+     * @throws Exception    if the socket cannot be opened.
+     */
+    void setUp() throws Exception;
+
+    /**
+     * Ends the game and closes the socket.
+     *
+     * @throws Exception    if the socket cannot be closed.
+     */
+    void tearDown() throws Exception;
+
+    boolean lookToSocket();
+
+    boolean binaryLookToSocket();
+}
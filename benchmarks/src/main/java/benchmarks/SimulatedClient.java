@@ -0,0 +1,132 @@
+package benchmarks;
+
+import java.util.Random;
+
+/**
+ * The state of one simulated player: what they send next, when, and
+ * which lines from the server answer it. A client sends one command
+ * at a time and waits for its reply, then thinks for a random time,
+ * exponentially distributed around the mean think time, before sending
+ * the next. Transports feed it the lines they read, and it records the
+ * latency of each reply.
+ *
+ * @author Jonathan Beaumont
+ */
+public class SimulatedClient {
+
+    private boolean human;
+    private CommandMix mix;
+    private long meanThinkNanos;
+    private LoadResults results;
+    private Random random;
+    private boolean welcomed;
+    private LoadCommand outstanding;
+    private int repliesSoFar;
+    private long sentNanos;
+    private long nextSendNanos;
+
+    /**
+     * Constructor.
+     *
+     * @param human             whether the client joins as a human,
+     *                          rather than a bot.
+     * @param mix               the commands to choose from.
+     * @param meanThinkNanos    the mean time between a reply and the
+     *                          next command.
+     * @param results           where latencies are recorded.
+     * @param seed              the seed for the client's choices.
+     */
+    public SimulatedClient(boolean human, CommandMix mix, long meanThinkNanos, LoadResults results, long seed) {
+        this.human = human;
+        this.mix = mix;
+        this.meanThinkNanos = meanThinkNanos;
+        this.results = results;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @return  the first line to send, which joins the game.
+     */
+    public String handshake() {
+        welcomed = false;
+        outstanding = null;
+        return human ? "human" : "bot";
+    }
+
+    /**
+     * Chooses the next command and records when it was sent. Should
+     * only be called when <code>isReadyToSend()</code>.
+     *
+     * @param nowNanos  the current time.
+     * @return  the line to send.
+     */
+    public String nextCommand(long nowNanos) {
+        outstanding = mix.next(random);
+        repliesSoFar = 0;
+        sentNanos = nowNanos;
+        return outstanding.text(random);
+    }
+
+    /**
+     * Handles a line from the server.
+     *
+     * @param line      the line.
+     * @param nowNanos  the time it was read.
+     * @return  whether the session is over, because the server said
+     *          goodbye or turned the client away.
+     */
+    public boolean onLine(String line, long nowNanos) {
+        if (line.startsWith("bye bye") || line.equals("Port unavailable")) {
+            results.recordSessionEnded();
+            return true;
+        } else if (!welcomed) {
+            if (line.equals("Welcome to DOD")) {
+                welcomed = true;
+                scheduleNext(nowNanos);
+            } else {
+                results.recordUnsolicitedLine();
+            }
+        } else if (outstanding != null && outstanding.endsReply(line, repliesSoFar)) {
+            results.recordLatency(outstanding, nowNanos - sentNanos);
+            outstanding = null;
+            scheduleNext(nowNanos);
+        } else if (outstanding != null && outstanding.isPartOfReply(line)) {
+            repliesSoFar++;
+        } else {
+            results.recordUnsolicitedLine();
+        }
+        return false;
+    }
+
+    /**
+     * @param nowNanos  the current time.
+     * @return  whether the client has been welcomed, is not waiting
+     *          for a reply, and has finished thinking.
+     */
+    public boolean isReadyToSend(long nowNanos) {
+        return welcomed && outstanding == null && nowNanos - nextSendNanos >= 0;
+    }
+
+    /**
+     * @return  when the client will next want to send a command.
+     */
+    public long getNextSendNanos() {
+        return nextSendNanos;
+    }
+
+    /**
+     * @return  whether the client is waiting to be welcomed or for a
+     *          reply.
+     */
+    public boolean isWaiting() {
+        return !welcomed || outstanding != null;
+    }
+
+    private void scheduleNext(long nowNanos) {
+        long think = 0;
+        if (meanThinkNanos > 0) {
+            think = (long) (-Math.log(1 - random.nextDouble()) * meanThinkNanos);
+        }
+        nextSendNanos = nowNanos + think;
+    }
+}
@@ -0,0 +1,132 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Frames the frames of the binary protocol out of the bytes read
+ * from a non-blocking channel, as LineFramer does for lines. Bytes
+ * are appended as they arrive, and once <code>nextFrame()</code> has
+ * found a complete frame, it can be read from the framer's buffer
+ * until the next call.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BinaryFramer {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int frameOffset;
+    private int frameLength;
+    private int maxFrameLength;
+    private boolean overflowing;
+
+    /**
+     * Constructor.
+     *
+     * @param maxFrameLength    the longest frame accepted, not
+     *                          counting its length.
+     */
+    public BinaryFramer(int maxFrameLength) {
+        this.maxFrameLength = maxFrameLength;
+        buffer = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer, leaving it drained.
+     *
+     * @param bytes the bytes read from the channel, ready to be read.
+     */
+    public void append(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        makeRoom(length);
+        bytes.get(buffer, end, length);
+        end += length;
+    }
+
+    /**
+     * Finds the next complete frame, which is then described by
+     * <code>getBuffer()</code>, <code>getFrameOffset()</code> and
+     * <code>getFrameLength()</code>.
+     *
+     * @return  whether a complete frame has arrived.
+     */
+    public boolean nextFrame() {
+        int length = 0;
+        int position = start;
+        for (int shift = 0; ; shift += 7) {
+            if (position == end) {
+                return false;
+            } else if (shift > 14) {
+                overflowing = true;
+                return false;
+            }
+            int b = buffer[position++];
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length > maxFrameLength) {
+            overflowing = true;
+            return false;
+        } else if (end - position < length) {
+            return false;
+        }
+        frameOffset = position;
+        frameLength = length;
+        start = position + length;
+        return true;
+    }
+
+    /**
+     * @return  the buffer holding the last frame found.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return  the index of the last frame's opcode in the buffer.
+     */
+    public int getFrameOffset() {
+        return frameOffset;
+    }
+
+    /**
+     * @return  the length of the last frame, from its opcode.
+     */
+    public int getFrameLength() {
+        return frameLength;
+    }
+
+    /**
+     * @return  whether a frame longer than the maximum frame length
+     *          has been started.
+     */
+    public boolean isOverflowing() {
+        return overflowing;
+    }
+
+    /**
+     * Ensures there is space for more bytes at the end of the buffer,
+     * first by moving the unread bytes to the front, then by growing.
+     *
+     * @param length    the number of bytes to make space for.
+     */
+    private void makeRoom(int length) {
+        if (end + length <= buffer.length) {
+            return;
+        }
+        int unread = end - start;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, unread);
+            start = 0;
+            end = unread;
+        }
+        if (end + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + length));
+        }
+    }
+}
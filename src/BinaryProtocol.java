@@ -0,0 +1,659 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary protocol, which a client chooses by adding "binary" to
+ * its handshake, e.g. "human binary". The handshake and the server's
+ * "Welcome to DOD" reply are text lines; everything after them is
+ * sent as frames.
+ *
+ * A frame is its length as a varint, followed by that many bytes: an
+ * opcode, then the opcode's fields. Numbers are unsigned LEB128
+ * varints and strings are a varint byte length followed by UTF-8.
+ * The replies that are sent most have their own opcodes, e.g. a LOOK
+ * window is 25 tiles of 3 bits packed into 10 bytes; any other reply
+ * is sent as a TEXT frame holding the line the text protocol would
+ * have sent.
+ *
+ * A command may be tagged with a sequence number by wrapping it in a
+ * TAGGED frame, and the reply to it is then wrapped in a REPLY frame
+ * with the same number, as the text protocol tags lines with
+ * <code>#12</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BinaryProtocol {
+
+    // client to server
+    public static final int HELLO = 0x01;
+    public static final int MOVE = 0x02;         // direction: 1 byte, 'N', 'E', 'S' or 'W'
+    public static final int PICKUP = 0x03;
+    public static final int LOOK = 0x04;
+    public static final int LOOK_PUSH = 0x05;
+    public static final int WHISPER = 0x06;      // username: string, message: string
+    public static final int SHOUT = 0x07;        // message: string
+    public static final int USERNAME = 0x08;     // username: string
+    public static final int USERNAMES = 0x09;
+    public static final int QUIT = 0x0A;
+    public static final int TAGGED = 0x0B;       // sequence: varint, then a command's opcode and fields
+    public static final int WALK = 0x0C;         // tile: 1 byte, 'G' or 'E'
+    public static final int USERNAMES_PUSH = 0x0D;
+
+    // server to client
+    public static final int TEXT = 0x40;         // line: string
+    public static final int SUCCESS = 0x41;
+    public static final int FAIL = 0x42;         // reason: string, may be empty
+    public static final int GOLD = 0x43;         // gold still needed to win: varint
+    public static final int GOLD_COINS = 0x44;   // gold collected: varint
+    public static final int LOOK_WINDOW = 0x45;  // tiles: 10 bytes, 3 bits each, row by row
+    public static final int LOOK_DIFF = 0x46;    // count: varint, then a byte per cell: index << 3 | tile
+    public static final int BYE = 0x47;          // goodbye message: string
+    public static final int REPLY = 0x48;        // sequence: varint, then a reply's opcode and fields
+
+    /**
+     * The tiles, indexed by their 3 bit code. Code 7 is any other
+     * tile.
+     */
+    public static final String TILES = "#.GEHB";
+    public static final char UNKNOWN_TILE = '?';
+    public static final int LOOK_CELLS = Map.LOOK_RADIUS * Map.LOOK_RADIUS;
+    public static final int PACKED_LOOK_LENGTH = (LOOK_CELLS * 3 + 7) / 8;
+
+    /**
+     * The longest frame accepted, so that a broken client cannot make
+     * the server allocate without limit.
+     */
+    public static final int MAX_FRAME_LENGTH = 16384;
+
+    /**
+     * The longest LOOK frame, for buffers that hold one: its length
+     * byte, opcode, and either the packed window or a count byte and
+     * a byte for every cell.
+     */
+    public static final int MAX_LOOK_FRAME_LENGTH = 3 + LOOK_CELLS;
+
+    private static final byte[] SUCCESS_FRAME = {1, SUCCESS};
+    private static final byte[] FAIL_FRAME = {2, FAIL, 0};
+    private static final String BYE_PREFIX = "bye bye\n";
+    private static final String FAIL_PREFIX = "FAIL\n";
+    private static final String GOLD_COINS_PREFIX = "GOLD COINS: ";
+    private static final String GOLD_PREFIX = "GOLD: ";
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * @param handshake the first line sent by a client.
+     * @return  whether the client asked for the binary protocol.
+     */
+    public static boolean isBinaryHandshake(String handshake) {
+        return handshake.endsWith(" binary");
+    }
+
+    /**
+     * Encodes a reply, or any other message for a client, choosing
+     * the opcode from the text the text protocol would have sent. The
+     * frames for SUCCESS and FAIL are shared, so they must not be
+     * changed.
+     *
+     * @param message   the message.
+     * @return  the frame.
+     */
+    public static byte[] encodeMessage(String message) {
+        if (message.equals("SUCCESS")) {
+            return SUCCESS_FRAME;
+        } else if (message.equals("FAIL")) {
+            return FAIL_FRAME;
+        } else if (message.startsWith(FAIL_PREFIX)) {
+            return encodeString(FAIL, message.substring(FAIL_PREFIX.length()));
+        } else if (message.startsWith(BYE_PREFIX)) {
+            return encodeString(BYE, message.substring(BYE_PREFIX.length()));
+        } else if (message.startsWith(GOLD_COINS_PREFIX) && isNumber(message, GOLD_COINS_PREFIX.length())) {
+            return encodeNumber(GOLD_COINS, Integer.parseInt(message.substring(GOLD_COINS_PREFIX.length())));
+        } else if (message.startsWith(GOLD_PREFIX) && isNumber(message, GOLD_PREFIX.length())) {
+            return encodeNumber(GOLD, Integer.parseInt(message.substring(GOLD_PREFIX.length())));
+        }
+        return encodeString(TEXT, message);
+    }
+
+    /**
+     * Decodes a frame from the server back into the text the text
+     * protocol would have sent, so a client can handle both protocols
+     * the same way.
+     *
+     * @param frame     the buffer holding the frame.
+     * @param offset    the index of the opcode.
+     * @param length    the length of the frame, from its opcode.
+     * @return  the message, which may hold several lines.
+     * @throws IllegalArgumentException if the frame is not valid.
+     */
+    public static String decodeMessage(byte[] frame, int offset, int length) {
+        FrameReader reader = new FrameReader(frame, offset, length);
+        switch (reader.readByte()) {
+            case TEXT:
+                return reader.readString();
+            case SUCCESS:
+                return "SUCCESS";
+            case FAIL:
+                String reason = reader.readString();
+                return reason.isEmpty() ? "FAIL" : FAIL_PREFIX + reason;
+            case GOLD:
+                return GOLD_PREFIX + reader.readVarint();
+            case GOLD_COINS:
+                return GOLD_COINS_PREFIX + reader.readVarint();
+            case LOOK_WINDOW:
+                char[] tiles = new char[LOOK_CELLS];
+                reader.skip(PACKED_LOOK_LENGTH);
+                decodeLookWindow(frame, offset + 1, tiles);
+                StringBuilder window = new StringBuilder(Map.LOOK_WINDOW_LENGTH);
+                for (int cell = 0; cell < LOOK_CELLS; cell++) {
+                    if (cell > 0 && cell % Map.LOOK_RADIUS == 0) {
+                        window.append('\n');
+                    }
+                    window.append(tiles[cell]);
+                }
+                return window.toString();
+            case LOOK_DIFF:
+                int count = reader.readVarint();
+                StringBuilder diff = new StringBuilder("LOOK DIFF");
+                for (int i = 0; i < count; i++) {
+                    int cell = reader.readByte();
+                    diff.append(' ')
+                            .append((char) ('0' + (cell >> 3) / Map.LOOK_RADIUS))
+                            .append((char) ('0' + (cell >> 3) % Map.LOOK_RADIUS))
+                            .append(tile(cell & 7));
+                }
+                return diff.toString();
+            case BYE:
+                return BYE_PREFIX + reader.readString();
+            case REPLY:
+                int sequence = readSequence(reader);
+                return Command.tagReply(sequence, decodeMessage(frame, reader.getPosition(), reader.getEnd() - reader.getPosition()));
+            default:
+                throw new IllegalArgumentException("Unknown opcode");
+        }
+    }
+
+    /**
+     * Encodes a command, as a client sends it, in a TAGGED frame if
+     * it has a sequence number.
+     *
+     * @param command   the command.
+     * @return  the frame, or null if the command is not valid.
+     */
+    public static byte[] encodeCommand(Command command) {
+        byte[] frame = encodeUntaggedCommand(command);
+        if (frame == null || command.getSequence() == Command.NO_SEQUENCE) {
+            return frame;
+        }
+        return tag(TAGGED, command.getSequence(), frame, frame.length);
+    }
+
+    private static byte[] encodeUntaggedCommand(Command command) {
+        switch (command.getType()) {
+            case HELLO:
+                return new byte[] {1, HELLO};
+            case MOVE:
+                return new byte[] {2, MOVE, (byte) command.getDirection()};
+            case PICKUP:
+                return new byte[] {1, PICKUP};
+            case LOOK:
+                return new byte[] {1, LOOK};
+            case LOOK_PUSH:
+                return new byte[] {1, LOOK_PUSH};
+            case WHISPER:
+                if (command.getTarget() == null) {
+                    return null;
+                }
+                return encodeStrings(WHISPER, command.getTarget(), command.getPayload());
+            case SHOUT:
+                return encodeString(SHOUT, command.getPayload());
+            case USERNAME:
+                return encodeString(USERNAME, command.getPayload());
+            case USERNAMES:
+                return new byte[] {1, USERNAMES};
+            case USERNAMES_PUSH:
+                return new byte[] {1, USERNAMES_PUSH};
+            case QUIT:
+                return new byte[] {1, QUIT};
+            case WALK:
+                return new byte[] {2, WALK, (byte) command.getDirection()};
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Decodes the body of a frame from a client into a command. A
+     * frame that is not a valid command leaves it invalid, but keeps
+     * the sequence number of a TAGGED frame, so that the FAIL can be
+     * tagged with it.
+     *
+     * @param frame     the buffer holding the frame.
+     * @param offset    the index of the opcode.
+     * @param length    the length of the frame, from its opcode.
+     * @param command   the command to decode into.
+     */
+    public static void decodeCommand(byte[] frame, int offset, int length, Command command) {
+        command.clear();
+        FrameReader reader = new FrameReader(frame, offset, length);
+        try {
+            int opcode = reader.readByte();
+            if (opcode == TAGGED) {
+                command.setSequence(readSequence(reader));
+                opcode = reader.readByte();
+            }
+            switch (opcode) {
+                case HELLO:
+                    command.set(CommandType.HELLO, (char) 0, null, null);
+                    break;
+                case MOVE:
+                    command.set(CommandType.MOVE, (char) reader.readByte(), null, null);
+                    break;
+                case PICKUP:
+                    command.set(CommandType.PICKUP, (char) 0, null, null);
+                    break;
+                case LOOK:
+                    command.set(CommandType.LOOK, (char) 0, null, null);
+                    break;
+                case LOOK_PUSH:
+                    command.set(CommandType.LOOK_PUSH, (char) 0, null, null);
+                    break;
+                case WHISPER:
+                    String target = reader.readString();
+                    command.set(CommandType.WHISPER, (char) 0, target, reader.readString());
+                    break;
+                case SHOUT:
+                    command.set(CommandType.SHOUT, (char) 0, null, reader.readString());
+                    break;
+                case USERNAME:
+                    command.set(CommandType.USERNAME, (char) 0, null, reader.readString());
+                    break;
+                case USERNAMES:
+                    command.set(CommandType.USERNAMES, (char) 0, null, null);
+                    break;
+                case USERNAMES_PUSH:
+                    command.set(CommandType.USERNAMES_PUSH, (char) 0, null, null);
+                    break;
+                case QUIT:
+                    command.set(CommandType.QUIT, (char) 0, null, null);
+                    break;
+                case WALK:
+                    command.set(CommandType.WALK, (char) reader.readByte(), null, null);
+                    break;
+                default:
+                    break;
+            }
+        } catch (IllegalArgumentException e) {
+            int sequence = command.getSequence();
+            command.clear();
+            command.setSequence(sequence);
+        }
+    }
+
+    /**
+     * Wraps a reply in a REPLY frame.
+     *
+     * @param sequence  the sequence number of the command it answers.
+     * @param frame     the buffer holding the reply's frame, from index 0.
+     * @param length    the length of the reply's frame.
+     * @return  the REPLY frame.
+     */
+    public static byte[] encodeReply(int sequence, byte[] frame, int length) {
+        return tag(REPLY, sequence, frame, length);
+    }
+
+    /**
+     * Encodes a LOOK window into a reusable buffer.
+     *
+     * @param window    the window, as rows separated by newlines.
+     * @param frame     a buffer of at least <code>MAX_LOOK_FRAME_LENGTH</code> bytes.
+     * @return  the length of the frame.
+     */
+    public static int encodeLookWindow(char[] window, byte[] frame) {
+        frame[0] = (byte) (1 + PACKED_LOOK_LENGTH);
+        frame[1] = (byte) LOOK_WINDOW;
+        for (int i = 0; i < PACKED_LOOK_LENGTH; i++) {
+            frame[2 + i] = 0;
+        }
+        for (int cell = 0; cell < LOOK_CELLS; cell++) {
+            int bit = cell * 3;
+            int code = tileCode(window[windowIndex(cell)]) << (bit & 7);
+            frame[2 + (bit >> 3)] |= (byte) code;
+            if ((bit & 7) > 5) {
+                frame[3 + (bit >> 3)] |= (byte) (code >> 8);
+            }
+        }
+        return 2 + PACKED_LOOK_LENGTH;
+    }
+
+    /**
+     * Encodes the cells of a LOOK window that differ from the window
+     * last sent into a reusable buffer.
+     *
+     * @param window    the window, as rows separated by newlines.
+     * @param sent      the window last sent.
+     * @param frame     a buffer of at least <code>MAX_LOOK_FRAME_LENGTH</code> bytes.
+     * @return  the length of the frame, or 0 if no cell changed.
+     */
+    public static int encodeLookDiff(char[] window, char[] sent, byte[] frame) {
+        int length = 3;
+        for (int cell = 0; cell < LOOK_CELLS; cell++) {
+            int i = windowIndex(cell);
+            if (window[i] != sent[i]) {
+                frame[length++] = (byte) (cell << 3 | tileCode(window[i]));
+            }
+        }
+        if (length == 3) {
+            return 0;
+        }
+        frame[0] = (byte) (length - 1);
+        frame[1] = (byte) LOOK_DIFF;
+        frame[2] = (byte) (length - 3);
+        return length;
+    }
+
+    /**
+     * Unpacks the tiles of a LOOK_WINDOW frame.
+     *
+     * @param packed    the buffer holding the packed tiles.
+     * @param offset    the index of the first packed byte.
+     * @param tiles     the array to unpack into, one tile per cell, row by row.
+     */
+    public static void decodeLookWindow(byte[] packed, int offset, char[] tiles) {
+        for (int cell = 0; cell < LOOK_CELLS; cell++) {
+            int bit = cell * 3;
+            int bits = (packed[offset + (bit >> 3)] & 0xFF) >> (bit & 7);
+            if ((bit & 7) > 5) {
+                bits |= (packed[offset + (bit >> 3) + 1] & 0xFF) << (8 - (bit & 7));
+            }
+            tiles[cell] = tile(bits & 7);
+        }
+    }
+
+    /**
+     * @param code  a 3 bit tile code.
+     * @return  the tile.
+     */
+    public static char tile(int code) {
+        return code < TILES.length() ? TILES.charAt(code) : UNKNOWN_TILE;
+    }
+
+    /**
+     * Reads a text line, such as the handshake, from a blocking
+     * stream a byte at a time, so that no frame after it is read
+     * into a buffer the caller cannot see. A trailing carriage return
+     * is dropped.
+     *
+     * @param in    the stream.
+     * @return  the line without its terminator, or null if the stream
+     *          ended first.
+     * @throws IOException  if the stream fails or the line is too
+     *                      long.
+     */
+    public static String readLine(InputStream in) throws IOException {
+        byte[] line = new byte[64];
+        int length = 0;
+        for (int b = in.read(); b != '\n'; b = in.read()) {
+            if (b < 0) {
+                return null;
+            } else if (length == MAX_FRAME_LENGTH) {
+                throw new IOException("Line too long");
+            } else if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte) b;
+        }
+        if (length > 0 && line[length - 1] == '\r') {
+            length--;
+        }
+        return new String(line, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads a frame from a blocking stream into a buffer, growing it
+     * if needed.
+     *
+     * @param in        the stream.
+     * @param buffer    the buffer to read into.
+     * @return  the buffer holding the frame, from index 0, and its
+     *          length, or null if the stream ended between frames.
+     * @throws IOException  if the stream fails, ends part way through
+     *                      a frame, or the frame is too long.
+     */
+    public static FrameReader readFrame(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = in.read();
+            if (b < 0 && shift == 0) {
+                return null;
+            } else if (b < 0) {
+                throw new EOFException();
+            } else if (shift > 14) {
+                throw new IOException("Frame too long");
+            }
+            length |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        if (length > MAX_FRAME_LENGTH) {
+            throw new IOException("Frame too long");
+        }
+        if (buffer.length < length) {
+            buffer = new byte[length];
+        }
+        for (int read = 0; read < length; ) {
+            int n = in.read(buffer, read, length - read);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            read += n;
+        }
+        return new FrameReader(buffer, 0, length);
+    }
+
+    /**
+     * @param value a number.
+     * @return  the number of bytes the number takes as a varint.
+     */
+    public static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Writes a varint.
+     *
+     * @param value     the number.
+     * @param bytes     the buffer to write to.
+     * @param offset    the index to write at.
+     * @return  the index after the varint.
+     */
+    public static int writeVarint(int value, byte[] bytes, int offset) {
+        while ((value & ~0x7F) != 0) {
+            bytes[offset++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[offset++] = (byte) value;
+        return offset;
+    }
+
+    /**
+     * Wraps a frame in a frame that tags it with a sequence number.
+     *
+     * @param opcode    TAGGED or REPLY.
+     * @param sequence  the sequence number.
+     * @param frame     the buffer holding the frame, from index 0.
+     * @param length    the length of the frame, including its length.
+     * @return  the tagging frame.
+     */
+    private static byte[] tag(int opcode, int sequence, byte[] frame, int length) {
+        int innerStart = 0;
+        while ((frame[innerStart++] & 0x80) != 0) {
+        }
+        int bodyLength = 1 + varintLength(sequence) + length - innerStart;
+        byte[] tagged = new byte[varintLength(bodyLength) + bodyLength];
+        int offset = writeVarint(bodyLength, tagged, 0);
+        tagged[offset++] = (byte) opcode;
+        offset = writeVarint(sequence, tagged, offset);
+        System.arraycopy(frame, innerStart, tagged, offset, length - innerStart);
+        return tagged;
+    }
+
+    private static int readSequence(FrameReader reader) {
+        int sequence = reader.readVarint();
+        if (sequence < 0) {
+            throw new IllegalArgumentException("Sequence number too large");
+        }
+        return sequence;
+    }
+
+    // the index of a cell, counted row by row, in a window whose rows end with newlines
+    private static int windowIndex(int cell) {
+        return cell / Map.LOOK_RADIUS * (Map.LOOK_RADIUS + 1) + cell % Map.LOOK_RADIUS;
+    }
+
+    private static int tileCode(char tile) {
+        int code = TILES.indexOf(tile);
+        return code < 0 ? 7 : code;
+    }
+
+    private static boolean isNumber(String message, int from) {
+        if (from == message.length() || message.length() - from > 9) {
+            return false;
+        }
+        for (int i = from; i < message.length(); i++) {
+            if (message.charAt(i) < '0' || message.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] encodeNumber(int opcode, int value) {
+        byte[] frame = new byte[2 + varintLength(value)];
+        frame[0] = (byte) (frame.length - 1);
+        frame[1] = (byte) opcode;
+        writeVarint(value, frame, 2);
+        return frame;
+    }
+
+    private static byte[] encodeString(int opcode, String value) {
+        return encodeStrings(opcode, value);
+    }
+
+    private static byte[] encodeStrings(int opcode, String... values) {
+        byte[][] encoded = new byte[values.length][];
+        int bodyLength = 1;
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = (values[i] == null ? "" : values[i]).getBytes(StandardCharsets.UTF_8);
+            bodyLength += varintLength(encoded[i].length) + encoded[i].length;
+        }
+        byte[] frame = new byte[varintLength(bodyLength) + bodyLength];
+        int offset = writeVarint(bodyLength, frame, 0);
+        frame[offset++] = (byte) opcode;
+        for (byte[] value : encoded) {
+            offset = writeVarint(value.length, frame, offset);
+            System.arraycopy(value, 0, frame, offset, value.length);
+            offset += value.length;
+        }
+        return frame;
+    }
+
+    /**
+     * Reads the fields of a frame in order.
+     */
+    public static class FrameReader {
+
+        private byte[] bytes;
+        private int position;
+        private int end;
+
+        /**
+         * Constructor.
+         *
+         * @param bytes     the buffer holding the frame.
+         * @param offset    the index of the opcode.
+         * @param length    the length of the frame, from its opcode.
+         */
+        public FrameReader(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return  the next byte, unsigned.
+         * @throws IllegalArgumentException if the frame has ended.
+         */
+        public int readByte() {
+            if (position >= end) {
+                throw new IllegalArgumentException("Frame too short");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        /**
+         * @return  the next varint.
+         * @throws IllegalArgumentException if the frame has ended or
+         *                                  the varint is too long.
+         */
+        public int readVarint() {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                int b = readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Varint too long");
+        }
+
+        /**
+         * @return  the next string.
+         * @throws IllegalArgumentException if the frame has ended.
+         */
+        public String readString() {
+            int length = readVarint();
+            if (length < 0 || length > end - position) {
+                throw new IllegalArgumentException("Frame too short");
+            }
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        /**
+         * Skips bytes.
+         *
+         * @param count the number of bytes.
+         * @throws IllegalArgumentException if the frame has ended.
+         */
+        public void skip(int count) {
+            if (count > end - position) {
+                throw new IllegalArgumentException("Frame too short");
+            }
+            position += count;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Tests that the binary protocol decodes what it encodes.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BinaryProtocolTest {
+
+    @Test
+    public void commandsRoundTrip() {
+        String[] lines = {"HELLO", "MOVE N", "PICKUP", "LOOK", "LOOK PUSH", "WHISPER bob hi there",
+                "SHOUT hello all", "USERNAME alice", "USERNAMES", "USERNAMES PUSH", "QUIT", "WALK GOLD"};
+        Command decoded = new Command();
+        for (String line : lines) {
+            Command command = new Command().parse(line);
+            byte[] frame = BinaryProtocol.encodeCommand(command);
+            assertEquals(frame.length - 1, frame[0]);
+            BinaryProtocol.decodeCommand(frame, 1, frame.length - 1, decoded);
+            assertEquals(line, command.getType(), decoded.getType());
+            assertEquals(line, command.getDirection(), decoded.getDirection());
+            assertEquals(line, command.getTarget(), decoded.getTarget());
+            assertEquals(line, command.getPayload(), decoded.getPayload());
+        }
+        assertNull(BinaryProtocol.encodeCommand(new Command().parse("DANCE")));
+    }
+
+    @Test
+    public void messagesRoundTrip() {
+        String[] messages = {"SUCCESS", "FAIL", "FAIL\nno gold here", "GOLD: 4", "GOLD COINS: 300",
+                "GOLD: lots", "bye bye\nYOU WIN", "YOU (TO ALL): hello", ""};
+        for (String message : messages) {
+            byte[] frame = BinaryProtocol.encodeMessage(message);
+            assertEquals(message, BinaryProtocol.decodeMessage(frame, 1, frame.length - 1));
+        }
+        assertEquals(2, BinaryProtocol.encodeMessage("GOLD COINS: 3").length - 1);
+    }
+
+    @Test
+    public void lookWindowIsPacked() {
+        char[] window = "#.GEH\nB....\n.....\n.....\n....#".toCharArray();
+        byte[] frame = new byte[BinaryProtocol.MAX_LOOK_FRAME_LENGTH];
+        int length = BinaryProtocol.encodeLookWindow(window, frame);
+        assertEquals(12, length);
+        assertEquals(new String(window), BinaryProtocol.decodeMessage(frame, 1, length - 1));
+
+        char[] changed = window.clone();
+        changed[6] = '.';
+        changed[28] = 'H';
+        length = BinaryProtocol.encodeLookDiff(changed, window, frame);
+        assertEquals(5, length);
+        assertEquals("LOOK DIFF 10. 44H", BinaryProtocol.decodeMessage(frame, 1, length - 1));
+        assertEquals(0, BinaryProtocol.encodeLookDiff(window, window, frame));
+    }
+
+    @Test
+    public void varintsUseSevenBitsPerByte() {
+        byte[] bytes = new byte[5];
+        assertEquals(1, BinaryProtocol.writeVarint(127, bytes, 0));
+        assertEquals(2, BinaryProtocol.writeVarint(300, bytes, 0));
+        assertArrayEquals(new byte[] {(byte) 0xAC, 0x02, 0, 0, 0}, bytes);
+        assertEquals(300, new BinaryProtocol.FrameReader(bytes, 0, 2).readVarint());
+        assertEquals(5, BinaryProtocol.varintLength(-1));
+    }
+
+    @Test
+    public void taggedFramesKeepTheirSequence() {
+        Command decoded = new Command();
+        byte[] frame = BinaryProtocol.encodeCommand(new Command().parse("#300 SHOUT hello"));
+        BinaryProtocol.decodeCommand(frame, 1, frame.length - 1, decoded);
+        assertEquals(300, decoded.getSequence());
+        assertEquals(CommandType.SHOUT, decoded.getType());
+        assertEquals("hello", decoded.getPayload());
+
+        frame = BinaryProtocol.encodeCommand(new Command().parse("#5 MOVE N"));
+        BinaryProtocol.decodeCommand(frame, 1, frame.length - 2, decoded);
+        assertEquals(5, decoded.getSequence());
+        assertEquals(CommandType.INVALID, decoded.getType());
+
+        byte[] reply = BinaryProtocol.encodeMessage("FAIL\nno gold here");
+        frame = BinaryProtocol.encodeReply(5, reply, reply.length);
+        assertEquals("#5 FAIL\n#5 no gold here", BinaryProtocol.decodeMessage(frame, 1, frame.length - 1));
+    }
+}
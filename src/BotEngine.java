@@ -0,0 +1,110 @@
+import java.util.Random;
+
+/**
+ * Runs bots inside the server, as players with no client. Instead of
+ * each bot being a BotPlayer with a socket and a Thread of its own,
+ * sending a line every half second, every bot is stepped in turn by
+ * a single Thread: its BotStrategy fills in a reused Command, which
+ * is passed straight to the bot's Player, and the reply is discarded
+ * by its connection. Nothing is parsed or allocated for a step,
+ * unless the game is run by a GameSimulation, which keeps a copy of
+ * each command it queues, or a bot is the first to step into a part
+ * of the map nobody is in.
+ *
+ * Bots are given negative ids, starting at -1, so that they never
+ * collide with the ids of clients, which start at 0.
+ *
+ * @author Jonathan Beaumont
+ */
+public class BotEngine implements Runnable {
+
+    public static final int DEFAULT_STEP_MILLIS = 500;
+
+    private GameLogic game;
+    private BotStrategy strategy;
+    private Player[] bots;
+    private int added;
+    private long stepNanos;
+    private Command command;
+    private Random random;
+    private volatile boolean running;
+
+    /**
+     * Constructor. No bot is added until the engine is run.
+     *
+     * @param game          the game to add the bots to.
+     * @param botCount      the number of bots.
+     * @param strategy      what every bot does.
+     * @param stepMillis    the time between the steps of each bot.
+     */
+    public BotEngine(GameLogic game, int botCount, BotStrategy strategy, int stepMillis) {
+        this.game = game;
+        this.strategy = strategy;
+        bots = new Player[botCount];
+        stepNanos = stepMillis * 1000000L;
+        command = new Command();
+        random = new Random();
+        running = true;
+    }
+
+    /**
+     * Stops stepping the bots after the current step. The bots stay
+     * in the game until it ends.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Executed when it is started in a new Thread. Adds the bots, then
+     * steps them all, and sleeps until the next step is due, until
+     * stopped.
+     */
+    public void run() {
+        addBots();
+        long nextStep = System.nanoTime();
+        while (running) {
+            step();
+            nextStep += stepNanos;
+            long sleepNanos = nextStep - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                nextStep = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Adds the bots to the game, one at a time, unless the engine is
+     * stopped first, or the map is full.
+     */
+    public void addBots() {
+        while (added < bots.length && running) {
+            bots[added] = new Player(new DiscardingConnection(), game, -1 - added, "bot");
+            if (!game.addPlayer(bots[added])) {
+                bots[added] = null;
+                return;
+            }
+            added++;
+        }
+    }
+
+    /**
+     * Lets the strategy prepare for the step, then steps every bot
+     * that has been added once.
+     */
+    public void step() {
+        strategy.startStep(game);
+        for (int i = 0; i < added && running; i++) {
+            Command next = strategy.nextCommand(bots[i], command, random);
+            if (next != null) {
+                bots[i].processInput(next);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import java.util.Random;
+
+/**
+ * Decides what a bot run by a BotEngine does next. A strategy is
+ * called for every bot in turn on the engine's Thread, so it needs no
+ * locking of its own as long as it only reads the game.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface BotStrategy {
+
+    /**
+     * Called once at the start of every step, before any bot is asked
+     * for its command, so that a strategy can prepare whatever all the
+     * bots share.
+     *
+     * @param game  the game the bots are in.
+     */
+    void startStep(GameLogic game);
+
+    /**
+     * Chooses the bot's next command.
+     *
+     * @param bot       the bot.
+     * @param command   a command to fill in, which the engine reuses.
+     * @param random    the engine's source of random numbers.
+     * @return  the command, or null to do nothing this step.
+     */
+    Command nextCommand(Player bot, Command command, Random random);
+}
@@ -0,0 +1,56 @@
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A message sent to many players at once, such as a SHOUT or a
+ * notice that a player has joined or left. The message is encoded
+ * once for each protocol when the broadcast is created, and every
+ * recipient's connection copies the same bytes, so a broadcast costs
+ * the bytes sent rather than an encoding per recipient. The encoded
+ * bytes are never changed once created, so they are safe to share
+ * between threads.
+ *
+ * @author Jonathan Beaumont
+ */
+public class Broadcast {
+
+    private final String message;
+    private final byte[] line;
+    private final byte[] frame;
+
+    /**
+     * Constructor.
+     *
+     * @param message   the message, as a line of the text protocol.
+     */
+    public Broadcast(String message) {
+        this.message = message;
+        byte[] encoded = message.getBytes(StandardCharsets.UTF_8);
+        line = new byte[encoded.length + 1];
+        System.arraycopy(encoded, 0, line, 0, encoded.length);
+        line[encoded.length] = '\n';
+        frame = BinaryProtocol.encodeMessage(message);
+    }
+
+    /**
+     * @return  the message.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return  the message as a line of the text protocol, with its
+     *          line separator. Must not be changed.
+     */
+    public byte[] getLine() {
+        return line;
+    }
+
+    /**
+     * @return  the message as a frame of the binary protocol. Must
+     *          not be changed.
+     */
+    public byte[] getFrame() {
+        return frame;
+    }
+}
@@ -0,0 +1,57 @@
+import java.util.Random;
+
+/**
+ * Moves a bot towards the nearest human, if one is within
+ * <code>FlowField.MAX_DISTANCE</code> moves, by stepping to a
+ * neighbouring tile that the shared FlowField says is nearer, and
+ * otherwise wanders at random. Choosing a move takes constant time,
+ * and the field is only searched once a step, and only if a human has
+ * moved, so a game of thousands of chasing bots costs little more
+ * than one of a single bot.
+ *
+ * @author Jonathan Beaumont
+ */
+public class ChaseStrategy implements BotStrategy {
+
+    private static final char[] DIRECTIONS = {'N', 'E', 'S', 'W'};
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+
+    private FlowField field;
+    private RandomWalkStrategy wander;
+
+    /**
+     * Constructor.
+     *
+     * @param map   the map the bots are on.
+     */
+    public ChaseStrategy(Map map) {
+        field = new FlowField(map);
+        wander = new RandomWalkStrategy();
+    }
+
+    public void startStep(GameLogic game) {
+        field.update(game.getHumans());
+    }
+
+    /**
+     * Chooses a move downhill in the flow field, trying the directions
+     * from a random one, so that bots the same distance away do not
+     * all take the same route.
+     */
+    public Command nextCommand(Player bot, Command command, Random random) {
+        int x = bot.getXCoordinate();
+        int y = bot.getYCoordinate();
+        int distance = field.getDistance(x, y);
+        if (distance != FlowField.UNREACHED) {
+            int first = random.nextInt(DIRECTIONS.length);
+            for (int i = 0; i < DIRECTIONS.length; i++) {
+                int direction = (first + i) % DIRECTIONS.length;
+                if (field.getDistance(x + DX[direction], y + DY[direction]) < distance) {
+                    return command.set(CommandType.MOVE, DIRECTIONS[direction], null, null);
+                }
+            }
+        }
+        return wander.nextCommand(bot, command, random);
+    }
+}
@@ -0,0 +1,338 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The tiles of a map too large to keep in memory. The map is split
+ * into chunks of 64 x 64 tiles, and a chunk is read from the map file
+ * the first time it is touched, and packed into PackedTiles of its
+ * own. Once more chunks are in memory than the budget allows, the
+ * least recently used chunk is dropped.
+ *
+ * Chunks with changed tiles, e.g. gold that has been picked up, are
+ * written back before they are dropped, to a scratch file rather than
+ * the map file, so the next game on the map starts from the map as it
+ * was. The scratch file is deleted when the tiles are closed.
+ *
+ * Touching a chunk that is in memory takes no lock. Loading and
+ * dropping chunks and changing tiles are synchronized, so a change is
+ * never made to a chunk that has just been written back and dropped.
+ * A chunk is only stamped with the number of the latest load when it
+ * is touched, so which chunk is least recently used is only known to
+ * within the time between two loads.
+ *
+ * @author Jonathan Beaumont
+ */
+public class ChunkedTiles implements MapTiles, Closeable {
+
+    public static final int CHUNK_SIZE = 64;
+
+    /**
+     * Roughly the memory a chunk takes: its packed tiles, plus their
+     * palette, lookup table and object headers.
+     */
+    public static final int CHUNK_BYTES = CHUNK_SIZE * CHUNK_SIZE / 2 + 320;
+
+    private static final int CHUNK_SHIFT = 6;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private FileChannel mapFile;
+    private FileChannel scratchFile;
+    private long firstRow;
+    private int rowLength;
+    private int width;
+    private int height;
+    private int chunksWide;
+    private AtomicReferenceArray<Chunk> chunks;
+    private Chunk[] resident;
+    private int residentCount;
+    private BitSet written;
+    private volatile long loads;
+    private ByteBuffer rowBytes;
+    private char[] row;
+
+    /**
+     * A chunk in memory.
+     */
+    private static class Chunk {
+        private int index;
+        private PackedTiles tiles;
+        private boolean dirty;
+        private long lastUsed;
+    }
+
+    /**
+     * Constructor. No chunk is read until it is touched.
+     *
+     * @param file      the map file.
+     * @param firstRow  the offset of the first row of tiles in the file.
+     * @param rowLength the length of a row in the file, including its
+     *                  line terminator.
+     * @param width     the width of the map.
+     * @param height    the height of the map.
+     * @param maxChunks the most chunks to keep in memory at once.
+     * @throws IOException if the map file cannot be opened, or the
+     *                     scratch file created.
+     */
+    public ChunkedTiles(Path file, long firstRow, int rowLength, int width, int height, int maxChunks) throws IOException {
+        this.firstRow = firstRow;
+        this.rowLength = rowLength;
+        this.width = width;
+        this.height = height;
+        chunksWide = (width + CHUNK_MASK) >>> CHUNK_SHIFT;
+        int chunksHigh = (height + CHUNK_MASK) >>> CHUNK_SHIFT;
+        chunks = new AtomicReferenceArray<>(chunksWide * chunksHigh);
+        resident = new Chunk[Math.max(1, Math.min(maxChunks, chunks.length()))];
+        written = new BitSet();
+        rowBytes = ByteBuffer.allocate(CHUNK_SIZE);
+        row = new char[CHUNK_SIZE];
+        mapFile = FileChannel.open(file, StandardOpenOption.READ);
+        Path scratch = Files.createTempFile("dod-chunks", ".tmp");
+        scratchFile = FileChannel.open(scratch, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return  the number of chunks in memory.
+     */
+    public synchronized int getResidentChunks() {
+        return residentCount;
+    }
+
+    /**
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return  the tile, or '#' if it is outside the map.
+     * @throws UncheckedIOException if the tile's chunk cannot be read.
+     */
+    public char get(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return '#';
+        }
+        return chunk(x >>> CHUNK_SHIFT, y >>> CHUNK_SHIFT).tiles.get(x & CHUNK_MASK, y & CHUNK_MASK);
+    }
+
+    /**
+     * Copies part of a row into a buffer, a chunk at a time. Tiles
+     * outside the map are copied as '#'.
+     *
+     * @param x         x coordinate of the first tile.
+     * @param y         y coordinate of the row.
+     * @param length    the number of tiles.
+     * @param chars     the buffer to copy into.
+     * @param offset    the index to copy the first tile to.
+     * @throws UncheckedIOException if a chunk cannot be read.
+     */
+    public void getRow(int x, int y, int length, char[] chars, int offset) {
+        if (y < 0 || y >= height) {
+            Arrays.fill(chars, offset, offset + length, '#');
+            return;
+        }
+        int end = x + length;
+        int column = x;
+        while (column < 0 && column < end) {
+            chars[offset++] = '#';
+            column++;
+        }
+        int inside = Math.min(end, width);
+        while (column < inside) {
+            int count = Math.min(CHUNK_SIZE - (column & CHUNK_MASK), inside - column);
+            chunk(column >>> CHUNK_SHIFT, y >>> CHUNK_SHIFT).tiles
+                    .getRow(column & CHUNK_MASK, y & CHUNK_MASK, count, chars, offset);
+            offset += count;
+            column += count;
+        }
+        while (column < end) {
+            chars[offset++] = '#';
+            column++;
+        }
+    }
+
+    /**
+     * Replaces a tile, and marks its chunk to be written back. Tiles
+     * outside the map are ignored.
+     *
+     * @param x     x coordinate of the tile.
+     * @param y     y coordinate of the tile.
+     * @param tile  the new tile.
+     * @throws IllegalArgumentException if the tile would be a 17th
+     *                                  kind of tile in its chunk.
+     * @throws UncheckedIOException if the tile's chunk cannot be read.
+     */
+    public synchronized void set(int x, int y, char tile) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        Chunk chunk = chunk(x >>> CHUNK_SHIFT, y >>> CHUNK_SHIFT);
+        chunk.tiles.set(x & CHUNK_MASK, y & CHUNK_MASK, tile);
+        chunk.dirty = true;
+    }
+
+    /**
+     * Closes the map file, and deletes the scratch file along with
+     * every change written back to it.
+     *
+     * @throws IOException if either file cannot be closed.
+     */
+    public synchronized void close() throws IOException {
+        mapFile.close();
+        scratchFile.close();
+    }
+
+    /**
+     * @param chunkX    x coordinate of the chunk, in chunks.
+     * @param chunkY    y coordinate of the chunk, in chunks.
+     * @return  the chunk, read into memory if it was not already.
+     */
+    private Chunk chunk(int chunkX, int chunkY) {
+        Chunk chunk = chunks.get(chunkY * chunksWide + chunkX);
+        if (chunk == null) {
+            chunk = load(chunkY * chunksWide + chunkX);
+        }
+        chunk.lastUsed = loads;
+        return chunk;
+    }
+
+    /**
+     * Reads a chunk into memory, first dropping the least recently
+     * used chunk if the budget is full.
+     *
+     * @param index the index of the chunk.
+     * @return  the chunk.
+     */
+    private synchronized Chunk load(int index) {
+        Chunk chunk = chunks.get(index);
+        if (chunk != null) {
+            return chunk;
+        }
+        try {
+            int slot = residentCount;
+            if (residentCount == resident.length) {
+                slot = leastRecentlyUsed();
+                evict(resident[slot]);
+            } else {
+                residentCount++;
+            }
+            chunk = read(index);
+            chunk.lastUsed = ++loads;
+            resident[slot] = chunk;
+            chunks.set(index, chunk);
+            return chunk;
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read map chunk " + index, e);
+        }
+    }
+
+    /**
+     * @return  the slot of the resident chunk touched longest ago.
+     */
+    private int leastRecentlyUsed() {
+        int oldest = 0;
+        for (int slot = 1; slot < resident.length; slot++) {
+            if (resident[slot].lastUsed < resident[oldest].lastUsed) {
+                oldest = slot;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Drops a chunk from memory, writing it back to the scratch file
+     * first if any of its tiles have changed.
+     *
+     * @param chunk the chunk.
+     * @throws IOException if the chunk cannot be written back.
+     */
+    private void evict(Chunk chunk) throws IOException {
+        if (chunk.dirty) {
+            PackedTiles tiles = chunk.tiles;
+            for (int y = 0; y < tiles.getHeight(); y++) {
+                tiles.getRow(0, y, tiles.getWidth(), row, 0);
+                rowBytes.clear();
+                for (int x = 0; x < tiles.getWidth(); x++) {
+                    rowBytes.put((byte) row[x]);
+                }
+                rowBytes.flip();
+                writeFully(scratchFile, rowBytes, scratchOffset(chunk.index, y));
+            }
+            written.set(chunk.index);
+        }
+        chunks.set(chunk.index, null);
+    }
+
+    /**
+     * Reads a chunk, from the scratch file if it has been written back
+     * there, or else from the map file.
+     *
+     * @param index the index of the chunk.
+     * @return  the chunk.
+     * @throws IOException if the chunk cannot be read, or its part of
+     *                     the map file is not valid.
+     */
+    private Chunk read(int index) throws IOException {
+        int left = (index % chunksWide) * CHUNK_SIZE;
+        int top = (index / chunksWide) * CHUNK_SIZE;
+        Chunk chunk = new Chunk();
+        chunk.index = index;
+        chunk.tiles = new PackedTiles(Math.min(CHUNK_SIZE, width - left), Math.min(CHUNK_SIZE, height - top));
+        boolean scratch = written.get(index);
+        for (int y = 0; y < chunk.tiles.getHeight(); y++) {
+            rowBytes.clear();
+            rowBytes.limit(chunk.tiles.getWidth());
+            if (scratch) {
+                readFully(scratchFile, rowBytes, scratchOffset(index, y));
+            } else {
+                readFully(mapFile, rowBytes, firstRow + (long) (top + y) * rowLength + left);
+            }
+            for (int x = 0; x < rowBytes.limit(); x++) {
+                byte tile = rowBytes.get(x);
+                if (tile == '\n' || tile == '\r') {
+                    throw new IOException("map not valid at row " + (top + y));
+                }
+                row[x] = (char) (tile & 0xFF);
+            }
+            chunk.tiles.setRow(y, row);
+        }
+        return chunk;
+    }
+
+    /**
+     * @param index the index of a chunk.
+     * @param y     y coordinate of a row within the chunk.
+     * @return  the offset of the row in the scratch file, where each
+     *          chunk has a slot of 64 x 64 bytes.
+     */
+    private static long scratchOffset(int index, int y) {
+        return ((long) index * CHUNK_SIZE + y) * CHUNK_SIZE;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("map file ended early");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Tests that ChunkedTiles reads the same tiles as a map loaded whole,
+ * and keeps changes to chunks it has dropped.
+ *
+ * @author Jonathan Beaumont
+ */
+public class ChunkedTilesTest {
+
+    private static final int WIDTH = 150;
+    private static final int HEIGHT = 70;
+
+    /**
+     * Writes a map that is three chunks wide and two high, with gold
+     * on every 7th tile.
+     */
+    private static Path writeMap() throws Exception {
+        StringBuilder file = new StringBuilder("name chunks\r\nwin 1\r\n");
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                file.append(x == 0 ? '#' : (x + y) % 7 == 0 ? 'G' : '.');
+            }
+            file.append("\r\n");
+        }
+        Path path = Files.createTempFile("chunks", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, file.toString().getBytes(StandardCharsets.US_ASCII));
+        return path;
+    }
+
+    @Test
+    public void readsTheSameTilesAsAWholeMap() throws Exception {
+        Path path = writeMap();
+        Map whole = new Map();
+        whole.readMap(path.toString());
+        Map chunked = new Map();
+        chunked.readMap(path.toString(), 1);
+        assertEquals("chunks", chunked.getMapName());
+        assertEquals(WIDTH, chunked.getMapWidth());
+        assertEquals(HEIGHT, chunked.getMapHeight());
+        assertArrayEquals(whole.getMap(), chunked.getMap());
+        char[] expected = new char[Map.LOOK_WINDOW_LENGTH];
+        char[] window = new char[Map.LOOK_WINDOW_LENGTH];
+        whole.look(64, 63, expected);
+        chunked.look(64, 63, window);
+        assertArrayEquals(expected, window);
+        chunked.close();
+    }
+
+    @Test
+    public void writesBackChunksBeforeDroppingThem() throws Exception {
+        int firstRow = "name chunks\r\nwin 1\r\n".length();
+        ChunkedTiles tiles = new ChunkedTiles(writeMap(), firstRow, WIDTH + 2, WIDTH, HEIGHT, 2);
+        tiles.set(7, 0, '.');
+        tiles.set(130, 69, 'E');
+        tiles.get(70, 0);
+        tiles.get(0, 64);
+        assertEquals(2, tiles.getResidentChunks());
+        assertEquals('.', tiles.get(7, 0));
+        assertEquals('E', tiles.get(130, 69));
+        assertEquals('G', tiles.get(14, 0));
+        assertEquals('#', tiles.get(WIDTH, 0));
+        tiles.close();
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * A command from a client, parsed from a line of the text protocol
+ * or decoded from a frame of the binary protocol, so that GameLogic
+ * does not need to know which protocol the client speaks. A Command
+ * can be reused for every command a client sends.
+ *
+ * A client may tag a command with a sequence number, e.g.
+ * <code>#12 MOVE N</code>, and every line of the reply to it is then
+ * tagged with the same number, e.g. <code>#12 SUCCESS</code>. Lines
+ * the server pushes, such as chat, are never tagged, so a client can
+ * send many commands without waiting and still tell which reply is
+ * which.
+ *
+ * @author Jonathan Beaumont
+ */
+public class Command {
+
+    private static final CommandType[] KEYWORDS = {
+            CommandType.HELLO, CommandType.MOVE, CommandType.PICKUP, CommandType.LOOK, CommandType.WHISPER,
+            CommandType.SHOUT, CommandType.USERNAME, CommandType.USERNAMES, CommandType.QUIT, CommandType.WALK
+    };
+
+    /**
+     * The sequence number of a command that was not tagged with one.
+     */
+    public static final int NO_SEQUENCE = -1;
+
+    private static final int MAX_SEQUENCE_DIGITS = 9;
+
+    private CommandType type;
+    private int sequence;
+    private char direction;
+    private String target;
+    private String payload;
+    private String line;
+    private int targetStart;
+    private int targetEnd;
+    private int payloadStart;
+    private int payloadEnd;
+
+    public Command() {
+        clear();
+    }
+
+    /**
+     * Copies another command, e.g. to keep it after the original is
+     * reused.
+     *
+     * @param other the command to copy.
+     */
+    public Command(Command other) {
+        set(other.type, other.direction, other.target, other.payload);
+        setSpans(other.line, other.targetStart, other.targetEnd, other.payloadStart, other.payloadEnd);
+        sequence = other.sequence;
+    }
+
+    /**
+     * Sets every part of the command.
+     *
+     * @param type      the type of command.
+     * @param direction the direction to MOVE in, the tile to WALK to,
+     *                  'G' or 'E', or 0.
+     * @param target    the username to WHISPER to, or null.
+     * @param payload   the message of a WHISPER or SHOUT, or the new
+     *                  USERNAME, or null.
+     * @return  this command.
+     */
+    public Command set(CommandType type, char direction, String target, String payload) {
+        this.type = type;
+        this.direction = direction;
+        this.target = target;
+        this.payload = payload;
+        setSpans(null, -1, -1, -1, -1);
+        return this;
+    }
+
+    /**
+     * Resets the command to an invalid one, without a sequence
+     * number.
+     */
+    public void clear() {
+        set(CommandType.INVALID, (char) 0, null, null);
+        sequence = NO_SEQUENCE;
+    }
+
+    /**
+     * Parses a line of the text protocol into this command in a
+     * single pass over the line, without splitting it. The command
+     * word is matched ignoring case, and the target and message of a
+     * WHISPER or SHOUT are kept as spans of the line, so nothing is
+     * allocated until they are asked for. A MOVE without exactly one
+     * direction word keeps a direction of 0, as does a WALK to anything
+     * but GOLD or EXIT, which keeps 'G' or 'E', and a WHISPER without a
+     * message keeps a null target. A leading <code>#</code> and
+     * number is the command's sequence number, which is kept even if
+     * the rest of the line is not a valid command.
+     *
+     * @param line  the line, which may be null.
+     * @return  this command.
+     */
+    public Command parse(String line) {
+        clear();
+        if (line == null) {
+            return this;
+        }
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int wordStart = skipSpaces(line, 0, end);
+        int tagEnd = skipWord(line, wordStart, end);
+        if (tagEnd - wordStart > 1 && tagEnd - wordStart <= MAX_SEQUENCE_DIGITS + 1 && line.charAt(wordStart) == '#') {
+            sequence = number(line, wordStart + 1, tagEnd);
+            if (sequence != NO_SEQUENCE) {
+                wordStart = skipSpaces(line, tagEnd, end);
+            }
+        }
+        int wordEnd = skipWord(line, wordStart, end);
+        type = keyword(line, wordStart, wordEnd);
+        int argumentStart = skipSpaces(line, wordEnd, end);
+        int argumentEnd = skipWord(line, argumentStart, end);
+        boolean oneArgument = argumentStart < end && argumentEnd == end;
+        switch (type) {
+            case MOVE:
+                if (oneArgument) {
+                    direction = Character.toUpperCase(line.charAt(argumentStart));
+                }
+                break;
+            case LOOK:
+                if (oneArgument && argumentEnd - argumentStart == 4 && line.regionMatches(true, argumentStart, "PUSH", 0, 4)) {
+                    type = CommandType.LOOK_PUSH;
+                }
+                break;
+            case USERNAMES:
+                if (oneArgument && argumentEnd - argumentStart == 4 && line.regionMatches(true, argumentStart, "PUSH", 0, 4)) {
+                    type = CommandType.USERNAMES_PUSH;
+                }
+                break;
+            case WALK:
+                if (oneArgument && argumentEnd - argumentStart == 4) {
+                    if (line.regionMatches(true, argumentStart, "GOLD", 0, 4)) {
+                        direction = 'G';
+                    } else if (line.regionMatches(true, argumentStart, "EXIT", 0, 4)) {
+                        direction = 'E';
+                    }
+                }
+                break;
+            case WHISPER:
+                int messageStart = skipSpaces(line, argumentEnd, end);
+                if (messageStart < end) {
+                    setSpans(line, argumentStart, argumentEnd, messageStart, end);
+                }
+                break;
+            case SHOUT:
+            case USERNAME:
+                setSpans(line, -1, -1, argumentStart, end);
+                break;
+            default:
+                break;
+        }
+        return this;
+    }
+
+    /**
+     * @param line  the line.
+     * @param start the index of the first character of a word.
+     * @param end   the index after the last character of the line.
+     * @return  the type of command the word names, or INVALID.
+     */
+    private static CommandType keyword(String line, int start, int end) {
+        int length = end - start;
+        for (CommandType keyword : KEYWORDS) {
+            String name = keyword.name();
+            if (name.length() == length && line.regionMatches(true, start, name, 0, length)) {
+                return keyword;
+            }
+        }
+        return CommandType.INVALID;
+    }
+
+    /**
+     * @param line  the line.
+     * @param start the index of the first digit.
+     * @param end   the index after the last digit.
+     * @return  the number, or <code>NO_SEQUENCE</code> if there is a
+     *          character that is not a digit.
+     */
+    private static int number(String line, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return NO_SEQUENCE;
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static int skipSpaces(String line, int index, int end) {
+        while (index < end && line.charAt(index) <= ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private static int skipWord(String line, int index, int end) {
+        while (index < end && line.charAt(index) > ' ') {
+            index++;
+        }
+        return index;
+    }
+
+    private void setSpans(String line, int targetStart, int targetEnd, int payloadStart, int payloadEnd) {
+        this.line = line;
+        this.targetStart = targetStart;
+        this.targetEnd = targetEnd;
+        this.payloadStart = payloadStart;
+        this.payloadEnd = payloadEnd;
+    }
+
+    /**
+     * Tags every line of a reply with a sequence number, as the reply
+     * to a command tagged with it is sent.
+     *
+     * @param sequence  the sequence number, or <code>NO_SEQUENCE</code>.
+     * @param reply     the reply, which may hold several lines.
+     * @return  the tagged reply, or the reply itself if there is no
+     *          sequence number.
+     */
+    public static String tagReply(int sequence, String reply) {
+        if (sequence == NO_SEQUENCE) {
+            return reply;
+        }
+        String tag = "#" + sequence + " ";
+        return tag + reply.replace("\n", "\n" + tag);
+    }
+
+    /**
+     * @return  the sequence number the client tagged the command
+     *          with, or <code>NO_SEQUENCE</code>.
+     */
+    public int getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Tags the command with a sequence number. Unlike the other parts
+     * of the command, it is kept by <code>set()</code>.
+     *
+     * @param sequence  the sequence number, or <code>NO_SEQUENCE</code>.
+     * @return  this command.
+     */
+    public Command setSequence(int sequence) {
+        this.sequence = sequence;
+        return this;
+    }
+
+    public CommandType getType() {
+        return type;
+    }
+
+    /**
+     * @return  the direction to MOVE in, the tile to WALK to, or 0.
+     */
+    public char getDirection() {
+        return direction;
+    }
+
+    /**
+     * @return  the username to WHISPER to, or null.
+     */
+    public String getTarget() {
+        if (target == null && targetStart >= 0) {
+            return line.substring(targetStart, targetEnd);
+        }
+        return target;
+    }
+
+    /**
+     * @return  the message of a WHISPER or SHOUT, or the new
+     *          USERNAME, or null.
+     */
+    public String getPayload() {
+        if (payload == null && payloadStart >= 0) {
+            return line.substring(payloadStart, payloadEnd);
+        }
+        return payload;
+    }
+}
@@ -0,0 +1,56 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import org.junit.Test;
+
+/**
+ * Tests the parsing of lines of the text protocol into commands.
+ *
+ * @author Jonathan Beaumont
+ */
+public class CommandTest {
+
+    @Test
+    public void messagesMayContainTheCommandWord() {
+        Command command = new Command().parse("SHOUT I SHOUT because I can");
+        assertEquals(CommandType.SHOUT, command.getType());
+        assertEquals("I SHOUT because I can", command.getPayload());
+
+        command.parse("whisper bob bob, WHISPER back");
+        assertEquals(CommandType.WHISPER, command.getType());
+        assertEquals("bob", command.getTarget());
+        assertEquals("bob, WHISPER back", command.getPayload());
+    }
+
+    @Test
+    public void parsesLikeTheTextProtocol() {
+        Command command = new Command();
+        assertEquals('N', command.parse("  move north ").getDirection());
+        assertEquals(0, command.parse("MOVE").getDirection());
+        assertEquals(0, command.parse("MOVE N E").getDirection());
+        assertEquals(CommandType.LOOK_PUSH, command.parse("look push").getType());
+        assertEquals(CommandType.LOOK, command.parse("LOOK around").getType());
+        assertEquals(CommandType.USERNAMES, command.parse("USERNAMES").getType());
+        assertNull(command.parse("WHISPER bob").getTarget());
+        assertEquals("", command.parse("SHOUT").getPayload());
+        assertEquals(CommandType.INVALID, command.parse("LOOKS").getType());
+        assertEquals(CommandType.INVALID, command.parse("").getType());
+        assertEquals(CommandType.INVALID, command.parse(null).getType());
+    }
+
+    @Test
+    public void sequenceNumbersTagCommands() {
+        Command command = new Command().parse("#12 move n");
+        assertEquals(12, command.getSequence());
+        assertEquals('N', command.getDirection());
+        assertEquals(Command.NO_SEQUENCE, command.parse("MOVE N").getSequence());
+        assertEquals(7, command.parse(" #7 LOOKS").getSequence());
+        assertEquals(CommandType.INVALID, command.getType());
+        assertEquals(Command.NO_SEQUENCE, command.parse("#x MOVE N").getSequence());
+        assertEquals(CommandType.INVALID, command.getType());
+        assertEquals(3, new Command(command.parse("#3 SHOUT #4 hi")).getSequence());
+        assertEquals("#4 hi", command.getPayload());
+
+        assertEquals("#3 FAIL\n#3 no gold", Command.tagReply(3, "FAIL\nno gold"));
+        assertEquals("FAIL", Command.tagReply(Command.NO_SEQUENCE, "FAIL"));
+    }
+}
@@ -0,0 +1,20 @@
+/**
+ * The commands a client can send to the server.
+ *
+ * @author Jonathan Beaumont
+ */
+public enum CommandType {
+    HELLO,
+    MOVE,
+    PICKUP,
+    LOOK,
+    LOOK_PUSH,
+    WHISPER,
+    SHOUT,
+    USERNAME,
+    USERNAMES,
+    USERNAMES_PUSH,
+    QUIT,
+    WALK,
+    INVALID
+}
@@ -0,0 +1,28 @@
+/**
+ * A PlayerConnection that discards everything written to it, for
+ * players with no client: the bots a BotEngine runs inside the
+ * server, and the players the benchmarks add to a game.
+ *
+ * @author Jonathan Beaumont
+ */
+public class DiscardingConnection implements PlayerConnection {
+
+    private volatile boolean closed;
+
+    public void writeLine(String message) {
+    }
+
+    public void writeLine(char[] chars, int length) {
+    }
+
+    public void writeBytes(byte[] bytes, int offset, int length) {
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+}
@@ -13,9 +13,9 @@ import java.net.SocketException;
 public class DoDServerClientListener implements Runnable {
 
     private ServerSocket serverSocket;
-    private GameLogic game;
+    protected GameLogic game;
     private static Integer counter;
-    private boolean acceptNewClients;
+    private volatile boolean acceptNewClients;
     private int portNumber;
 
     /**
@@ -76,6 +76,13 @@ public class DoDServerClientListener implements Runnable {
         System.out.println("Server : Stopped listening for Clients on port " + portNumber);
     }
 
+    /**
+     * @return  whether the acceptNewClients flag is raised.
+     */
+    protected boolean isAcceptingNewClients() {
+        return acceptNewClients;
+    }
+
     /**
      * Executed when it is started in a new Thread. Loops while the
      * ServerSocket has not been closed, accepting new clients. Once
@@ -98,7 +105,10 @@ public class DoDServerClientListener implements Runnable {
                 if (acceptNewClients) {
                     int playerID = getNewID();
                     System.out.println("Server : Client Accepted (" + playerID + ")");
-                    game.addPlayer(new Player(clientSocket, game, playerID));
+                    Player player = new Player(clientSocket, game, playerID);
+                    if (player.hasValidHandshake()) {
+                        game.addPlayer(player);
+                    }
                 } else {
                     rejectNewSocket(clientSocket);
                 }
@@ -115,7 +125,7 @@ public class DoDServerClientListener implements Runnable {
      *
      * @return  the next id.
      */
-    private synchronized int getNewID() {
+    protected synchronized int getNewID() {
         int id = counter;
         counter++;
         return id;
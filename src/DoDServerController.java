@@ -10,7 +10,19 @@ import java.util.Iterator;
  */
 public class DoDServerController {
 
+    private static final String DEFAULT_MAP_FILE = "maps/example_map.txt";
+
     private boolean serverRunning;
+    private ServerMode serverMode;
+    private int ticksPerSecond;
+    private boolean headless;
+    private String mapFile;
+    private int mapCacheMegabytes;
+    private int serverBots;
+    private boolean chasingBots;
+    private int outboundQueueBytes;
+    private OverflowPolicy overflowPolicy;
+    private Map map;
     private GameLogic game;
     private DoDServerGUI serverGUI;
     private DoDServerClientListener currentActiveClientListener;
@@ -18,10 +30,18 @@ public class DoDServerController {
 
     /**
      * Constructor. Runs a method to initialise variables and object.
+     * The arguments may contain a port number, optionally followed
+     * by options such as the server mode.
      */
     public DoDServerController(String[] args) {
+        serverMode = ServerMode.BLOCKING;
+        ticksPerSecond = 0;
+        mapFile = DEFAULT_MAP_FILE;
+        outboundQueueBytes = OutboundQueue.DEFAULT_MAX_BYTES;
+        overflowPolicy = OverflowPolicy.DISCONNECT;
+        parseOptions(args);
         init();
-        if (args.length == 1) {
+        if (args.length >= 1) {
             if (attemptServerStart(args[0]) != null) {
                 System.out.println("Invalid port : " + args[0] + ". Starting GUI...");
                 startConnectGUI();
@@ -31,6 +51,58 @@ public class DoDServerController {
         }
     }
 
+    /**
+     * Reads the options that follow the port number: a server mode,
+     * such as "nio", and "tick" or "tick=N" to run the game in a
+     * GameSimulation at the default or N ticks per second, and
+     * "headless" to run without any windows, e.g. for load testing,
+     * and "map=FILE" to play on a map other than the example map.
+     * "mapcache=MB" keeps only the parts of the map in use in memory,
+     * in at most MB megabytes, for maps too large to load whole. It
+     * implies "headless", as the server's window draws the whole map
+     * after every move, which would read all of it.
+     * "bots=N" adds N bots that run inside the server, with no client,
+     * and "chase" makes them chase humans instead of wandering.
+     * "outbound=KB" sets how much output may wait for a client that
+     * is not reading, and "overflow=drop" or "overflow=disconnect"
+     * what happens to that client when there is more.
+     *
+     * @param args  the arguments.
+     */
+    private void parseOptions(String[] args) {
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            ServerMode mode = ServerMode.fromArgument(option);
+            if (mode != null) {
+                serverMode = mode;
+            } else if (option.equals("tick")) {
+                ticksPerSecond = GameSimulation.DEFAULT_TICKS_PER_SECOND;
+            } else if (option.matches("^tick=[1-9][0-9]{0,3}$")) {
+                ticksPerSecond = Integer.parseInt(option.substring(5));
+            } else if (option.equals("headless")) {
+                headless = true;
+            } else if (option.startsWith("map=") && option.length() > 4) {
+                mapFile = option.substring(4);
+            } else if (option.matches("^mapcache=[1-9][0-9]{0,5}$")) {
+                mapCacheMegabytes = Integer.parseInt(option.substring(9));
+            } else if (option.matches("^bots=[1-9][0-9]{0,6}$")) {
+                serverBots = Integer.parseInt(option.substring(5));
+            } else if (option.equals("chase")) {
+                chasingBots = true;
+            } else if (option.matches("^outbound=[1-9][0-9]{0,5}$")) {
+                outboundQueueBytes = Integer.parseInt(option.substring(9)) * 1024;
+            } else if (option.startsWith("overflow=") && OverflowPolicy.fromArgument(option.substring(9)) != null) {
+                overflowPolicy = OverflowPolicy.fromArgument(option.substring(9));
+            } else {
+                System.out.println("Invalid option : " + option + ". Ignoring...");
+            }
+        }
+        if (mapCacheMegabytes > 0 && !headless) {
+            System.out.println("Server : mapcache draws no map, running headless...");
+            headless = true;
+        }
+    }
+
     /**
      * Resets/empties the <code>clientListenerHashMap</code>, resets
      * the <code>serverRunning</code> flag and instantiates a new
@@ -41,7 +113,21 @@ public class DoDServerController {
     private void init() {
         clientListenerHashMap = new HashMap<>();
         serverRunning = false;
-        game = new GameLogic(this);
+        map = new Map();
+        if (mapCacheMegabytes > 0) {
+            map.readMap(mapFile, mapCacheMegabytes);
+        } else {
+            map.readMap(mapFile);
+        }
+        game = new GameLogic(this, serverMode.getThreadFactory(), map);
+        game.setOutboundLimit(outboundQueueBytes, overflowPolicy);
+        if (ticksPerSecond > 0) {
+            game.startSimulation(ticksPerSecond);
+        }
+        if (serverBots > 0) {
+            BotStrategy strategy = chasingBots ? new ChaseStrategy(map) : new RandomWalkStrategy();
+            game.startBots(serverBots, strategy, BotEngine.DEFAULT_STEP_MILLIS);
+        }
     }
 
     /**
@@ -50,6 +136,10 @@ public class DoDServerController {
      * <code>createAndShowGUI</code> method to display the window.
      */
     public void startConnectGUI() {
+        if (headless) {
+            System.out.println("Server : No valid port to listen on");
+            return;
+        }
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -85,7 +175,7 @@ public class DoDServerController {
             } else {
 
                 try {
-                    DoDServerClientListener newClientListener = new DoDServerClientListener(game, portNumber);
+                    DoDServerClientListener newClientListener = serverMode.createClientListener(game, portNumber);
                     newClientListener.startServerSocket();
                     setupNewClientListener(newClientListener);
 
@@ -157,14 +247,14 @@ public class DoDServerController {
     /**
      * Sets the newClientListener to be the current accepting
      * DoDServerClientListener, adds it to the clientListenerHashMap
-     * and starts it running in a new Thread.
+     * and starts it running in a new Thread of the server mode.
      *
      * @param newClientListener the new DoDServerClientListener to be added
      */
     private void setupNewClientListener(DoDServerClientListener newClientListener) {
         updateCurrentClientListener(newClientListener);
         clientListenerHashMap.put(getCurrentActivePort(), newClientListener);
-        new Thread(newClientListener).start();
+        serverMode.getThreadFactory().newThread(newClientListener).start();
     }
 
     /**
@@ -172,6 +262,10 @@ public class DoDServerController {
      * event dispatcher thread.
      */
     private void startMainGui() {
+        if (headless) {
+            System.out.println("Server : Listening on port " + getCurrentActivePort());
+            return;
+        }
         javax.swing.SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
@@ -189,9 +283,12 @@ public class DoDServerController {
         return game.getPopulatedMap();
     }
 
-    //todo
+    /**
+     * Redraws the map in the server GUI, if it is showing.
+     */
     public void updateServerMap() {
-        serverGUI.updateMapGrid();
+        if (serverGUI != null)
+            serverGUI.updateMapGrid();
     }
 
     /**
@@ -210,6 +307,7 @@ public class DoDServerController {
                 System.err.println("Server : Error stopping the socket on port " + clientListener.getPortNumber());
             }
         }
+        map.close();
         init();
         startConnectGUI();
     }
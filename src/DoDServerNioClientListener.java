@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+
+/**
+ * A DoDServerClientListener that serves its clients with
+ * non-blocking channels instead of a Thread per Player. The listener
+ * Thread only accepts new clients, which are spread across a small
+ * pool of NioWorker I/O threads that frame the clients' lines and
+ * hand them to the game.
+ *
+ * @author Jonathan Beaumont
+ */
+public class DoDServerNioClientListener extends DoDServerClientListener {
+
+    private static final int ACCEPT_BACKLOG = 1024;
+
+    private ServerSocketChannel serverChannel;
+    private Selector acceptSelector;
+    private NioWorker[] workers;
+    private int nextWorker;
+
+    /**
+     * Constructor.
+     *
+     * @param game          the current game object
+     * @param portNumber    the port number to start listening on
+     */
+    public DoDServerNioClientListener(GameLogic game, int portNumber) {
+        super(game, portNumber);
+    }
+
+    /**
+     * Attempts to open a non-blocking ServerSocketChannel on its port
+     * number, then starts one NioWorker Thread per available
+     * processor.
+     *
+     * @throws IOException  if there is an error opening the channel.
+     */
+    public void startServerSocket() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(getPortNumber()), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        workers = new NioWorker[Runtime.getRuntime().availableProcessors()];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new NioWorker(game);
+            Thread workerThread = new Thread(workers[i], "NioWorker-" + getPortNumber() + "-" + i);
+            workerThread.start();
+        }
+    }
+
+    /**
+     * Attempts to close the ServerSocketChannel, then shuts down the
+     * workers.
+     *
+     * @throws IOException  if there is a problem closing the channel.
+     */
+    public void stopServerSocket() throws IOException {
+        serverChannel.close();
+        acceptSelector.wakeup();
+        for (NioWorker worker : workers) {
+            worker.shutdown();
+        }
+    }
+
+    /**
+     * Executed when it is started in a new Thread. Loops while the
+     * ServerSocketChannel is open, accepting new clients and handing
+     * them to the workers in turn, or rejecting them if the
+     * acceptNewClients flag is not raised.
+     */
+    public void run() {
+        while (serverChannel.isOpen()) {
+            try {
+                acceptSelector.select();
+                Iterator<SelectionKey> iterator = acceptSelector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    iterator.next();
+                    iterator.remove();
+                    acceptPendingClients();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        System.out.println("Server : Stopped listening for Clients");
+        try {
+            acceptSelector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Accepts every client waiting on the ServerSocketChannel.
+     *
+     * @throws IOException  if there is an error accepting a client.
+     */
+    private void acceptPendingClients() throws IOException {
+        SocketChannel clientChannel;
+        while ((clientChannel = serverChannel.accept()) != null) {
+            if (isAcceptingNewClients()) {
+                int playerID = getNewID();
+                System.out.println("Server : Client Accepted (" + playerID + ")");
+                workers[nextWorker].addClient(clientChannel, playerID);
+                nextWorker = (nextWorker + 1) % workers.length;
+            } else {
+                rejectNewChannel(clientChannel);
+            }
+        }
+    }
+
+    /**
+     * Writes a port unavailable message to a client channel, then
+     * closes it.
+     *
+     * @param clientChannel the channel to write to.
+     */
+    private void rejectNewChannel(SocketChannel clientChannel) {
+        try {
+            clientChannel.write(ByteBuffer.wrap("Port unavailable\n".getBytes(StandardCharsets.UTF_8)));
+            clientChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+/**
+ * The number of moves from each tile to the nearest human, found by a
+ * breadth-first search from every human at once, so that a bot only
+ * has to step to a neighbouring tile that is nearer to find its way
+ * to a human. One field is shared by every bot, so it costs the same
+ * however many bots follow it.
+ *
+ * The search stops at <code>MAX_DISTANCE</code> moves, and distances
+ * are kept in blocks of 16 x 16 tiles that are only allocated once
+ * the search reaches them, so the field takes memory and time in
+ * proportion to the area around the humans rather than to the map.
+ * It is only searched again when a human has moved, joined or left.
+ * Each block is stamped with the search that last wrote it, so a new
+ * search does not need to clear the blocks the last one wrote.
+ *
+ * The field is not thread safe; it is updated and read on a single
+ * Thread, such as a BotEngine's.
+ *
+ * @author Jonathan Beaumont
+ */
+public class FlowField {
+
+    public static final int MAX_DISTANCE = 32;
+    public static final int UNREACHED = Short.MAX_VALUE;
+
+    private static final int BLOCK_SHIFT = 4;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private Map map;
+    private int width;
+    private int height;
+    private int blocksWide;
+    private short[][] blocks;
+    private int[] blockSearches;
+    private int search;
+    private int[] humanCells;
+    private int humanCount;
+    private int[] sources;
+    private int sourceCount;
+    private int[] queue;
+
+    /**
+     * Constructor. The field is empty until it is first updated.
+     *
+     * @param map   the map to search.
+     */
+    public FlowField(Map map) {
+        this.map = map;
+        width = map.getMapWidth();
+        height = map.getMapHeight();
+        blocksWide = (width + BLOCK_MASK) >>> BLOCK_SHIFT;
+        int blocksHigh = (height + BLOCK_MASK) >>> BLOCK_SHIFT;
+        blocks = new short[blocksWide * blocksHigh][];
+        blockSearches = new int[blocks.length];
+        humanCells = new int[16];
+        sources = new int[16];
+        queue = new int[256];
+    }
+
+    /**
+     * Searches the map again if any human has moved, joined or left
+     * since the last search.
+     *
+     * @param humans    the humans to find the way to.
+     * @return  whether the map was searched again.
+     */
+    public boolean update(Collection<Player> humans) {
+        humanCount = 0;
+        for (Player human : humans) {
+            if (humanCount == humanCells.length) {
+                humanCells = Arrays.copyOf(humanCells, humanCount * 2);
+            }
+            humanCells[humanCount++] = human.getYCoordinate() * width + human.getXCoordinate();
+        }
+        if (humanCount == sourceCount && samePrefix(humanCells, sources, humanCount)) {
+            return false;
+        }
+        int[] previous = sources;
+        sources = humanCells;
+        sourceCount = humanCount;
+        humanCells = previous;
+        search();
+        return true;
+    }
+
+    /**
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return  the number of moves from the tile to the nearest human,
+     *          or <code>UNREACHED</code> if it is further than
+     *          <code>MAX_DISTANCE</code>, walled off, off the map, or
+     *          the field has not been searched yet.
+     */
+    public int getDistance(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return UNREACHED;
+        }
+        int block = (y >>> BLOCK_SHIFT) * blocksWide + (x >>> BLOCK_SHIFT);
+        if (blockSearches[block] != search || blocks[block] == null) {
+            return UNREACHED;
+        }
+        return blocks[block][(y & BLOCK_MASK) << BLOCK_SHIFT | (x & BLOCK_MASK)];
+    }
+
+    /**
+     * Searches outwards from every human at once, one ring of tiles
+     * at a time, through every tile that is not a wall.
+     */
+    private void search() {
+        search++;
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < sourceCount; i++) {
+            int x = sources[i] % width;
+            int y = sources[i] / width;
+            if (getDistance(x, y) == UNREACHED) {
+                setDistance(x, y, 0);
+                queue = ensureCapacity(queue, tail);
+                queue[tail++] = sources[i];
+            }
+        }
+        while (head < tail) {
+            int cell = queue[head++];
+            int x = cell % width;
+            int y = cell / width;
+            int distance = getDistance(x, y);
+            if (distance == MAX_DISTANCE) {
+                continue;
+            }
+            for (int direction = 0; direction < 4; direction++) {
+                int nextX = x + (direction == 1 ? 1 : direction == 3 ? -1 : 0);
+                int nextY = y + (direction == 0 ? -1 : direction == 2 ? 1 : 0);
+                if (nextX >= 0 && nextY >= 0 && nextX < width && nextY < height
+                        && getDistance(nextX, nextY) == UNREACHED && map.getTile(nextX, nextY) != '#') {
+                    setDistance(nextX, nextY, distance + 1);
+                    queue = ensureCapacity(queue, tail);
+                    queue[tail++] = nextY * width + nextX;
+                }
+            }
+        }
+    }
+
+    /**
+     * Records the distance of a tile, allocating or resetting its
+     * block if this search has not written to it yet.
+     */
+    private void setDistance(int x, int y, int distance) {
+        int block = (y >>> BLOCK_SHIFT) * blocksWide + (x >>> BLOCK_SHIFT);
+        if (blockSearches[block] != search) {
+            if (blocks[block] == null) {
+                blocks[block] = new short[BLOCK_SIZE * BLOCK_SIZE];
+            }
+            Arrays.fill(blocks[block], (short) UNREACHED);
+            blockSearches[block] = search;
+        }
+        blocks[block][(y & BLOCK_MASK) << BLOCK_SHIFT | (x & BLOCK_MASK)] = (short) distance;
+    }
+
+    private static boolean samePrefix(int[] a, int[] b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (a[i] != b[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int[] ensureCapacity(int[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+}
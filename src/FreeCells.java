@@ -0,0 +1,158 @@
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * An index of the tiles a player may spawn on that nobody is on, so
+ * that a new player is placed with a single random pick instead of
+ * trying random tiles until one is free.
+ *
+ * The spawn tiles are grouped by the RegionLocks region they are in,
+ * with the free tiles of each region first. A tile is taken or freed
+ * by swapping it with the last free tile of its region and moving
+ * that region's boundary. A region holds at most 64 tiles, so finding
+ * a tile in it is a short scan, and nothing is allocated.
+ *
+ * A region's tiles are only taken and freed under its write lock,
+ * which moves, spawns and removals already hold, so the index has no
+ * lock of its own. A pick takes no lock: it only suggests a tile,
+ * which the caller checks under the tile's region lock.
+ *
+ * @author Jonathan Beaumont
+ */
+public class FreeCells {
+
+    public static final int NONE = -1;
+
+    private int[] cells;
+    private int[] starts;
+    private AtomicIntegerArray free;
+    private int width;
+    private int regionsWide;
+
+    /**
+     * Constructor. Every spawn tile starts free.
+     *
+     * @param spawnCells    the tiles a player may spawn on, as
+     *                      <code>y * width + x</code>.
+     * @param width         the width of the map.
+     * @param height        the height of the map.
+     */
+    public FreeCells(int[] spawnCells, int width, int height) {
+        this.width = width;
+        regionsWide = (width + RegionLocks.REGION_SIZE - 1) / RegionLocks.REGION_SIZE;
+        int regions = regionsWide * ((height + RegionLocks.REGION_SIZE - 1) / RegionLocks.REGION_SIZE);
+        starts = new int[regions + 1];
+        for (int cell : spawnCells) {
+            starts[regionOf(cell) + 1]++;
+        }
+        free = new AtomicIntegerArray(regions);
+        for (int region = 0; region < regions; region++) {
+            free.set(region, starts[region + 1]);
+            starts[region + 1] += starts[region];
+        }
+        cells = new int[spawnCells.length];
+        int[] next = new int[regions];
+        for (int cell : spawnCells) {
+            int region = regionOf(cell);
+            cells[starts[region] + next[region]++] = cell;
+        }
+    }
+
+    /**
+     * @return  the number of free spawn tiles.
+     */
+    public int getFreeCount() {
+        int count = 0;
+        for (int region = 0; region < free.length(); region++) {
+            count += free.get(region);
+        }
+        return count;
+    }
+
+    /**
+     * Picks a random free tile, from the region of a random spawn
+     * tile, or the next region after it with a free tile. No lock is
+     * taken, so the tile may be taken before the caller locks it.
+     *
+     * @param random    the source of the pick.
+     * @return  the tile, as <code>y * width + x</code>, or NONE if every
+     *          spawn tile is taken.
+     */
+    public int pick(Random random) {
+        if (cells.length == 0) {
+            return NONE;
+        }
+        int first = regionOf(cells[random.nextInt(cells.length)]);
+        for (int i = 0; i < free.length(); i++) {
+            int region = (first + i) % free.length();
+            int count = free.get(region);
+            if (count > 0) {
+                return cells[starts[region] + random.nextInt(count)];
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Marks a tile as taken. Tiles that are not spawn tiles, or are
+     * already taken, are ignored. The caller must hold the write lock
+     * of the tile's region.
+     *
+     * @param cell  the tile, as <code>y * width + x</code>.
+     */
+    public void take(int cell) {
+        int region = regionOf(cell);
+        int position = indexOf(region, cell);
+        int boundary = starts[region] + free.get(region);
+        if (position != NONE && position < boundary) {
+            swap(position, boundary - 1);
+            free.lazySet(region, boundary - 1 - starts[region]);
+        }
+    }
+
+    /**
+     * Marks a tile as free. Tiles that are not spawn tiles, or are
+     * already free, are ignored. The caller must hold the write lock
+     * of the tile's region.
+     *
+     * @param cell  the tile, as <code>y * width + x</code>.
+     */
+    public void release(int cell) {
+        int region = regionOf(cell);
+        int position = indexOf(region, cell);
+        int boundary = starts[region] + free.get(region);
+        if (position != NONE && position >= boundary) {
+            swap(position, boundary);
+            free.lazySet(region, boundary + 1 - starts[region]);
+        }
+    }
+
+    /**
+     * Marks every spawn tile as free. The caller must hold the write
+     * lock of every region.
+     */
+    public void clear() {
+        for (int region = 0; region < free.length(); region++) {
+            free.set(region, starts[region + 1] - starts[region]);
+        }
+    }
+
+    private int regionOf(int cell) {
+        return (cell / width / RegionLocks.REGION_SIZE) * regionsWide + (cell % width) / RegionLocks.REGION_SIZE;
+    }
+
+    private int indexOf(int region, int cell) {
+        for (int i = starts[region]; i < starts[region + 1]; i++) {
+            if (cells[i] == cell) {
+                return i;
+            }
+        }
+        return NONE;
+    }
+
+    private void swap(int i, int j) {
+        int cell = cells[i];
+        cells[i] = cells[j];
+        cells[j] = cell;
+    }
+}
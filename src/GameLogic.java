@@ -2,19 +2,54 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.function.Consumer;
 
 /**
  * Contains the main logic part of the game, as it processes.
  *
+ * There is no lock over the whole game. Commands that change the
+ * map or where players are take the write locks of the map regions
+ * they touch, LOOK takes the read locks of the regions its window
+ * covers, and chat commands take no game lock at all. Every change
+ * to a tile is reported to a LookPusher, which pushes LOOK updates to
+ * players who have asked for them.
+ *
  * @author Jonathan Beaumont.
  */
 public class GameLogic{
 	
 	private Map map;
-	private HashMap<Integer, Player> players;
+	/**
+	 * The number of players above which a broadcast is fanned out
+	 * in parallel, rather than on the thread that sent it.
+	 */
+	private static final long BROADCAST_PARALLELISM_THRESHOLD = 1024;
+	/**
+	 * The number of random tiles tried for a spawn, on a map with no
+	 * index of free spawn tiles, before the map is taken to be full.
+	 */
+	private static final int MAX_SPAWN_ATTEMPTS = 10000;
+
+	private ConcurrentHashMap<Integer, Player> players;
+	private ConcurrentHashMap<Integer, Player> humans;
+	private ConcurrentHashMap<String, Player> playersByUsername;
+	private Roster roster;
+	private RegionLocks regionLocks;
+	private OccupancyGrid occupancy;
+	private RoutePlanner routePlanner;
+	private final Object usernameLock = new Object();
 	private Random random;
-	private boolean active;
+	private volatile boolean active;
 	private DoDServerController controller;
+	private ThreadFactory playerThreads;
+	private int outboundQueueBytes = OutboundQueue.DEFAULT_MAX_BYTES;
+	private OverflowPolicy overflowPolicy = OverflowPolicy.DISCONNECT;
+	private GameSimulation simulation;
+	private BotEngine botEngine;
+	private LookPusher lookPusher;
+	private Thread lookPusherThread;
     private final static HashMap<String, String> PLAYER_EXIT_MESSAGES = new HashMap<String, String>() {
         private static final long serialVersionUID = -5824983597569224316L;
         {
@@ -23,6 +58,7 @@ public class GameLogic{
         put("QUIT", "Thank you for playing Dungeon of Doom!!");
         put("SERVER DISCONNECT", "Sorry guys, the server disconnected! Maybe try again later?");
         put("CONNECTION FAILURE", null);
+        put("FULL", "Sorry, the dungeon is full! Maybe try again later?");
         }
     };
     private final static HashMap<String, String> PLAYER_EXIT_MESSAGES2 = new HashMap<String, String>() {
@@ -36,78 +72,341 @@ public class GameLogic{
     };
 	
 	public GameLogic(DoDServerController controller){
+	    this(controller, ServerMode.BLOCKING.getThreadFactory());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param controller    the server controller.
+     * @param playerThreads the factory for the Threads that run
+     *                      players who read their own input.
+     */
+	public GameLogic(DoDServerController controller, ThreadFactory playerThreads){
+	    this(controller, playerThreads, readDefaultMap());
+    }
+
+    /**
+     * Constructor for a game on a map that has already been loaded.
+     *
+     * @param controller    the server controller, or null if there is
+     *                      no server map to update.
+     * @param playerThreads the factory for the Threads that run
+     *                      players who read their own input.
+     * @param map           the map to play on.
+     */
+	public GameLogic(DoDServerController controller, ThreadFactory playerThreads, Map map){
 	    this.controller = controller;
-		map = new Map();
-		map.readMap("maps/example_map.txt");
-		players = new HashMap<>();
+	    this.playerThreads = playerThreads;
+	    this.map = map;
+		players = new ConcurrentHashMap<>();
+		humans = new ConcurrentHashMap<>();
+		playersByUsername = new ConcurrentHashMap<>();
+		roster = new Roster();
+		regionLocks = new RegionLocks(map.getMapWidth(), map.getMapHeight());
+		occupancy = new OccupancyGrid(map.getMapWidth(), map.getMapHeight(), map.getSpawnCells());
+		routePlanner = new RoutePlanner(map, RoutePlanner.DEFAULT_CACHE_SIZE);
+		lookPusher = new LookPusher(this, map.getMapWidth());
 		random = new Random();
 		active = true;
 	}
 	
-	public synchronized void addPlayer(Player newPlayer){
-		int[] spawnLocation = getSpawnLocation();
-		newPlayer.setLocation(spawnLocation[0], spawnLocation[1]);
-		players.put(newPlayer.getPlayerId(), newPlayer);
-		new Thread(newPlayer).start();
+    /**
+     * @return  the default map, read from file.
+     */
+	private static Map readDefaultMap() {
+	    Map map = new Map();
+		map.readMap("maps/example_map.txt");
+		return map;
+    }
+	
+	/**
+	 * Adds a player to the game on a random free tile. If there is no
+	 * free tile, the player is told the dungeon is full and disconnected.
+	 *
+	 * @param newPlayer the player.
+	 * @return  whether the player was added.
+	 */
+	public boolean addPlayer(Player newPlayer){
+	    boolean spawned = false;
+	    for (int attempt = 0; !spawned; attempt++) {
+            int[] spawnLocation = getSpawnLocation(attempt);
+            if (spawnLocation == null) {
+                System.out.println("Server : Dungeon full, player refused (" + newPlayer.getPlayerId() + ")");
+                newPlayer.exit(PLAYER_EXIT_MESSAGES.get("FULL"));
+                return false;
+            }
+            int[] regions = regionLocks.regionsCovering(spawnLocation[0], spawnLocation[1], spawnLocation[0], spawnLocation[1]);
+            regionLocks.writeLock(regions);
+            try {
+                if (map.getTile(spawnLocation[0], spawnLocation[1]) != '#'
+                        && !isAnotherPlayerOccupyingTile(spawnLocation[0], spawnLocation[1])) {
+                    newPlayer.setLocation(spawnLocation[0], spawnLocation[1]);
+                    occupancy.occupy(spawnLocation[0], spawnLocation[1], newPlayer);
+                    players.put(newPlayer.getPlayerId(), newPlayer);
+                    playersByUsername.put(newPlayer.getUsername(), newPlayer);
+                    if (newPlayer.isHuman()) {
+                        humans.put(newPlayer.getPlayerId(), newPlayer);
+                    }
+                    lookPusher.tileChanged(spawnLocation[0], spawnLocation[1]);
+                    spawned = true;
+                }
+            } finally {
+                regionLocks.writeUnlock(regions);
+            }
+        }
+        if (newPlayer.isHuman()) {
+            roster.add(newPlayer);
+            // a player removed before they were added to the roster must not stay in it
+            if (players.get(newPlayer.getPlayerId()) != newPlayer) {
+                roster.remove(newPlayer);
+            }
+        }
+		if (newPlayer.readsOwnInput()) {
+		    playerThreads.newThread(newPlayer).start();
+        }
 		if (newPlayer.isHuman()) {
             writeToAllHumansExceptPlayer(newPlayer, "NEW PLAYER: " + newPlayer.getUsername());
         } else {
 		    writeToAllHumansExceptPlayer(newPlayer, "NEW BOT ADDED!!");
         }
 		updateServerMap();
+		return true;
 	}
 
-	public synchronized void removePlayer(int id, String removeReason) {
-
-	    System.out.println("Server : Player removed (" + id + ")");
+	/**
+	 * Removes a player from the game, taking the write lock of the
+	 * region they are in. Players are only moved by their own
+	 * commands, and a player caught or escaping in a move is taken off
+	 * the map by that move, under its own locks, so their region cannot
+	 * change before it is locked. Removing a player who has already
+	 * been removed does nothing.
+	 *
+	 * @param id            the id of the player.
+	 * @param removeReason  the reason they are being removed.
+	 */
+	public void removePlayer(int id, String removeReason) {
         Player playerToRemove = players.get(id);
+        if (playerToRemove == null) {
+            return;
+        }
+        boolean removed = false;
+        while (!removed) {
+            int x = playerToRemove.getXCoordinate();
+            int y = playerToRemove.getYCoordinate();
+            int[] regions = regionLocks.regionsCovering(x, y, x, y);
+            regionLocks.writeLock(regions);
+            try {
+                if (!players.containsKey(id)) {
+                    return;
+                } else if (playerToRemove.occupiesSameTile(x, y)) {
+                    removed = takeOffMap(playerToRemove);
+                }
+            } finally {
+                regionLocks.writeUnlock(regions);
+            }
+        }
+        finishRemoval(playerToRemove, removeReason);
+	}
 
-        if (!removeReason.equals("SERVER DISCONNECT")) {
-            String removePlayerMessage;
-            if (playerToRemove.isHuman())
-                removePlayerMessage = "PLAYER EXIT: " + playerToRemove.getUsername() + PLAYER_EXIT_MESSAGES2.get(removeReason);
-            else
-                removePlayerMessage = "A BOT HAS LEFT THE GAME...";
-
-            //Luke is the best
-            //so that removing outside of the iterator doesn't fuck shit up
-            writeToAllHumansExceptPlayer(playerToRemove, removePlayerMessage);
-            players.remove(id);
-            updateServerMap();
+    /**
+     * Takes a player off the map and out of the game's maps of players.
+     * The caller must hold the write lock of the player's region, and
+     * finish the removal with <code>finishRemoval</code> once it has
+     * released it.
+     *
+     * @param player    the player.
+     * @return  whether the player was still in the game.
+     */
+    private boolean takeOffMap(Player player) {
+        if (!players.remove(player.getPlayerId(), player)) {
+            return false;
         }
+        humans.remove(player.getPlayerId(), player);
+        occupancy.vacate(player.getXCoordinate(), player.getYCoordinate(), player);
+        lookPusher.tileChanged(player.getXCoordinate(), player.getYCoordinate());
+        return true;
+    }
+
+    /**
+     * Finishes removing a player who has been taken off the map: tells
+     * everyone else, and the player, why they left. This writes to every
+     * human, so it must be called without any region lock held.
+     *
+     * @param playerToRemove    the player.
+     * @param removeReason      the reason they are being removed.
+     */
+    private void finishRemoval(Player playerToRemove, String removeReason) {
+        synchronized (usernameLock) {
+            playersByUsername.remove(playerToRemove.getUsername(), playerToRemove);
+        }
+        if (playerToRemove.isHuman()) {
+            roster.remove(playerToRemove);
+        }
+        if (playerToRemove.isSubscribedToLook()) {
+            lookPusher.unsubscribe();
+        }
+	    System.out.println("Server : Player removed (" + playerToRemove.getPlayerId() + ")");
+
+        String removePlayerMessage;
+        if (playerToRemove.isHuman())
+            removePlayerMessage = "PLAYER EXIT: " + playerToRemove.getUsername() + PLAYER_EXIT_MESSAGES2.get(removeReason);
+        else
+            removePlayerMessage = "A BOT HAS LEFT THE GAME...";
+
+        writeToAllHumansExceptPlayer(playerToRemove, removePlayerMessage);
+        updateServerMap();
 		playerToRemove.exit(PLAYER_EXIT_MESSAGES.get(removeReason));
 	}
 
-	public synchronized void endGame() {
-        for(Integer key : players.keySet()){
-            removePlayer(key, "SERVER DISCONNECT");
+    /**
+     * Sets the size and overflow policy of the outbound queue of each
+     * client that connects from now on.
+     *
+     * @param maxBytes  the most bytes a client's queue will hold.
+     * @param policy    what to do when a client's queue is full.
+     */
+    public void setOutboundLimit(int maxBytes, OverflowPolicy policy) {
+        outboundQueueBytes = maxBytes;
+        overflowPolicy = policy;
+    }
+
+    /**
+     * @return  a new outbound queue for a client's connection.
+     */
+    public OutboundQueue newOutboundQueue() {
+        return new OutboundQueue(outboundQueueBytes, overflowPolicy);
+    }
+
+    /**
+     * @return  the factory for the Threads that run players who read
+     *          their own input, and write their connections' output.
+     */
+    public ThreadFactory getPlayerThreads() {
+        return playerThreads;
+    }
+
+	/**
+	 * Starts a GameSimulation that applies every player's commands in
+	 * fixed ticks on a single Thread, instead of on the players' own
+	 * Threads.
+	 *
+	 * @param ticksPerSecond    the number of ticks each second.
+	 */
+	public void startSimulation(int ticksPerSecond) {
+	    simulation = new GameSimulation(ticksPerSecond);
+	    Thread simulationThread = new Thread(simulation, "GameSimulation");
+	    simulationThread.start();
+    }
+
+    /**
+     * Starts a BotEngine that adds bots to the game and steps them on
+     * a single Thread, without a client, socket or Thread for each.
+     *
+     * @param count         the number of bots.
+     * @param strategy      what every bot does.
+     * @param stepMillis    the time between the steps of each bot.
+     */
+    public void startBots(int count, BotStrategy strategy, int stepMillis) {
+        botEngine = new BotEngine(this, count, strategy, stepMillis);
+        Thread botThread = new Thread(botEngine, "BotEngine");
+        botThread.start();
+    }
+
+    /**
+     * @return  the number of players in the game, humans and bots.
+     */
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    /**
+     * @return  the human players in the game, as a live view that
+     *          takes no lock, e.g. for bots to chase.
+     */
+    public Collection<Player> getHumans() {
+        return humans.values();
+    }
+
+    /**
+     * @return  whether commands are applied by a GameSimulation.
+     */
+    public boolean isSimulated() {
+	    return simulation != null;
+    }
+
+    /**
+     * Queues a command for the GameSimulation's next tick.
+     *
+     * @param player    the player who sent the command.
+     * @param command   the command.
+     */
+    public void queueCommand(Player player, Command command) {
+	    simulation.queueCommand(player, command);
+    }
+
+	/**
+	 * Ends the game, taking the write lock of every region so that
+	 * no command is part way through, then disconnects every player.
+	 */
+	public void endGame() {
+	    if (simulation != null) {
+	        simulation.stop();
+        }
+	    if (botEngine != null) {
+	        botEngine.stop();
+        }
+	    lookPusher.stop();
+	    regionLocks.writeLockAll();
+	    try {
+	        active = false;
+            for (Player player : players.values()) {
+                player.exit(PLAYER_EXIT_MESSAGES.get("SERVER DISCONNECT"));
+            }
+            players.clear();
+            humans.clear();
+            playersByUsername.clear();
+            roster.clear();
+            occupancy.clear();
+        } finally {
+	        regionLocks.writeUnlockAll();
         }
-        players = new HashMap<>();
-        active = false;
     }
 
-	public synchronized void playerLostConnection(int id) {
+	public void playerLostConnection(int id) {
 	    if (players.containsKey(id)) {
 	        removePlayer(id, "CONNECTION FAILURE");
         }
     }
-	
-	private synchronized int[] getSpawnLocation(){
+
+    /**
+     * Picks a random tile that is not a wall and that nobody is on,
+     * with a single pick from the occupancy grid's index of free spawn
+     * tiles. Only if the map has no list of spawn tiles is any random
+     * tile picked, until <code>MAX_SPAWN_ATTEMPTS</code> have been
+     * tried for the spawn. Whether the tile is a wall or another player
+     * is on it is checked by the caller, under the tile's region lock.
+     *
+     * @param attempt   the number of tiles already tried for the spawn.
+     * @return  the x and y coordinates of the tile, or null if the map
+     *          is full.
+     */
+	private int[] getSpawnLocation(int attempt){
 		int[] randomLocation = new int[2];
-		int x = random.nextInt(map.getMapWidth());
-		int y = random.nextInt(map.getMapHeight());
-		
-		if(map.getTile(x, y) == '#' || isAnotherPlayerOccupyingTile(x, y)){
-			x = random.nextInt(map.getMapWidth());
-			y = random.nextInt(map.getMapHeight());
-			while(map.getTile(x, y) == '#'){
-				x = random.nextInt(map.getMapWidth());
-				y = random.nextInt(map.getMapHeight());
+		if (occupancy.hasFreeIndex()) {
+			int cell = occupancy.pickFreeTile(random);
+			if (cell == FreeCells.NONE) {
+				return null;
 			}
+			randomLocation[0] = cell % map.getMapWidth();
+			randomLocation[1] = cell / map.getMapWidth();
+			return randomLocation;
 		}
-		
-		randomLocation[0] = x;
-		randomLocation[1] = y;
+		if (attempt == MAX_SPAWN_ATTEMPTS) {
+			return null;
+		}
+		randomLocation[0] = random.nextInt(map.getMapWidth());
+		randomLocation[1] = random.nextInt(map.getMapHeight());
 		return randomLocation;
 	}
 
@@ -116,49 +415,75 @@ public class GameLogic{
      * Otherwise it should return the string "Invalid".
      *
      */
-    public synchronized String processCommand(String action, int player) {
+    public String processCommand(String action, int player) {
+        return processCommand(action == null ? null : new Command().parse(action), player);
+    }
+
+    /**
+     * Processes a command that has already been parsed or decoded,
+     * returning the reply as the text protocol dictates.
+     *
+     * @param command   the command.
+     * @param player    the id of the player who sent it.
+     * @return  the reply.
+     */
+    public String processCommand(Command command, int player) {
     	if (!gameRunning()) {
     		return "Game has been won...";
     	}
     	else {
             Player dodPlayer = players.get(player);
-    		if(action != null && dodPlayer != null){
-		    	String [] command = action.trim().split(" ");
+    		if(command != null && dodPlayer != null){
 				String answer = "FAIL";
 				
-				switch (command[0].toUpperCase()) {
-				case "HELLO":
+				switch (command.getType()) {
+				case HELLO:
 					answer = hello(dodPlayer);
 					break;
-				case "MOVE":
-					if (command.length == 2 ) {
-						answer = move(dodPlayer,command[1].toUpperCase().charAt(0));
+				case MOVE:
+					if (command.getDirection() != 0) {
+						answer = move(dodPlayer, command.getDirection());
 					}
 					break;
-				case "PICKUP":
+				case PICKUP:
 					answer = pickup(dodPlayer);
 					break;
-				case "LOOK":
-					answer = look(dodPlayer);
+				case LOOK:
+                    answer = look(dodPlayer);
 					break;
-				case "WHISPER":
-				    if (command.length >= 3) {
-                        answer = whisper(dodPlayer, command[1], action.replace(command[0], "").replace(command[1], "").trim());
+				case LOOK_PUSH:
+				    answer = subscribeToLook(dodPlayer);
+				    break;
+				case WHISPER:
+				    if (command.getTarget() != null) {
+                        answer = whisper(dodPlayer, command.getTarget(), command.getPayload());
                     } else {
 				        answer = "INVALID WHISPER";
                     }
                     break;
-                case "SHOUT":
-                    answer = shout(dodPlayer, action.replace(command[0], "").trim());
+                case SHOUT:
+                    answer = shout(dodPlayer, command.getPayload());
                     break;
-                case "USERNAME":
-                    answer = username(dodPlayer, action.replace(command[0], "").trim());
+                case USERNAME:
+                    answer = username(dodPlayer, command.getPayload());
                     break;
-                case "USERNAMES":
-                    answer = usernames(dodPlayer);
+                case USERNAMES:
+                    answer = roster.list(dodPlayer);
                     break;
-				case "QUIT":
+                case USERNAMES_PUSH:
+                    roster.subscribe(dodPlayer);
+                    answer = "USERNAMES PUSH ON";
+                    break;
+				case WALK:
+					if (command.getDirection() != 0) {
+						answer = walk(dodPlayer, command.getDirection());
+					}
+					break;
+				case QUIT:
 					quitGame(dodPlayer);
+					break;
+				default:
+				    break;
 				}
 				return answer;
 	    	}
@@ -178,18 +503,20 @@ public class GameLogic{
     /**
      * @return : Returns back gold player requires to exit the Dungeon.
      */
-    private synchronized String hello(Player player) {
+    private String hello(Player player) {
         return "GOLD: " + (map.getGoldToWin() - player.getCollectedGold());
     }
 
     /**
-     * Checks if movement is legal and updates player's location on the map.
+     * Checks if movement is legal and updates player's location on the map,
+     * holding the write locks of the regions of the tile moved from and
+     * the tile moved to.
      *
      * @param direction : The direction of the movement.
      * @param player : The player who is moving
      * @return : Protocol if success or not.
      */
-    private synchronized String move(Player player, char direction) {
+    private String move(Player player, char direction) {
     	int newX = player.getXCoordinate();
     	int newY = player.getYCoordinate();
 		switch (direction){
@@ -208,109 +535,273 @@ public class GameLogic{
 		default:
 			break;
 		}
+		int[] regions = regionLocks.regionsCovering(
+		        Math.min(player.getXCoordinate(), newX), Math.min(player.getYCoordinate(), newY),
+                Math.max(player.getXCoordinate(), newX), Math.max(player.getYCoordinate(), newY));
+		MoveResult result;
+		regionLocks.writeLock(regions);
+		try {
+		    result = move(player, newX, newY);
+        } finally {
+		    regionLocks.writeUnlock(regions);
+        }
+        if (result.removed != null) {
+            finishRemoval(result.removed, result.removeReason);
+        } else if (result == MoveResult.MOVED) {
+            updateServerMap();
+        }
+        return result.reply;
+    }
+
+    /**
+     * Moves a player to a tile, if the move is legal. The caller must
+     * hold the write locks of the regions involved. A player the move
+     * takes out of the game, caught by a bot or escaping, is only taken
+     * off the map; the caller finishes their removal once it has
+     * released the locks.
+     *
+     * @param player    the player who is moving.
+     * @param newX      the x coordinate of the tile.
+     * @param newY      the y coordinate of the tile.
+     * @return  the reply, and the player to finish removing, if any.
+     */
+    private MoveResult move(Player player, int newX, int newY) {
+        if (!players.containsKey(player.getPlayerId())) {
+            return MoveResult.FAILED;
+        }
+        Player caught = null;
 		// check if the player can move to that tile on the map
 		Player playerOnTile = getPlayerOccupyingTile(newX,newY);
 		if(playerOnTile != null) {
             if (player.isHuman() && playerOnTile.isHuman()) {
                 // both human
-                return "FAIL";
+                return MoveResult.FAILED;
             } else if (player.isHuman() && !playerOnTile.isHuman()) {
-                removePlayer(player.getPlayerId(), "LOST");
-                return "GAME LOST";
+                takeOffMap(player);
+                return new MoveResult("GAME LOST", player, "LOST");
             } else if (!player.isHuman() && playerOnTile.isHuman()) {
-                removePlayer(playerOnTile.getPlayerId(), "LOST");
+                takeOffMap(playerOnTile);
+                caught = playerOnTile;
             } else {
-                return "FAIL";
+                return MoveResult.FAILED;
             }
         } else if(map.getTile(newX, newY) == '#') {
-            return "FAIL";
+            return MoveResult.FAILED;
         }
+		occupancy.move(player.getXCoordinate(), player.getYCoordinate(), newX, newY, player);
+		lookPusher.tileChanged(player.getXCoordinate(), player.getYCoordinate());
+		lookPusher.tileChanged(newX, newY);
 		player.setXCoordinate(newX);
 		player.setYCoordinate(newY);
 		if (checkWin(player)){
 			//active = false;
-            removePlayer(player.getPlayerId(), "WON");
+            takeOffMap(player);
 			//return "Congratulations!!! \n You have escaped the Dungeon of Doom!!!!!! \n" + "Thank you for playing!";
-            return "am i even a thing?";
+            return new MoveResult("am i even a thing?", player, "WON");
 		}
-		updateServerMap();
-		return "SUCCESS";
-    }
-
-    // checks to see if another player is in the location a player wants to move to
-    private synchronized Player getPlayerOccupyingTile(int newX, int newY){
-    	Collection<Player> list = players.values();
-    	Iterator<Player> listIterator = list.iterator();
-    	while(listIterator.hasNext()){
-    	    Player player = listIterator.next();
-    		if(player.occupiesSameTile(newX, newY)){
-    			return player;
-    		}
-    	}
-    	return null;
+		return caught != null ? new MoveResult("SUCCESS", caught, "LOST") : MoveResult.MOVED;
+    }
+
+    // checks to see if another player is in the location a player wants to move to, in constant
+    // time using the occupancy grid. The caller must hold the lock of the tile's region.
+    Player getPlayerOccupyingTile(int newX, int newY){
+        return occupancy.getPlayer(newX, newY);
     }
 
     // checks to see whether there is another player in a location
-    private synchronized boolean isAnotherPlayerOccupyingTile(int newX, int newY) {
+    private boolean isAnotherPlayerOccupyingTile(int newX, int newY) {
         return getPlayerOccupyingTile(newX, newY) != null;
     }
 
     /**
-     * Processes the player's pickup command, updating the map and the player's gold amount.
+     * Moves the player one step along the shortest way to the nearest
+     * gold or exit, so that a client can walk there by repeating the
+     * command. The goal is kept until it is no longer that kind of
+     * tile, e.g. once the gold has been picked up, and routes come
+     * from the game's RoutePlanner, which only searches the map for
+     * the first step towards a goal that nobody has walked to yet.
+     *
+     * @param player    the player walking.
+     * @param tile      'G' for gold or 'E' for the exit.
+     * @return  the reply to the move, or FAIL if there is no such tile
+     *          nearby or no way to it.
+     */
+    private String walk(Player player, char tile) {
+        int width = map.getMapWidth();
+        int x = player.getXCoordinate();
+        int y = player.getYCoordinate();
+        int goal = player.getWalkGoal();
+        if (goal == RoutePlanner.NONE || map.getTile(goal % width, goal / width) != tile) {
+            goal = routePlanner.findNearest(x, y, tile);
+            player.setWalkGoal(goal);
+        }
+        String name = tile == 'G' ? "gold" : "exit";
+        if (goal == RoutePlanner.NONE) {
+            return "FAIL" + "\n" + "There is no " + name + " nearby...";
+        }
+        if (goal == y * width + x) {
+            return "FAIL" + "\n" + "You are already on the " + name + "...";
+        }
+        char direction = routePlanner.getDirection(x, y, goal % width, goal / width);
+        if (direction == 0) {
+            player.setWalkGoal(RoutePlanner.NONE);
+            return "FAIL" + "\n" + "There is no way to the " + name + "...";
+        }
+        return move(player, direction);
+    }
+
+    /**
+     * Processes the player's pickup command, updating the map and the player's gold amount,
+     * holding the write lock of the player's region.
      *
      * @return If the player successfully picked-up gold or not.
      */
-    private synchronized String pickup(Player player) {
-        if (map.getTile(player.getXCoordinate(), player.getYCoordinate()) == 'G') {
-            player.incrementCollectedGold();
-            map.replaceTile(player.getXCoordinate(), player.getYCoordinate(), '.');
-            return "GOLD COINS: " + player.getCollectedGold();
+    private String pickup(Player player) {
+        int x = player.getXCoordinate();
+        int y = player.getYCoordinate();
+        int[] regions = regionLocks.regionsCovering(x, y, x, y);
+        regionLocks.writeLock(regions);
+        try {
+            if (map.getTile(x, y) == 'G') {
+                player.incrementCollectedGold();
+                map.replaceTile(x, y, '.');
+                lookPusher.tileChanged(x, y);
+                return "GOLD COINS: " + player.getCollectedGold();
+            }
+        } finally {
+            regionLocks.writeUnlock(regions);
         }
 
         return "FAIL" + "\n" + "There is nothing to pick up...";
     }
 
     /**
-     * Converts the map from a 2D char array to a single string.
+     * Converts the look window of a player to a single string.
      *
-     * @return : A String representation of the game map.
-     */
-    private synchronized String look(Player player) {
-
-        StringBuilder sb = new StringBuilder((map.getMapWidth() + 1) * map.getMapHeight() - 1);
-        int distance = (map.LOOK_RADIUS-1)/2;
-    	// get look window for current player
-    	char[][] l = map.look(player.getXCoordinate(), player.getYCoordinate());
-    	// add current player's icon to look window
-    	l[distance][distance] = player.getIcon();
-    	// is any opponent visible? if they are then add them to the look window
-    	char[][] look = getVisibleOpponents(l, player);
-    	// return look window as a String for printing
-    	String lookWindow = "";
-    	for(int i=0; i<look.length; i++){
-    		for(int j=0; j<look[i].length; j++){
-    			sb.append(look[i][j]);
-    		}
-    		if (i + 1 != look.length)
-    		    sb.append('\n');
-    	}
-        return sb.toString();
+     * @return : A String representation of the game map, or FAIL if the
+     *           player left the game before it could be looked at.
+     */
+    private String look(Player player) {
+        char[] window = new char[Map.LOOK_WINDOW_LENGTH];
+        if (!look(player, window)) {
+            return "FAIL";
+        }
+        return new String(window);
+    }
+
+    /**
+     * Writes the reply to USERNAMES to a player straight from the
+     * roster, without building it as a String.
+     *
+     * @param player    the player asking.
+     * @param sequence  the sequence number to tag the reply with, or
+     *                  <code>Command.NO_SEQUENCE</code>.
+     * @return  whether the reply was written, which it is not if the
+     *          game is over or the player is no longer in it.
+     */
+    public boolean writeUsernames(Player player, int sequence) {
+        if (!gameRunning() || players.get(player.getPlayerId()) != player) {
+            return false;
+        }
+        roster.writeList(player, sequence);
+        return true;
+    }
+
+    /**
+     * Writes the look window of a player into a buffer, as rows separated
+     * by newlines, holding the read locks of the regions the window covers
+     * so that it is a consistent snapshot. Nothing is allocated, so players
+     * can reuse the same buffer for every LOOK.
+     *
+     * @param player    the player looking.
+     * @param window    a buffer of at least <code>Map.LOOK_WINDOW_LENGTH</code> chars.
+     * @return  whether the window was written, which it is not if the game
+     *          is over or the player is no longer in it.
+     */
+    public boolean look(Player player, char[] window) {
+        if (!gameRunning()) {
+            return false;
+        }
+        int x = player.getXCoordinate();
+        int y = player.getYCoordinate();
+        int distance = (Map.LOOK_RADIUS-1)/2;
+        regionLocks.readLock(x - distance, y - distance, x + distance, y + distance);
+        try {
+            // a player who is still in the game is always on their own tile
+            if (getPlayerOccupyingTile(x, y) != player) {
+                return false;
+            }
+            // get look window for current player
+            map.look(x, y, window);
+            // is any opponent visible? if they are then add them to the look window,
+            // which includes the current player's icon
+            addVisibleOpponents(window, x, y);
+        } finally {
+            regionLocks.readUnlock(x - distance, y - distance, x + distance, y + distance);
+        }
+        return true;
     }
     
-    // are there other players visible to the player calling look? if there are then add them to their look window
-    private synchronized char[][] getVisibleOpponents(char[][] look, Player player){
-        int distance = (map.LOOK_RADIUS-1)/2;
-    	Collection<Player> list = players.values();
-    	Iterator<Player> listIterator = list.iterator();
-    	while(listIterator.hasNext()){
-            Player opp = listIterator.next();
-    		int xDistance =  player.getXCoordinate() - opp.getXCoordinate();
-        	int yDistance = player.getYCoordinate() - opp.getYCoordinate();
-        	if(xDistance <= distance && xDistance >= -distance && yDistance <= distance && yDistance >= -distance){
-        		look[distance-xDistance][distance-yDistance] = opp.getIcon();
-        	}
-    	}
-    	return look;
+    /**
+     * Subscribes a player to LOOK updates. Their whole window is sent
+     * straight away, and from then on the LookPusher sends them the
+     * cells of their window that change, whenever they change.
+     *
+     * @param player    the player subscribing.
+     * @return  the protocol reply, sent after the window.
+     */
+    private String subscribeToLook(Player player) {
+        synchronized (lookPusher) {
+            if (lookPusherThread == null) {
+                lookPusherThread = new Thread(lookPusher, "LookPusher");
+                lookPusherThread.start();
+            }
+        }
+        if (player.startLookPush()) {
+            lookPusher.subscribe();
+        }
+        return "LOOK PUSH ON";
+    }
+
+    /**
+     * Adds every player subscribed to LOOK updates whose window
+     * includes a tile to a set, holding the read locks of the regions
+     * around the tile.
+     *
+     * @param x         the x coordinate of the tile.
+     * @param y         the y coordinate of the tile.
+     * @param found     the set the players are added to.
+     */
+    void findLookSubscribers(int x, int y, Collection<Player> found) {
+        int distance = (Map.LOOK_RADIUS-1)/2;
+        regionLocks.readLock(x - distance, y - distance, x + distance, y + distance);
+        try {
+            for (int i = y - distance; i <= y + distance; i++) {
+                for (int j = x - distance; j <= x + distance; j++) {
+                    Player player = getPlayerOccupyingTile(j, i);
+                    if (player != null && player.isSubscribedToLook()) {
+                        found.add(player);
+                    }
+                }
+            }
+        } finally {
+            regionLocks.readUnlock(x - distance, y - distance, x + distance, y + distance);
+        }
+    }
+
+    // are there other players visible to the player calling look? if there are then add them to their look window.
+    // only the tiles in the window are checked, using the occupancy grid, so the cost does not grow with the
+    // number of players
+    private void addVisibleOpponents(char[] window, int x, int y){
+        int distance = (Map.LOOK_RADIUS-1)/2;
+        for (int i = 0; i < Map.LOOK_RADIUS; i++) {
+            for (int j = 0; j < Map.LOOK_RADIUS; j++) {
+                Player opp = getPlayerOccupyingTile(x + j - distance, y + i - distance);
+                if (opp != null) {
+                    window[i * (Map.LOOK_RADIUS + 1) + j] = opp.getIcon();
+                }
+            }
+        }
     }
 
     /**
@@ -318,7 +809,7 @@ public class GameLogic{
      *
      * @return : A String containing the message.
      */
-    private synchronized String whisper(Player fromPlayer, String toPlayerUsername, String message) {
+    private String whisper(Player fromPlayer, String toPlayerUsername, String message) {
         String response;
         Player toPlayer = getHumanPlayerFromUsername(toPlayerUsername);
         if (toPlayer == null) {
@@ -336,7 +827,7 @@ public class GameLogic{
      *
      * @return : A String containing the message.
      */
-    private synchronized String shout(Player fromPlayer, String message) {
+    private String shout(Player fromPlayer, String message) {
         String messageToPlayers = fromPlayer.getUsername() + " (TO ALL): " + message;
         writeToAllHumansExceptPlayer(fromPlayer, messageToPlayers);
         return "YOU (TO ALL): " + message;
@@ -344,12 +835,35 @@ public class GameLogic{
 
     /**
      * Updates a players username if the username is in a valid format,
-     * otherwise returns error.
+     * otherwise returns error. Renames are serialised with each other,
+     * and with removing players from the username index, but not with
+     * the rest of the game, so that two players cannot take the same
+     * username.
      * @param player    player.
      * @param username  new username.
      * @return          message stating username.
      */
-    private synchronized String username(Player player, String username) {
+    private String username(Player player, String username) {
+        String oldUsername = player.getUsername();
+        String response;
+        synchronized (usernameLock) {
+            response = updateUsername(player, username);
+        }
+        if (response.startsWith("USERNAME CHANGED: ")) {
+            writeToAllHumansExceptPlayer(player, "USERNAME: " + oldUsername + " UPDATED TO: " + username);
+        }
+        return response;
+    }
+
+    /**
+     * Updates a players username, and the username index, unless the
+     * player has already left the game. The caller must hold the
+     * username lock, and tells the other players once it is released.
+     * @param player    player.
+     * @param username  new username.
+     * @return          message stating username.
+     */
+    private String updateUsername(Player player, String username) {
         String response;
         if (username == null || username.equals("")) {
             response = "USERNAME: " + player.getUsername();
@@ -360,8 +874,12 @@ public class GameLogic{
                 return "MAXIMUM USERNAME LENGTH 14";
             } else if (usernameExists(username)) {
                 response = "TAKEN USERNAME: " + username;
+            } else if (players.get(player.getPlayerId()) != player) {
+                response = "USERNAME: " + player.getUsername();
             } else {
-                writeToAllHumansExceptPlayer(player, "USERNAME: " + player.getUsername() + " UPDATED TO: " + username);
+                playersByUsername.put(username, player);
+                playersByUsername.remove(player.getUsername(), player);
+                roster.rename(player, username);
                 player.setUsername(username);
                 response = "USERNAME CHANGED: " + username;
             }
@@ -373,90 +891,75 @@ public class GameLogic{
 
     /**
      * @param username  username to check.
-     * @return  returns true if another player has the same username.
+     * @return  returns true if another player has the same username,
+     *          looked up in the username index.
      */
-    private synchronized boolean usernameExists(String username) {
-        Collection<Player> list = players.values();
-        Iterator<Player> listIterator = list.iterator();
-        while (listIterator.hasNext()) {
-            Player player = listIterator.next();
-            if (player.getUsername().equals(username)) {
-                return true;
-            }
-        }
-        return false;
+    private boolean usernameExists(String username) {
+        return playersByUsername.containsKey(username);
     }
 
     /**
+     * Checks the username without a regular expression: a letter,
+     * followed by any number of letters and digits, all ASCII.
+     *
      * @param username  username to check.
      * @return  returns true if the username is in a valid format.
      */
-    private synchronized boolean isValidUsername(String username) {
-        return username.matches("^[a-zA-Z]+[a-zA-Z0-9]*$");
-    }
-
-    /**
-     * Creates a list of all usernames.
-     *
-     * @param player
-     * @return
-     */
-    private synchronized String usernames(Player player) {
-        Collection<Player> list = players.values();
-        Iterator<Player> listIterator = list.iterator();
-
-        StringBuilder response = new StringBuilder();
-        int numberOfHumanPlayers = 0;
-        while(listIterator.hasNext()) {
-            Player otherPlayer = listIterator.next();
-            if (player != otherPlayer && otherPlayer.isHuman()) {
-                numberOfHumanPlayers++;
-                response.append(otherPlayer.getPlayerId() + "-" + otherPlayer.getUsername() + "\t");
+    private static boolean isValidUsername(String username) {
+        if (username.isEmpty() || !isAsciiLetter(username.charAt(0))) {
+            return false;
+        }
+        for (int i = 1; i < username.length(); i++) {
+            char c = username.charAt(i);
+            if (!isAsciiLetter(c) && (c < '0' || c > '9')) {
+                return false;
             }
         }
-        String s = numberOfHumanPlayers == 1 ? "" : "S";
-        response.insert(0, numberOfHumanPlayers + " OTHER PLAYER" + s + " ACTIVE:\t");
-        return response.toString();
+        return true;
+    }
+
+    private static boolean isAsciiLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
     }
 
     /**
-     * Gets human player from username.
-     * @param username
-     * @return
+     * Gets human player from username, from the username index.
+     * @param username  the username, as typed by the sender.
+     * @return  the human player, or null if no human has the username.
      */
-    private synchronized Player getHumanPlayerFromUsername(String username) {
-        if (isValidUsername(username) || username.matches("PLAYER_[0-9]+")) {
-            Collection<Player> list = players.values();
-            Iterator<Player> listIterator = list.iterator();
-            while(listIterator.hasNext()) {
-                Player currentPlayer = listIterator.next();
-                if (currentPlayer.getUsername().equals(username) && currentPlayer.isHuman())
-                    return currentPlayer;
-            }
-        }
-        return null;
+    private Player getHumanPlayerFromUsername(String username) {
+        Player player = playersByUsername.get(username);
+        return player != null && player.isHuman() ? player : null;
     }
 
     /**
-     * Writes a message to all huamn client except a specific player.
-     * @param player
-     * @param message
+     * Writes a message to all human clients except a specific player.
+     * The message is encoded once into a Broadcast whose bytes every
+     * recipient shares. Only the humans are walked, however many bots
+     * are in the game. No game lock is held, and in a large game the
+     * recipients are split between the threads of the common
+     * ForkJoinPool, so the fan-out runs in parallel; it still
+     * finishes before this returns, so each player receives one
+     * sender's broadcasts in the order they were sent.
+     * @param player    the player not to write to.
+     * @param message   the message.
      */
-    private synchronized void writeToAllHumansExceptPlayer(Player player, String message) {
-        Collection<Player> list = players.values();
-        Iterator<Player> listIterator = list.iterator();
-        while (listIterator.hasNext()) {
-            Player iteratedPlayer = listIterator.next();
-            if (player != iteratedPlayer && iteratedPlayer.isHuman())
-                iteratedPlayer.writeToClient(message);
-        }
-    };
+    private void writeToAllHumansExceptPlayer(final Player player, String message) {
+        final Broadcast broadcast = new Broadcast(message);
+        humans.forEachValue(BROADCAST_PARALLELISM_THRESHOLD, new Consumer<Player>() {
+            @Override
+            public void accept(Player iteratedPlayer) {
+                if (player != iteratedPlayer)
+                    iteratedPlayer.writeToClient(broadcast);
+            }
+        });
+    }
 
     /**
 	 * checks if the player collected all GOLD and is on the exit tile
 	 * @return True if all conditions are met, false otherwise
 	 */
-	private synchronized boolean checkWin(Player player) {
+	private boolean checkWin(Player player) {
 		if (player.getCollectedGold() >= map.getGoldToWin() && 
 			map.getTile(player.getXCoordinate(), player.getYCoordinate()) == 'E') {
 			return true;
@@ -467,14 +970,15 @@ public class GameLogic{
 	/**
 	 * Quits the game when called i.e. removes the player from the game.
 	 */
-	private synchronized void quitGame(Player player) {
+	private void quitGame(Player player) {
 		removePlayer(player.getPlayerId(), "QUIT");
 	}
 
     /**
-     * @return a full map with all players on.
+     * @return a full map with all players on. Takes no locks, as it is only
+     * used to draw the server's view of the map.
      */
-    public synchronized char[][] getPopulatedMap() {
+    public char[][] getPopulatedMap() {
 
         char[][] tempMap = map.getMap();
         Collection<Player> list = players.values();
@@ -487,9 +991,32 @@ public class GameLogic{
     }
 
     /**
-     * Updates the server map.
+     * Updates the server map, if the game is being run by a server
+     * controller.
      */
-    private synchronized void updateServerMap() {
-        controller.updateServerMap();
+    private void updateServerMap() {
+        if (controller != null)
+            controller.updateServerMap();
+    }
+
+    /**
+     * The reply to a move, and the player it took off the map, if any,
+     * whose removal is finished once the move's region locks have been
+     * released.
+     */
+    private static class MoveResult {
+
+        private static final MoveResult MOVED = new MoveResult("SUCCESS", null, null);
+        private static final MoveResult FAILED = new MoveResult("FAIL", null, null);
+
+        private final String reply;
+        private final Player removed;
+        private final String removeReason;
+
+        private MoveResult(String reply, Player removed, String removeReason) {
+            this.reply = reply;
+            this.removed = removed;
+            this.removeReason = removeReason;
+        }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,9 +1,102 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import org.junit.Test;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Created by jonny on 4/15/17.
  */
 public class GameLogicTest {
+
+    /**
+     * A connection that discards everything written to it, so
+     * players can be added to a game without a client.
+     */
+    private static class NoClientConnection implements PlayerConnection {
+
+        private boolean closed;
+
+        public void writeLine(String message) {
+        }
+
+        public void writeLine(char[] chars, int length) {
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int length) {
+        }
+
+        public void close() {
+            closed = true;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+    }
+
+    /**
+     * A connection that keeps every line written to it, decoding the
+     * bytes written to it in the binary or the text protocol.
+     */
+    private static class RecordingConnection extends NoClientConnection {
+
+        private LinkedBlockingQueue<String> lines = new LinkedBlockingQueue<>();
+        private boolean binary;
+
+        private RecordingConnection(boolean binary) {
+            this.binary = binary;
+        }
+
+        public void writeLine(String message) {
+            lines.add(message);
+        }
+
+        public void writeLine(char[] chars, int length) {
+            lines.add(new String(chars, 0, length));
+        }
+
+        public void writeBytes(byte[] bytes, int offset, int length) {
+            if (!binary) {
+                lines.add(new String(bytes, offset, length - 1, StandardCharsets.UTF_8));
+                return;
+            }
+            BinaryProtocol.FrameReader frame = new BinaryProtocol.FrameReader(bytes, offset, length);
+            int frameLength = frame.readVarint();
+            for (String line : BinaryProtocol.decodeMessage(bytes, frame.getPosition(), frameLength).split("\n")) {
+                lines.add(line);
+            }
+        }
+
+        /**
+         * Waits for the next line that starts with a prefix.
+         */
+        public String nextLineStartingWith(String prefix) throws InterruptedException {
+            String line = lines.poll(5, TimeUnit.SECONDS);
+            while (line != null && !line.startsWith(prefix)) {
+                line = lines.poll(5, TimeUnit.SECONDS);
+            }
+            return line;
+        }
+    }
+
     @Test
     public void addPlayer() {
 
@@ -33,4 +126,417 @@ public class GameLogicTest {
     public void pickup() {
 
     }
+
+    @Test
+    public void occupancyGridMatchesPlayers() {
+        GameLogic game = new GameLogic(null);
+        ArrayList<Player> players = new ArrayList<>();
+        for (int id = 0; id < 20; id++) {
+            Player player = new Player(new NoClientConnection(), game, id, id % 4 == 0 ? "human" : "bot");
+            game.addPlayer(player);
+            players.add(player);
+        }
+        assertOccupancyMatches(game, players);
+
+        String[] moves = {"MOVE N", "MOVE E", "MOVE S", "MOVE W"};
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            Player player = players.get(random.nextInt(players.size()));
+            game.processCommand(moves[random.nextInt(moves.length)], player.getPlayerId());
+            if (i % 400 == 0) {
+                game.processCommand("QUIT", player.getPlayerId());
+            }
+            assertOccupancyMatches(game, players);
+        }
+    }
+
+    @Test
+    public void simulationKeepsRunningAfterACommandThrows() throws InterruptedException {
+        char[][] tiles = {"....".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("ticks", 0, tiles));
+        game.startSimulation(100);
+        final boolean[] broken = {true};
+        Player failing = new Player(new NoClientConnection() {
+            public void writeLine(String message) {
+                if (broken[0]) {
+                    throw new IllegalStateException("broken connection");
+                }
+            }
+        }, game, 0, "bot");
+        game.addPlayer(failing);
+        RecordingConnection connection = new RecordingConnection(false);
+        Player human = new Player(connection, game, 1, "human");
+        game.addPlayer(human);
+        failing.processInput("HELLO");
+        human.processInput("HELLO");
+        assertNotNull(connection.nextLineStartingWith("GOLD"));
+        failing.processInput("HELLO");
+        human.processInput("PICKUP");
+        assertNotNull(connection.nextLineStartingWith("FAIL"));
+        broken[0] = false;
+        game.endGame();
+    }
+
+    @Test
+    public void lookPushSendsChangedCells() throws InterruptedException {
+        char[][] tiles = {"...".toCharArray(), "...".toCharArray(), "...".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("push", 0, tiles));
+        RecordingConnection connection = new RecordingConnection(false);
+        Player human = new Player(connection, game, 0, "human");
+        game.addPlayer(human);
+        assertEquals("LOOK PUSH ON", game.processCommand("LOOK PUSH", 0));
+        String window = connection.nextLineStartingWith("");
+        assertNotNull(window);
+        assertEquals(Map.LOOK_WINDOW_LENGTH, window.length());
+
+        game.addPlayer(new Player(new NoClientConnection(), game, 1, "bot"));
+        String diff = connection.nextLineStartingWith("LOOK DIFF");
+        assertNotNull(diff);
+        assertEquals("LOOK DIFF ".length() + 3, diff.length());
+        assertEquals('B', diff.charAt(diff.length() - 1));
+        game.endGame();
+    }
+
+    @Test
+    public void binaryLookPushSendsChangedCells() throws InterruptedException {
+        char[][] tiles = {"...".toCharArray(), "...".toCharArray(), "...".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("push", 0, tiles));
+        RecordingConnection connection = new RecordingConnection(true);
+        Player human = new Player(connection, game, 0, "human binary");
+        game.addPlayer(human);
+        human.processInput("LOOK PUSH");
+        String row = connection.nextLineStartingWith("");
+        assertNotNull(row);
+        assertEquals(Map.LOOK_RADIUS, row.length());
+        assertEquals("LOOK PUSH ON", connection.nextLineStartingWith("LOOK PUSH"));
+
+        game.addPlayer(new Player(new NoClientConnection(), game, 1, "bot"));
+        String diff = connection.nextLineStartingWith("LOOK DIFF");
+        assertNotNull(diff);
+        assertEquals("LOOK DIFF ".length() + 3, diff.length());
+        assertEquals('B', diff.charAt(diff.length() - 1));
+        game.endGame();
+    }
+
+    @Test
+    public void repliesAreTaggedWithTheCommandsSequenceNumber() throws InterruptedException {
+        char[][] tiles = {"...".toCharArray(), "...".toCharArray(), "...".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("tagged", 0, tiles));
+        RecordingConnection connection = new RecordingConnection(false);
+        Player human = new Player(connection, game, 0, "human");
+        game.addPlayer(human);
+        game.addPlayer(new Player(new NoClientConnection(), game, 1, "human"));
+        human.processInput("#1 HELLO");
+        game.processCommand("SHOUT hi", 1);
+        human.processInput("#2 LOOK");
+        human.processInput("#3 PICKUP");
+        human.processInput("HELLO");
+
+        assertEquals("NEW PLAYER: PLAYER_1", connection.nextLineStartingWith(""));
+        assertEquals("#1 GOLD: 0", connection.nextLineStartingWith(""));
+        assertEquals("PLAYER_1 (TO ALL): hi", connection.nextLineStartingWith(""));
+        String[] rows = connection.nextLineStartingWith("").split("\n");
+        assertEquals(Map.LOOK_RADIUS, rows.length);
+        for (String row : rows) {
+            assertEquals("#2 ".length() + Map.LOOK_RADIUS, row.length());
+            assertTrue(row.startsWith("#2 "));
+        }
+        assertEquals("#3 FAIL\n#3 There is nothing to pick up...", connection.nextLineStartingWith(""));
+        assertEquals("GOLD: 0", connection.nextLineStartingWith(""));
+        game.endGame();
+    }
+
+    /**
+     * Checks that every player still in the game is found on their
+     * own tile, and that every other tile is empty.
+     */
+    private void assertOccupancyMatches(GameLogic game, ArrayList<Player> players) {
+        char[][] map = game.getPopulatedMap();
+        Player[][] expected = new Player[map.length][map[0].length];
+        for (Player player : players) {
+            if (!game.processCommand("HELLO", player.getPlayerId()).equals("FAIL")) {
+                assertNull(expected[player.getYCoordinate()][player.getXCoordinate()]);
+                expected[player.getYCoordinate()][player.getXCoordinate()] = player;
+            }
+        }
+        for (int y = 0; y < map.length; y++) {
+            for (int x = 0; x < map[y].length; x++) {
+                assertSame(expected[y][x], game.getPlayerOccupyingTile(x, y));
+            }
+        }
+        assertNull(game.getPlayerOccupyingTile(-1, 0));
+    }
+
+    @Test
+    public void playersSpawnOnFreeTilesOfAMostlyWallMap() {
+        char[][] tiles = new char[50][50];
+        for (char[] row : tiles) {
+            java.util.Arrays.fill(row, '#');
+        }
+        tiles[10][10] = '.';
+        tiles[20][30] = 'G';
+        tiles[49][49] = '.';
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("walls", 0, tiles));
+        Player[] bots = new Player[3];
+        for (int id = 0; id < bots.length; id++) {
+            bots[id] = new Player(new NoClientConnection(), game, id, "bot");
+            game.addPlayer(bots[id]);
+        }
+        assertSame(bots[0], game.getPlayerOccupyingTile(bots[0].getXCoordinate(), bots[0].getYCoordinate()));
+        assertSame(bots[1], game.getPlayerOccupyingTile(bots[1].getXCoordinate(), bots[1].getYCoordinate()));
+        assertSame(bots[2], game.getPlayerOccupyingTile(bots[2].getXCoordinate(), bots[2].getYCoordinate()));
+
+        int x = bots[1].getXCoordinate();
+        int y = bots[1].getYCoordinate();
+        game.removePlayer(1, "QUIT");
+        Player late = new Player(new NoClientConnection(), game, 3, "bot");
+        game.addPlayer(late);
+        assertEquals(x, late.getXCoordinate());
+        assertEquals(y, late.getYCoordinate());
+        game.endGame();
+    }
+
+    @Test
+    public void botEngineStepsBotsWithoutClients() {
+        char[][] tiles = {"..........".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("row", 0, tiles));
+        BotEngine engine = new BotEngine(game, 2, new BotStrategy() {
+            @Override
+            public void startStep(GameLogic game) {
+            }
+
+            @Override
+            public Command nextCommand(Player bot, Command command, Random random) {
+                return command.set(CommandType.MOVE, 'E', null, null);
+            }
+        }, BotEngine.DEFAULT_STEP_MILLIS);
+        engine.addBots();
+        for (int step = 0; step < tiles[0].length; step++) {
+            engine.step();
+        }
+        int first = game.getPlayerOccupyingTile(9, 0).getPlayerId();
+        int second = game.getPlayerOccupyingTile(8, 0).getPlayerId();
+        assertEquals(-3, first + second);
+        assertTrue(first < 0 && second < 0);
+        game.endGame();
+    }
+
+    @Test
+    public void joiningAFullMapFails() throws Exception {
+        char[][] tiles = {"#.#".toCharArray(), "..#".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("full", 0, tiles));
+        for (int id = 0; id < 3; id++) {
+            assertTrue(game.addPlayer(new Player(new NoClientConnection(), game, id, "bot")));
+        }
+        assertFalse(game.addPlayer(new Player(new NoClientConnection(), game, 3, "bot")));
+        game.removePlayer(0, "QUIT");
+        assertTrue(game.addPlayer(new Player(new NoClientConnection(), game, 4, "bot")));
+        game.endGame();
+
+        Path path = Files.createTempFile("full", ".txt");
+        path.toFile().deleteOnExit();
+        Files.write(path, "name full\r\nwin 0\r\n#.#\r\n..#\r\n".getBytes(StandardCharsets.US_ASCII));
+        Map chunked = new Map();
+        chunked.readMap(path.toString(), 1);
+        game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), chunked);
+        for (int id = 0; id < 3; id++) {
+            assertTrue(game.addPlayer(new Player(new NoClientConnection(), game, id, "bot")));
+        }
+        assertFalse(game.addPlayer(new Player(new NoClientConnection(), game, 3, "bot")));
+        game.endGame();
+        chunked.close();
+    }
+
+    @Test
+    public void chasingBotsCatchAHuman() {
+        char[][] tiles = {"............".toCharArray(), "#####.######".toCharArray(), "............".toCharArray()};
+        Map map = new Map("corridors", 0, tiles);
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), map);
+        game.addPlayer(new Player(new NoClientConnection(), game, 0, "human"));
+        BotEngine engine = new BotEngine(game, 1, new ChaseStrategy(map), BotEngine.DEFAULT_STEP_MILLIS);
+        engine.addBots();
+        for (int step = 0; step < 2 * tiles[0].length + tiles.length && !game.getHumans().isEmpty(); step++) {
+            engine.step();
+        }
+        assertTrue(game.getHumans().isEmpty());
+        game.endGame();
+    }
+
+    @Test
+    public void chasingBotsWanderUntilAHumanJoins() {
+        char[][] tiles = {"............".toCharArray(), "............".toCharArray()};
+        Map map = new Map("empty", 0, tiles);
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), map);
+        BotEngine engine = new BotEngine(game, 2, new ChaseStrategy(map), BotEngine.DEFAULT_STEP_MILLIS);
+        engine.addBots();
+        for (int step = 0; step < 4; step++) {
+            engine.step();
+        }
+        game.addPlayer(new Player(new NoClientConnection(), game, 0, "human"));
+        engine.step();
+        game.endGame();
+    }
+
+    @Test
+    public void walkReachesTheNearestGold() {
+        char[][] tiles = {"......".toCharArray(), "#####.".toCharArray(), "G.....".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("walk", 1, tiles));
+        game.addPlayer(new Player(new NoClientConnection(), game, 0, "human"));
+        String reply = "SUCCESS";
+        for (int step = 0; step < 20 && reply.equals("SUCCESS"); step++) {
+            reply = game.processCommand("WALK GOLD", 0);
+        }
+        assertEquals("FAIL\nYou are already on the gold...", reply);
+        assertEquals("GOLD COINS: 1", game.processCommand("PICKUP", 0));
+        assertEquals("FAIL\nThere is no gold nearby...", game.processCommand("WALK GOLD", 0));
+        game.endGame();
+    }
+
+    @Test
+    public void whispersFindPlayersByTheirCurrentUsername() {
+        char[][] tiles = {"..........".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("names", 0, tiles));
+        game.addPlayer(new Player(new NoClientConnection(), game, 0, "human"));
+        game.addPlayer(new Player(new NoClientConnection(), game, 1, "human"));
+        assertEquals("YOU (TO PLAYER_1): hi", game.processCommand("WHISPER PLAYER_1 hi", 0));
+        assertEquals("INVALID USERNAME: 2bob", game.processCommand("USERNAME 2bob", 1));
+        assertEquals("USERNAME CHANGED: bob", game.processCommand("USERNAME bob", 1));
+        assertEquals("TAKEN USERNAME: bob", game.processCommand("USERNAME bob", 0));
+        assertEquals("INVALID PLAYER: PLAYER_1", game.processCommand("WHISPER PLAYER_1 hi", 0));
+        assertEquals("YOU (TO bob): hi", game.processCommand("WHISPER bob hi", 0));
+        game.removePlayer(1, "QUIT");
+        assertEquals("INVALID PLAYER: bob", game.processCommand("WHISPER bob hi", 0));
+        assertEquals("USERNAME CHANGED: bob", game.processCommand("USERNAME bob", 0));
+        game.endGame();
+    }
+
+    @Test
+    public void usernamesPushSendsTheListThenEveryChange() throws InterruptedException {
+        char[][] tiles = {"..........".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("roster", 0, tiles));
+        RecordingConnection connection = new RecordingConnection(false);
+        game.addPlayer(new Player(connection, game, 0, "human"));
+        game.addPlayer(new Player(new NoClientConnection(), game, 1, "human"));
+        game.addPlayer(new Player(new NoClientConnection(), game, 2, "bot"));
+        assertEquals("1 OTHER PLAYER ACTIVE:\t1-PLAYER_1\t", game.processCommand("USERNAMES", 0));
+        assertEquals("USERNAMES PUSH ON", game.processCommand("USERNAMES PUSH", 0));
+        assertEquals("1 OTHER PLAYER ACTIVE:\t1-PLAYER_1\t", connection.nextLineStartingWith("1 OTHER"));
+
+        game.addPlayer(new Player(new NoClientConnection(), game, 3, "human"));
+        assertEquals("USERNAMES JOINED: 3-PLAYER_3", connection.nextLineStartingWith("USERNAMES"));
+        game.processCommand("USERNAME bob", 1);
+        assertEquals("USERNAMES RENAMED: 1-PLAYER_1 bob", connection.nextLineStartingWith("USERNAMES"));
+        game.processCommand("USERNAME alice", 0);
+        game.removePlayer(3, "QUIT");
+        assertEquals("USERNAMES LEFT: 3-PLAYER_3", connection.nextLineStartingWith("USERNAMES"));
+        assertEquals("1 OTHER PLAYER ACTIVE:\t1-bob\t", game.processCommand("USERNAMES", 0));
+        assertEquals("1 OTHER PLAYER ACTIVE:\t0-alice\t", game.processCommand("USERNAMES", 1));
+        game.endGame();
+    }
+
+    @Test
+    public void usernamesIsWrittenAsProcessCommandAnswersIt() {
+        char[][] tiles = {"..........".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("roster", 0, tiles));
+        final byte[][] written = new byte[1][];
+        NoClientConnection connection = new NoClientConnection() {
+            public void writeBytes(byte[] bytes, int offset, int length) {
+                written[0] = Arrays.copyOfRange(bytes, offset, offset + length);
+            }
+        };
+        Player text = new Player(connection, game, 0, "human");
+        Player binary = new Player(connection, game, 1, "human binary");
+        // USERNAME only takes ASCII names, so the entry whose bytes are not its chars is given directly
+        text.setUsername("caf\u00e9");
+        game.addPlayer(text);
+        game.addPlayer(binary);
+        game.addPlayer(new Player(new NoClientConnection(), game, 2, "human"));
+        assertEquals("USERNAME CHANGED: bob", game.processCommand("USERNAME bob", 2));
+        assertEquals("2 OTHER PLAYERS ACTIVE:\t0-caf\u00e9\t2-bob\t", game.processCommand("USERNAMES", 1));
+        for (Player player : new Player[] {text, binary}) {
+            String list = game.processCommand("USERNAMES", player.getPlayerId());
+            for (int sequence : new int[] {Command.NO_SEQUENCE, 7, 300}) {
+                String line = (sequence == Command.NO_SEQUENCE ? "" : "#" + sequence + " ") + "USERNAMES";
+                assertTrue(player.executeCommand(new Command().parse(line)));
+                byte[] expected;
+                if (!player.isBinary()) {
+                    expected = (Command.tagReply(sequence, list) + "\n").getBytes(StandardCharsets.UTF_8);
+                } else if (sequence == Command.NO_SEQUENCE) {
+                    expected = BinaryProtocol.encodeMessage(list);
+                } else {
+                    byte[] frame = BinaryProtocol.encodeMessage(list);
+                    expected = BinaryProtocol.encodeReply(sequence, frame, frame.length);
+                }
+                assertArrayEquals(line, expected, written[0]);
+            }
+        }
+        game.endGame();
+    }
+
+    @Test
+    public void invalidHandshakeOverNioAddsNoPlayer() throws IOException {
+        char[][] tiles = {"..........".toCharArray()};
+        GameLogic game = new GameLogic(null, ServerMode.NIO.getThreadFactory(), new Map("nio", 0, tiles));
+        NioWorker worker = new NioWorker(game);
+        new Thread(worker).start();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress("localhost", 0));
+            try (Socket client = new Socket("localhost", server.socket().getLocalPort())) {
+                worker.addClient(server.accept(), 0);
+                client.getOutputStream().write("hello\n".getBytes(StandardCharsets.UTF_8));
+                client.setSoTimeout(5000);
+                InputStream in = client.getInputStream();
+                // the handshake is processed before the goodbye is written and the channel closed
+                while (in.read() >= 0) {
+                }
+            }
+        } finally {
+            worker.shutdown();
+        }
+        assertEquals(0, game.getPlayerCount());
+        game.endGame();
+    }
+
+    @Test
+    public void botCatchingAHumanWritesNothingUnderTheRegionLocks() throws InterruptedException {
+        char[][] tiles = {"...".toCharArray()};
+        final GameLogic game = new GameLogic(null, ServerMode.BLOCKING.getThreadFactory(), new Map("caught", 0, tiles));
+        final boolean[] probe = new boolean[1];
+        final boolean[] lookFinished = new boolean[1];
+        Player[] humans = new Player[2];
+        for (int id = 0; id < 2; id++) {
+            final int otherId = 1 - id;
+            humans[id] = new Player(new NoClientConnection() {
+                public void writeLine(String message) {
+                    if (!probe[0]) {
+                        return;
+                    }
+                    // another player's LOOK needs the region the catch happened in
+                    Thread look = new Thread(new Runnable() {
+                        public void run() {
+                            game.processCommand("LOOK", otherId);
+                            lookFinished[0] = true;
+                        }
+                    });
+                    look.start();
+                    try {
+                        look.join(2000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, game, id, "human");
+            game.addPlayer(humans[id]);
+        }
+        Player bot = new Player(new NoClientConnection(), game, 2, "bot");
+        game.addPlayer(bot);
+        Player caught = Math.abs(humans[0].getXCoordinate() - bot.getXCoordinate()) == 1 ? humans[0] : humans[1];
+        probe[0] = true;
+        String direction = caught.getXCoordinate() > bot.getXCoordinate() ? "E" : "W";
+        assertEquals("SUCCESS", game.processCommand("MOVE " + direction, 2));
+        assertTrue(lookFinished[0]);
+        assertEquals(2, game.getPlayerCount());
+        assertEquals(caught.getXCoordinate(), bot.getXCoordinate());
+        game.endGame();
+    }
 }
@@ -0,0 +1,122 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * An optional authoritative game loop. Instead of each player's
+ * Thread running its commands against the game as they arrive, the
+ * commands are added to a lock-free queue and a single simulation
+ * Thread applies them in fixed ticks. Within a tick, commands are
+ * applied in order of player id, keeping each player's own commands
+ * in the order they were sent, so collisions between players that
+ * move in the same tick are always resolved the same way. The
+ * result of each command is then written back to its player.
+ *
+ * @author Jonathan Beaumont
+ */
+public class GameSimulation implements Runnable {
+
+    public static final int DEFAULT_TICKS_PER_SECOND = 20;
+
+    private static final Comparator<QueuedCommand> BY_PLAYER_ID = new Comparator<QueuedCommand>() {
+        @Override
+        public int compare(QueuedCommand a, QueuedCommand b) {
+            return Integer.compare(a.player.getPlayerId(), b.player.getPlayerId());
+        }
+    };
+
+    private Queue<QueuedCommand> queue;
+    private ArrayList<QueuedCommand> tick;
+    private long tickNanos;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param ticksPerSecond    the number of ticks to run each second.
+     */
+    public GameSimulation(int ticksPerSecond) {
+        queue = new ConcurrentLinkedQueue<>();
+        tick = new ArrayList<>();
+        tickNanos = 1000000000L / ticksPerSecond;
+        running = true;
+    }
+
+    /**
+     * Queues a command to be applied in the next tick. Safe to call
+     * from any thread.
+     *
+     * @param player    the player who sent the command.
+     * @param command   the command.
+     */
+    public void queueCommand(Player player, Command command) {
+        queue.add(new QueuedCommand(player, command));
+    }
+
+    /**
+     * Stops the simulation after the current tick.
+     */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Executed when it is started in a new Thread. Runs a tick, then
+     * sleeps until the next one is due, until stopped.
+     */
+    public void run() {
+        long nextTick = System.nanoTime();
+        while (running) {
+            runTick();
+            nextTick += tickNanos;
+            long sleepNanos = nextTick - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                nextTick = System.nanoTime();
+            }
+        }
+    }
+
+    /**
+     * Drains the commands queued since the last tick and applies them
+     * in order of player id. A command that throws is logged and
+     * skipped, so that one failure does not stop the simulation.
+     */
+    private void runTick() {
+        QueuedCommand command;
+        while ((command = queue.poll()) != null) {
+            tick.add(command);
+        }
+        Collections.sort(tick, BY_PLAYER_ID);
+        for (QueuedCommand queuedCommand : tick) {
+            try {
+                queuedCommand.player.executeCommand(queuedCommand.command);
+            } catch (RuntimeException e) {
+                System.out.println("Server : Command failed (" + queuedCommand.player.getPlayerId() + ")");
+                e.printStackTrace();
+            }
+        }
+        tick.clear();
+    }
+
+    /**
+     * A command waiting in the queue for the next tick.
+     */
+    private static class QueuedCommand {
+
+        private Player player;
+        private Command command;
+
+        private QueuedCommand(Player player, Command command) {
+            this.player = player;
+            this.command = command;
+        }
+    }
+}
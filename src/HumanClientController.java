@@ -3,13 +3,17 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Iterator;
 
 /**
  *
  */
 public class HumanClientController {
 
+    private static final int MAX_SEQUENCE = 1000000000;
+
     private Socket server;
     private HumanPlayerSend send;
     private HumanPlayerReceive receive;
@@ -19,13 +23,19 @@ public class HumanClientController {
     private int mapWidth;
     private boolean mapGridBuilt;
     private boolean gameOver;
+    private boolean binary;
+    private final ArrayDeque<Command> unanswered = new ArrayDeque<>();
+    private int nextSequence;
 
     /**
      * Constructor. Runs a method to initialise variables and object.
+     * The arguments may contain a hostname and port number, followed
+     * by "binary" to speak the binary protocol.
      */
     public HumanClientController(String[] args) {
         init();
-        if (args.length == 2) {
+        binary = args.length == 3 && args[2].equals("binary");
+        if (args.length == 2 || binary) {
             if (attemptConnection(args[0], args[1]) != null) {
                 System.out.print("Invalid hostname or port number");
                 startConnectGUI();
@@ -43,6 +53,10 @@ public class HumanClientController {
         socketConnected = false;
         mapGridBuilt = false;
         gameOver = false;
+        synchronized (unanswered) {
+            unanswered.clear();
+            nextSequence = 0;
+        }
     }
 
     /**
@@ -78,8 +92,8 @@ public class HumanClientController {
             System.out.println("connected to server");
             socketConnected = true;
 
-            send = new HumanPlayerSend(server);
-            receive = new HumanPlayerReceive(server, this);
+            send = new HumanPlayerSend(server, this, binary);
+            receive = new HumanPlayerReceive(server, this, binary);
 
             String serverResponse = receive.readLineFromServer();
             switch (serverResponse) {
@@ -120,15 +134,18 @@ public class HumanClientController {
 
     /**
      * Initialises a new game after successfully connecting to the
-     * server. Starts Threads to manage the game.
+     * server. Starts Threads to manage the game, and subscribes to
+     * LOOK updates, so the map is only sent when something in it
+     * changes, and to USERNAMES updates, so the list of players is
+     * sent once and then kept up to date.
      */
     private void gameInit() {
         startMainGUI();
         new Thread(send).start();
         new Thread(receive).start();
-        new Thread(new HumanClientLookThread(this)).start();
+        writeToServer("LOOK PUSH");
         writeToServer("HELLO");
-        writeToServer("USERNAMES");
+        writeToServer("USERNAMES PUSH");
     }
 
     /**
@@ -156,19 +173,37 @@ public class HumanClientController {
     }
 
     /**
-     * Writes a line of output to the server.
+     * Writes a command to the server, tagged with a sequence number,
+     * so that the lines of its reply can be told apart from the lines
+     * the server pushes, without waiting for the reply before sending
+     * the next command.
      * @param output    output to write.
      */
     private void writeToServer(String output) {
-        if (socketConnected && !gameOver)
-            send.writeToServer(output);
+        if (socketConnected && !gameOver) {
+            synchronized (unanswered) {
+                int sequence = nextSequence;
+                nextSequence = (nextSequence + 1) % MAX_SEQUENCE;
+                unanswered.add(new Command().parse(output).setSequence(sequence));
+                send.writeToServer("#" + sequence + " " + output);
+            }
+        }
     }
 
     /**
-     * Processes a request from the look thread.
+     * Finds the command a tagged line of a reply answers. The server
+     * answers a client's commands in the order they were sent, so
+     * every command sent before it has been answered in full.
+     * @param sequence  the sequence number the line is tagged with.
+     * @return          the command, or null if it is not known.
      */
-    public void processLookThreadAction() {
-        writeToServer("LOOK");
+    private Command answeredCommand(int sequence) {
+        synchronized (unanswered) {
+            while (!unanswered.isEmpty() && unanswered.peek().getSequence() != sequence) {
+                unanswered.remove();
+            }
+            return unanswered.peek();
+        }
     }
 
     /**
@@ -194,7 +229,6 @@ public class HumanClientController {
         final char[] directions = {'N', 'E', 'S', 'W'};
         if(Arrays.asList(direction).contains(direction)) {
             writeToServer("MOVE " + direction);
-            writeToServer("LOOK");
         }
     }
 
@@ -215,12 +249,51 @@ public class HumanClientController {
         writeToServer("PICKUP");
     }
 
+    /**
+     * Processes a line that could not be sent to the server, because
+     * the binary protocol cannot encode it, as if the server had
+     * answered it with FAIL. Only its own command is taken out of the
+     * commands waiting for a reply, as those sent before it may not
+     * have been answered yet.
+     * @param line  the line, tagged if it was written by the controller.
+     */
+    public void processUnsentLine(String line) {
+        Command unsent = new Command().parse(line);
+        if (unsent.getSequence() != Command.NO_SEQUENCE) {
+            synchronized (unanswered) {
+                Iterator<Command> commands = unanswered.iterator();
+                while (commands.hasNext()) {
+                    if (commands.next().getSequence() == unsent.getSequence()) {
+                        commands.remove();
+                        break;
+                    }
+                }
+            }
+        }
+        processReply(unsent.getSequence() == Command.NO_SEQUENCE ? null : unsent, "FAIL");
+    }
+
     /**
      * Processes line from the server.
      * @param line
      */
     public void processServerLine(String line) {
+        Command answered = null;
+        if (line.matches("^#[0-9]+ .*")) {
+            int tagEnd = line.indexOf(' ');
+            answered = answeredCommand(Integer.parseInt(line.substring(1, tagEnd)));
+            line = line.substring(tagEnd + 1);
+        }
+        processReply(answered, line);
+    }
 
+    /**
+     * Processes line from the server, without its tag.
+     * @param answered  the command the line answers, or null if the
+     *                  line is not tagged.
+     * @param line
+     */
+    private void processReply(Command answered, String line) {
         if (processLookInputCommand(line)) {
             return;
         } else if (processMessageInputCommand(line)) {
@@ -229,11 +302,13 @@ public class HumanClientController {
         } else if (processNewPlayerInputCommand(line)) {
         } else if (processPlayerLeftInputCommand(line)) {
         } else if (processUsernamesInputCommand(line)) {
+        } else if (processRosterInputCommand(line)) {
         } else if (processHelloInputCommand(line)) {
         } else if (processPickupInputCommand(line)) {
         } else if (processQuitInputCommand(line)) {
         } else if (gameOver) {
             gui.addChatMessage(line, Color.red);
+        } else if (!isMoveReply(answered)) {
         } else if (line.equals("FAIL")) {
             gui.actionSuccessful(false);
         } else if (line.equals("SUCCESS")) {
@@ -244,13 +319,32 @@ public class HumanClientController {
     }
 
     /**
-     * Checks whether the line is a valid look command. If so it
-     * is processed. Otherwise false is returned.
+     * @param answered  the command a line answers, or null if the
+     *                  line is not tagged.
+     * @return          whether the line may be the result of a move.
+     */
+    private boolean isMoveReply(Command answered) {
+        return answered == null || answered.getType() == CommandType.MOVE || answered.getType() == CommandType.WALK
+                || answered.getType() == CommandType.PICKUP;
+    }
+
+    /**
+     * Checks whether the line is a valid look command, either a row
+     * of the window or the cells of the window that have changed. If
+     * so it is processed. Otherwise false is returned.
      * @param command   input from server.
      * @return          true is valid, false if invalid.
      */
     private boolean processLookInputCommand(String command) {
-        if (command.matches("^[HBGE.#]+$")) {
+        if (command.matches("^LOOK DIFF( [0-9]{2}[HBGE.#])+$")) {
+            if (mapGridBuilt) {
+                String[] cells = command.split(" ");
+                for (int i = 2; i < cells.length; i++) {
+                    gui.updateTile(cells[i].charAt(0) - '0', cells[i].charAt(1) - '0', cells[i].charAt(2));
+                }
+            }
+            return true;
+        } else if (command.matches("^[HBGE.#]+$")) {
             if (!mapGridBuilt && line == 0) {
                 gui.instantiateMapGrid(command.length());
                 mapWidth = command.length();
@@ -303,7 +397,6 @@ public class HumanClientController {
                             (words[2] + words[3]).equals("UPDATEDTO:") &&
                             isValidUsername(words[4])
                     ) {
-                gui.updateUsername(words[1], words[4]);
                 gui.addChatMessage(command, Color.blue);
                 return true;
             } else {
@@ -362,7 +455,6 @@ public class HumanClientController {
         String[] words = command.split(" ");
         if (words.length == 3) {
             if (command.startsWith("NEW PLAYER: ") && isValidUsername(words[2])) {
-                gui.addUsername(words[2]);
                 gui.addChatMessage(command, Color.orange);
                 return true;
             }
@@ -383,7 +475,6 @@ public class HumanClientController {
         }
         String[] words = command.split(" ");
         if (command.startsWith("PLAYER EXIT: ")) {
-            gui.removeUsername(words[2]);
             gui.addChatMessage(command.replace("PLAYER EXIT: ", ""), Color.orange);
             return true;
         }
@@ -412,6 +503,30 @@ public class HumanClientController {
         return false;
     }
 
+    /**
+     * Checks whether the line is a change to the list of players, which
+     * the server sends after USERNAMES PUSH. If so the list is updated.
+     * Otherwise false is returned.
+     * @param command   input from server.
+     * @return          true is valid, false if invalid.
+     */
+    private boolean processRosterInputCommand(String command) {
+        String[] words = command.split(" ");
+        if (command.equals("USERNAMES PUSH ON")) {
+            return true;
+        } else if (words.length == 3 && command.startsWith("USERNAMES JOINED: ")) {
+            gui.addUsername(words[2].substring(words[2].indexOf('-') + 1));
+            return true;
+        } else if (words.length == 3 && command.startsWith("USERNAMES LEFT: ")) {
+            gui.removeUsername(words[2].substring(words[2].indexOf('-') + 1));
+            return true;
+        } else if (words.length == 4 && command.startsWith("USERNAMES RENAMED: ")) {
+            gui.updateUsername(words[2].substring(words[2].indexOf('-') + 1), words[3]);
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Checks whether the line is a valid look hello command. If so it
      * is processed. Otherwise false is returned.
@@ -482,4 +597,4 @@ public class HumanClientController {
         return gameOver;
     }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -358,6 +358,10 @@ public class HumanClientGUI extends JFrame {
         mapGrid.insertMapRow(n, row);
     }
 
+    public synchronized void updateTile(int row, int column, char tile) {
+        mapGrid.insertMapItem(column, row, tile);
+    }
+
     public void updateGoldRequired(int gold) {
         goldLabel.setText("Gold required: " + gold);
         goldLabel.revalidate();
@@ -1,5 +1,7 @@
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.Socket;
 import java.net.SocketException;
@@ -15,20 +17,29 @@ public class HumanPlayerReceive implements Runnable {
 
     private Socket server;
     private BufferedReader fromServer;
+    private InputStream framesFromServer;
+    private byte[] frameBuffer;
     private HumanClientController controller;
 
     /**
      * Constructor. Creates a new BufferedReader to read data from
-     * the server.
+     * the server, or a buffered stream to read frames from if the
+     * binary protocol is spoken.
      *
      * @param server        socket linked to server.
      * @param controller    controller to pass input to.
+     * @param binary        whether the binary protocol is spoken.
      */
-    public HumanPlayerReceive(Socket server, HumanClientController controller) {
+    public HumanPlayerReceive(Socket server, HumanClientController controller, boolean binary) {
         this.server = server;
         this.controller = controller;
         try {
-            fromServer = new BufferedReader(new InputStreamReader(server.getInputStream()));
+            if (binary) {
+                framesFromServer = new BufferedInputStream(server.getInputStream());
+                frameBuffer = new byte[BinaryProtocol.MAX_LOOK_FRAME_LENGTH];
+            } else {
+                fromServer = new BufferedReader(new InputStreamReader(server.getInputStream()));
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -37,35 +48,81 @@ public class HumanPlayerReceive implements Runnable {
     /**
      * Executed when it is started in a new Thread. Loops while input
      * is being read from the server passes it to the controller to
-     * be processed.
+     * be processed. Each frame of the binary protocol is decoded back
+     * into the lines the text protocol would have sent.
      */
     public void run() {
         String fromServer;
+        if (framesFromServer != null) {
+            while ((fromServer = readFrameFromServer()) != null) {
+                for (String line : fromServer.split("\n")) {
+                    controller.processServerLine(line);
+                }
+            }
+            return;
+        }
         while ((fromServer = readLineFromServer()) != null) {
             controller.processServerLine(fromServer);
         }
     }
 
     /**
-     * Reads a line from the server.
+     * Reads a frame from the server and decodes it.
+     *
+     * @return the message read or null if there was an error.
+     */
+    private String readFrameFromServer() {
+        try {
+            BinaryProtocol.FrameReader frame = BinaryProtocol.readFrame(framesFromServer, frameBuffer);
+            if (frame == null) {
+                return null;
+            }
+            frameBuffer = frame.getBytes();
+            return BinaryProtocol.decodeMessage(frameBuffer, 0, frame.getEnd());
+        } catch (IllegalArgumentException e) {
+            System.err.println("Invalid frame from server.");
+            return "";
+        } catch (SocketException e) {
+            serverDisconnected();
+        } catch (IOException e) {
+            System.err.println("IO error reading frame from server.");
+        }
+        return null;
+    }
+
+    /**
+     * Reads a line from the server. While the binary protocol is
+     * spoken, the only line is the reply to the handshake.
      *
      * @return the line read or null if there was an error.
      */
     public String readLineFromServer() {
         String fromServer = null;
         try {
-            fromServer = this.fromServer.readLine();
-        } catch (SocketException e) {
-            System.out.println("Server unexpectedly disconnected.");
-            controller.processServerLine("Server unexpectedly disconnected.");
-            try {
-                server.close();
-            } catch (IOException e2) {
-                System.out.println("trying to close socket?");
+            if (framesFromServer != null) {
+                fromServer = BinaryProtocol.readLine(framesFromServer);
+            } else {
+                fromServer = this.fromServer.readLine();
             }
+        } catch (SocketException e) {
+            serverDisconnected();
         } catch (IOException e) {
             System.err.println("IO error reading line from server.");
         }
         return fromServer;
     }
+
+    /**
+     * Tells the controller that the server has gone, and closes the
+     * socket.
+     */
+    private void serverDisconnected() {
+        System.out.println("Server unexpectedly disconnected.");
+        controller.processServerLine("Server unexpectedly disconnected.");
+        try {
+            server.close();
+        } catch (IOException e2) {
+            System.out.println("trying to close socket?");
+        }
+    }
 }
@@ -10,21 +10,35 @@ import java.net.SocketException;
  */
 public class HumanPlayerSend implements Runnable {
 
+    private HumanClientController controller;
     private BufferedReader input;
     private BufferedWriter toServer;
+    private OutputStream framesToServer;
+    private boolean binary;
+    private Command command;
 
     /**
      * Constructor. Creates new BufferedReader to read input from the
      * terminal and BufferedWriter to write data to the server.
      *
-     * @param server    socket linked to the server.
+     * @param server        socket linked to the server.
+     * @param controller    controller to pass lines that cannot be sent to.
+     * @param binary        whether to speak the binary protocol.
      */
-    public HumanPlayerSend(Socket server) {
+    public HumanPlayerSend(Socket server, HumanClientController controller, boolean binary) {
+        this.controller = controller;
+        this.binary = binary;
         try {
             input = new BufferedReader(new InputStreamReader(System.in));
             toServer = new BufferedWriter(new OutputStreamWriter(server.getOutputStream()));
 
-            writeToServer("human");
+            if (binary) {
+                writeToServer("human binary");
+                framesToServer = server.getOutputStream();
+                command = new Command();
+            } else {
+                writeToServer("human");
+            }
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -48,12 +62,25 @@ public class HumanPlayerSend implements Runnable {
     }
 
     /**
-     * Writes a line to the server.
+     * Writes a line to the server, or, once the binary protocol has
+     * been chosen, the line encoded as a frame. A line that is not a
+     * valid command cannot be encoded, so it is not sent, and the
+     * controller answers it with FAIL, as the server would have.
      *
      * @param message   line to be written to the server.
      */
-    public void writeToServer(String message) {
+    public synchronized void writeToServer(String message) {
         try {
+            if (framesToServer != null) {
+                byte[] frame = BinaryProtocol.encodeCommand(command.parse(message));
+                if (frame == null) {
+                    controller.processUnsentLine(message);
+                    return;
+                }
+                framesToServer.write(frame);
+                framesToServer.flush();
+                return;
+            }
             toServer.write(message);
             toServer.newLine();
             toServer.flush();
@@ -0,0 +1,57 @@
+/**
+ * Encodes lines of chars as UTF-8 bytes, terminated by a newline,
+ * straight into a byte array that the caller reuses, so that writing
+ * a line to a client allocates nothing.
+ *
+ * @author Jonathan Beaumont
+ */
+public class LineEncoder {
+
+    /**
+     * @param length    the number of chars in a line.
+     * @return  the most bytes the line can take once encoded,
+     *          including its newline.
+     */
+    public static int maxEncodedLength(int length) {
+        return length * 3 + 1;
+    }
+
+    /**
+     * Encodes a line into a byte array, followed by a newline. A lone
+     * surrogate char is encoded as '?'.
+     *
+     * @param chars     the buffer holding the line.
+     * @param length    the number of chars in the line.
+     * @param bytes     the array to encode into, with at least
+     *                  <code>maxEncodedLength(length)</code> bytes
+     *                  free after the offset.
+     * @param offset    the index to start encoding at.
+     * @return  the index after the newline.
+     */
+    public static int encodeLine(char[] chars, int length, byte[] bytes, int offset) {
+        int i = 0;
+        while (i < length) {
+            char c = chars[i++];
+            if (c < 0x80) {
+                bytes[offset++] = (byte) c;
+            } else if (c < 0x800) {
+                bytes[offset++] = (byte) (0xC0 | (c >> 6));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i < length && Character.isLowSurrogate(chars[i])) {
+                int codePoint = Character.toCodePoint(c, chars[i++]);
+                bytes[offset++] = (byte) (0xF0 | (codePoint >> 18));
+                bytes[offset++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                bytes[offset++] = (byte) '?';
+            } else {
+                bytes[offset++] = (byte) (0xE0 | (c >> 12));
+                bytes[offset++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                bytes[offset++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        bytes[offset++] = (byte) '\n';
+        return offset;
+    }
+}
@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Frames newline terminated lines out of the bytes read from a
+ * non-blocking channel. Bytes are appended as they arrive, and
+ * complete lines are taken out one at a time with
+ * <code>nextLine()</code>. A trailing carriage return is dropped so
+ * that both "\n" and "\r\n" terminated clients are understood.
+ *
+ * @author Jonathan Beaumont
+ */
+public class LineFramer {
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private byte[] buffer;
+    private int start;
+    private int end;
+    private int scanned;
+    private int maxLineLength;
+
+    /**
+     * Constructor.
+     *
+     * @param maxLineLength the longest line accepted, not counting
+     *                      its line terminator.
+     */
+    public LineFramer(int maxLineLength) {
+        this.maxLineLength = maxLineLength;
+        buffer = new byte[INITIAL_CAPACITY];
+    }
+
+    /**
+     * Appends the remaining bytes of a buffer, leaving it drained.
+     *
+     * @param bytes the bytes read from the channel, ready to be read.
+     */
+    public void append(ByteBuffer bytes) {
+        int length = bytes.remaining();
+        makeRoom(length);
+        bytes.get(buffer, end, length);
+        end += length;
+    }
+
+    /**
+     * Takes the next complete line out of the framer.
+     *
+     * @return  the line without its terminator, or null if no
+     *          complete line has arrived yet.
+     */
+    public String nextLine() {
+        for (int i = scanned; i < end; i++) {
+            if (buffer[i] == '\n') {
+                int lineEnd = (i > start && buffer[i - 1] == '\r') ? i - 1 : i;
+                String line = new String(buffer, start, lineEnd - start, StandardCharsets.UTF_8);
+                start = i + 1;
+                scanned = start;
+                return line;
+            }
+        }
+        scanned = end;
+        return null;
+    }
+
+    /**
+     * Takes every byte that has not been framed into a line out of
+     * the framer, e.g. when the client switches to another protocol.
+     *
+     * @return  the bytes, ready to be read.
+     */
+    public ByteBuffer takeRemaining() {
+        ByteBuffer remaining = ByteBuffer.wrap(Arrays.copyOfRange(buffer, start, end));
+        start = 0;
+        end = 0;
+        scanned = 0;
+        return remaining;
+    }
+
+    /**
+     * @return  whether the partial line waiting for a terminator is
+     *          longer than the maximum line length.
+     */
+    public boolean isOverflowing() {
+        return end - start > maxLineLength + 1;
+    }
+
+    /**
+     * Ensures there is space for more bytes at the end of the buffer,
+     * first by moving the unread bytes to the front, then by growing.
+     *
+     * @param length    the number of bytes to make space for.
+     */
+    private void makeRoom(int length) {
+        if (end + length <= buffer.length) {
+            return;
+        }
+        int unread = end - start;
+        if (start > 0) {
+            System.arraycopy(buffer, start, buffer, 0, unread);
+            scanned -= start;
+            start = 0;
+            end = unread;
+        }
+        if (end + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, end + length));
+        }
+    }
+}
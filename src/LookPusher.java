@@ -0,0 +1,106 @@
+import java.util.LinkedHashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pushes LOOK updates to players who have asked for them with
+ * LOOK PUSH, so that their clients do not need to poll. GameLogic
+ * reports every tile whose contents change, and the pusher refreshes
+ * the windows of the subscribed players who can see that tile,
+ * sending each of them only the cells that changed. Changes that
+ * arrive together are coalesced, so a player is refreshed once per
+ * batch however many tiles in their window changed.
+ *
+ * It runs on a Thread of its own, so no game lock is held while
+ * windows are recomputed and written, and players who are not near
+ * anything that changes cost nothing.
+ *
+ * @author Jonathan Beaumont
+ */
+public class LookPusher implements Runnable {
+
+    private GameLogic game;
+    private int mapWidth;
+    private LinkedBlockingQueue<Integer> changedTiles;
+    private LinkedHashSet<Player> playersToUpdate;
+    private AtomicInteger subscribers;
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param game      the game whose players are pushed to.
+     * @param mapWidth  the width of the game's map.
+     */
+    public LookPusher(GameLogic game, int mapWidth) {
+        this.game = game;
+        this.mapWidth = mapWidth;
+        changedTiles = new LinkedBlockingQueue<>();
+        playersToUpdate = new LinkedHashSet<>();
+        subscribers = new AtomicInteger();
+        running = true;
+    }
+
+    /**
+     * Records that a player has subscribed to LOOK updates.
+     */
+    public void subscribe() {
+        subscribers.incrementAndGet();
+    }
+
+    /**
+     * Records that a subscribed player has left the game.
+     */
+    public void unsubscribe() {
+        subscribers.decrementAndGet();
+    }
+
+    /**
+     * Reports that the contents of a tile have changed. Does nothing
+     * when no player is subscribed, and never blocks, so it can be
+     * called while holding region locks.
+     *
+     * @param x the x coordinate of the tile.
+     * @param y the y coordinate of the tile.
+     */
+    public void tileChanged(int x, int y) {
+        if (subscribers.get() > 0) {
+            changedTiles.add(y * mapWidth + x);
+        }
+    }
+
+    /**
+     * Stops pushing updates.
+     */
+    public void stop() {
+        running = false;
+        changedTiles.add(-1);
+    }
+
+    /**
+     * Executed when it is started in a new Thread. Waits for a tile
+     * to change, then takes every other change waiting with it, finds
+     * the subscribed players who can see any of them, and pushes each
+     * of those players their changes, until stopped.
+     */
+    public void run() {
+        while (running) {
+            Integer tile;
+            try {
+                tile = changedTiles.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            while (tile != null && running) {
+                if (tile >= 0) {
+                    game.findLookSubscribers(tile % mapWidth, tile / mapWidth, playersToUpdate);
+                }
+                tile = changedTiles.poll();
+            }
+            for (Player player : playersToUpdate) {
+                player.pushLook();
+            }
+            playersToUpdate.clear();
+        }
+    }
+}
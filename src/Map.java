@@ -1,20 +1,70 @@
-import java.io.*;
-import java.util.ArrayList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 
 /**
- * Reads and contains in memory the map of the game.
+ * Reads and contains in memory the map of the game. The tiles are
+ * held packed, half a byte each, by PackedTiles, or for a map too
+ * large to keep in memory, by ChunkedTiles, which reads the parts of
+ * the map file that are played on as they are needed.
+ *
+ * A map is read either from the text format, or from the binary
+ * format written by <code>writeBinaryMap()</code>, which holds the
+ * tiles already packed and the tiles players may spawn on, so that it
+ * loads without being parsed.
+ *
+ * Every change of a tile to or from a wall is counted, so that a
+ * RoutePlanner knows when the routes it has remembered may be wrong.
  *
  * @author: The unnamed tutor.
  */
 public class Map {
 	
-	private char[][] map;
+	private MapTiles tiles;
 	private String mapName;
 	private int goldToWin;
 	private int mapWidth;
 	private int mapHeight;
+	private int[] spawnCells;
+	private final AtomicInteger wallVersion = new AtomicInteger();
 
 	public static final int LOOK_RADIUS = 5;
+	public static final int LOOK_WINDOW_LENGTH = LOOK_RADIUS * (LOOK_RADIUS + 1) - 1;
+
+	private static final int BINARY_MAGIC = 0x446F444D;
+	private static final byte BINARY_VERSION = 1;
+
+    /**
+     * Constructor for a map that is read from file with
+     * <code>readMap()</code>.
+     */
+    public Map() {
+    }
+
+    /**
+     * Constructor for a map that has been generated rather than read
+     * from file.
+     *
+     * @param mapName   the name of the map.
+     * @param goldToWin gold required to exit the map.
+     * @param map       the tiles of the map, indexed by row then column.
+     */
+    public Map(String mapName, int goldToWin, char[][] map) {
+        this.mapName = mapName;
+        this.goldToWin = goldToWin;
+        tiles = PackedTiles.pack(map);
+        mapHeight = map.length;
+        mapWidth = map[0].length;
+    }
 
     /**
      * @return	Gold required to exit the current map.
@@ -29,20 +79,30 @@ public class Map {
     protected char[][] look(int x, int y) {
     	char[][] reply = new char[LOOK_RADIUS][LOOK_RADIUS];
 		for (int i = 0; i < LOOK_RADIUS; i++) {
-			for (int j = 0; j < LOOK_RADIUS; j++) {
-				int posX = x + j - LOOK_RADIUS/2;
-				int posY = y + i - LOOK_RADIUS/2;
-				if (posX >= 0 && posX < getMapWidth() && 
-						posY >= 0 && posY < getMapHeight()){
-					reply[i][j] = map[posY][posX];
-				} else {
-					reply[i][j] = '#';
-				}
-			}
+			tiles.getRow(x - LOOK_RADIUS/2, y + i - LOOK_RADIUS/2, LOOK_RADIUS, reply[i], 0);
 		}
 		return reply;
     }
 
+    /**
+     * Writes the look window around a players coordinates into a buffer,
+     * as rows separated by newlines, without allocating. Each row is
+     * copied out of the packed tiles in one go.
+     *
+     * @param x         x coordinate of the player.
+     * @param y         y coordinate of the player.
+     * @param window    a buffer of at least <code>LOOK_WINDOW_LENGTH</code> chars.
+     */
+    protected void look(int x, int y, char[] window) {
+		for (int i = 0; i < LOOK_RADIUS; i++) {
+			int row = i * (LOOK_RADIUS + 1);
+			tiles.getRow(x - LOOK_RADIUS/2, y + i - LOOK_RADIUS/2, LOOK_RADIUS, window, row);
+			if (i + 1 != LOOK_RADIUS) {
+				window[row + LOOK_RADIUS] = '\n';
+			}
+		}
+    }
+
     /**
      * @return	The name of the current map.
      */
@@ -70,13 +130,54 @@ public class Map {
 	public char[][] getMap() {
 		char[][] returnMap = new char[getMapHeight()][getMapWidth()];
 		for (int i=0;i<getMapHeight();i++){
-			for (int j = 0; j < getMapWidth(); j++) {
-				returnMap[i][j] = map[i][j];
-			}
+			tiles.getRow(0, i, getMapWidth(), returnMap[i], 0);
 		}
 		return returnMap;
 	}
 
+    /**
+     * Finds the tiles a player may spawn on, the first time they are
+     * needed unless the map was read from the binary format. Tiles are
+     * given as <code>y * width + x</code>.
+     *
+     * @return	every tile that was not a wall when the map was loaded,
+     *			or null if the map is too large to keep in memory.
+     */
+    public synchronized int[] getSpawnCells() {
+    	if (spawnCells == null && tiles instanceof PackedTiles) {
+    		spawnCells = findSpawnCells();
+    	}
+    	return spawnCells;
+    }
+
+    /**
+     * @return	every tile that is not a wall, in two passes over the
+     *			rows: one to count them and one to list them.
+     */
+    private int[] findSpawnCells() {
+    	char[] row = new char[mapWidth];
+    	int count = 0;
+    	for (int y = 0; y < mapHeight; y++) {
+    		tiles.getRow(0, y, mapWidth, row, 0);
+    		for (int x = 0; x < mapWidth; x++) {
+    			if (row[x] != '#') {
+    				count++;
+    			}
+    		}
+    	}
+    	int[] cells = new int[count];
+    	int i = 0;
+    	for (int y = 0; y < mapHeight; y++) {
+    		tiles.getRow(0, y, mapWidth, row, 0);
+    		for (int x = 0; x < mapWidth; x++) {
+    			if (row[x] != '#') {
+    				cells[i++] = y * mapWidth + x;
+    			}
+    		}
+    	}
+    	return cells;
+    }
+
     /**
      * Retrieves a tile on the map. If the location requested is outside bounds of the map, it returns 'X' wall.
      *
@@ -85,10 +186,7 @@ public class Map {
      * @return	What the tile at the location requested contains.
      */
     public char getTile(int x, int y) {
-    	if (y < 0 || x < 0 || y >= map.length || x >= map[0].length){
-			return '#';
-    	}
-		return map[y][x];
+		return tiles.get(x, y);
     }
     
     /**
@@ -99,26 +197,80 @@ public class Map {
      * @return	What the tile at the location requested contains.
      */
     public void replaceTile(int x, int y, char with) {
-    	if (y < 0 || x < 0 || y >= map.length || x >= map[0].length){
-    		// not in bounds
-    	}
-    	else{
-    		map[y][x] = with;
+    	boolean wasWall = tiles.get(x, y) == '#';
+    	tiles.set(x, y, with);
+    	if (wasWall != (with == '#')) {
+    		wallVersion.incrementAndGet();
     	}
     }
 
     /**
-     * Reads the map from file.
+     * @return  the number of times a tile has become or stopped being a
+     *          wall. It changes after the tile does.
+     */
+    public int getWallVersion() {
+    	return wallVersion.get();
+    }
+
+    /**
+     * Reads the map from file. The file is memory-mapped rather than
+     * read through a stream, so that a map of hundreds of megabytes
+     * is parsed straight out of the page cache.
      *
      * @param fileName Name of the map's file.
      */
     public void readMap(String fileName) {
-    	try {
-    		BufferedReader reader = new BufferedReader(new FileReader(new File("maps","example_map.txt")));
-    		map = loadMap(reader);
+    	try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ)) {
+    		if (channel.size() > Integer.MAX_VALUE) {
+    			throw new IOException("map file larger than 2 GB");
+    		}
+    		ByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    		tiles = isBinaryMap(bytes) ? loadBinaryMap(bytes) : loadMap(bytes);
+		} 
+    	catch (NoSuchFileException e1) {
+			System.err.println("map file " + fileName + " not found");
+			System.exit(-1);
+		} 
+    	catch (IOException | IllegalArgumentException e) {
+    		System.err.println("map not valid");
+			System.exit(-1);
+		}
+    }
+
+    /**
+     * Opens the map from file without reading its tiles, which are read
+     * a chunk at a time as they are played on. Only the header and the
+     * first row are parsed here; the file size must be a whole number
+     * of rows as long as the first.
+     *
+     * @param fileName			Name of the map's file.
+     * @param cacheMegabytes	how much memory the chunks of the map
+     *							that are in use may take.
+     */
+    public void readMap(String fileName, int cacheMegabytes) {
+    	Path path = Paths.get(fileName);
+    	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+    		long size = channel.size();
+    		ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+    		int start = readHeader(head);
+    		if (start < 0) {
+    			throw new IOException("map header not valid");
+    		}
+    		int width = lineLength(head, start);
+    		int terminator = start + width == head.limit() ? 0 : head.get(start + width) == '\r' ? 2 : 1;
+    		int rowLength = width + terminator;
+    		long body = size - start;
+    		long rows = terminator == 0 ? 1 : (body + rowLength - 1) / rowLength;
+    		if (rows > Integer.MAX_VALUE || body % rowLength != 0 && (body + terminator) % rowLength != 0) {
+    			throw new IOException("map rows not all the same length");
+    		}
+    		int maxChunks = (int) Math.min(Integer.MAX_VALUE, (long) cacheMegabytes * 1024 * 1024 / ChunkedTiles.CHUNK_BYTES);
+    		tiles = new ChunkedTiles(path, start, rowLength, width, (int) rows, maxChunks);
+    		mapWidth = width;
+    		mapHeight = (int) rows;
 		} 
-    	catch (FileNotFoundException e1) {
-			System.err.println("default file example_map.txt not found");
+    	catch (NoSuchFileException e1) {
+			System.err.println("map file " + fileName + " not found");
 			System.exit(-1);
 		} 
     	catch (IOException e) {
@@ -126,67 +278,270 @@ public class Map {
 			System.exit(-1);
 		}
     }
+
+    /**
+     * Writes the map in the binary format, for <code>readMap()</code> to
+     * load without parsing. All numbers are big-endian:
+     * <pre>
+     * int     magic, "DoDM"
+     * byte    version
+     * short   length of the name, then the name in UTF-8
+     * int     gold to win, width, height, gold tiles, exit tiles
+     * byte    kinds of tile, then a char for each of the 16 in the palette
+     * long    each word of packed tiles, row by row
+     * int     number of spawn cells, then each cell as y * width + x
+     * int     CRC-32 of everything before it
+     * </pre>
+     *
+     * @param fileName	Name of the file to write.
+     * @throws IOException	if the file cannot be written.
+     * @throws IllegalStateException	if the map is too large to keep
+     *									in memory.
+     */
+    public void writeBinaryMap(String fileName) throws IOException {
+    	if (!(tiles instanceof PackedTiles)) {
+    		throw new IllegalStateException("only a map held whole can be written");
+    	}
+    	PackedTiles packed = (PackedTiles) tiles;
+    	byte[] name = mapName.getBytes(StandardCharsets.UTF_8);
+    	int[] cells = getSpawnCells();
+    	int gold = 0;
+    	int exits = 0;
+    	char[] row = new char[mapWidth];
+    	for (int y = 0; y < mapHeight; y++) {
+    		tiles.getRow(0, y, mapWidth, row, 0);
+    		for (int x = 0; x < mapWidth; x++) {
+    			if (row[x] == 'G') {
+    				gold++;
+    			} else if (row[x] == 'E') {
+    				exits++;
+    			}
+    		}
+    	}
+    	long size = 4 + 1 + 2 + name.length + 5 * 4 + packed.packedSize() + 4 + 4L * cells.length + 4;
+    	if (size > Integer.MAX_VALUE) {
+    		throw new IOException("binary map larger than 2 GB");
+    	}
+    	ByteBuffer out = ByteBuffer.allocate((int) size);
+    	out.putInt(BINARY_MAGIC).put(BINARY_VERSION);
+    	out.putShort((short) name.length).put(name);
+    	out.putInt(goldToWin).putInt(mapWidth).putInt(mapHeight).putInt(gold).putInt(exits);
+    	packed.writeTo(out);
+    	out.putInt(cells.length);
+    	out.asIntBuffer().put(cells);
+    	out.position(out.position() + 4 * cells.length);
+    	CRC32 crc = new CRC32();
+    	crc.update(out.array(), 0, out.position());
+    	out.putInt((int) crc.getValue());
+    	out.flip();
+    	try (FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.WRITE,
+    			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+    		while (out.hasRemaining()) {
+    			channel.write(out);
+    		}
+    	}
+    }
+
+    /**
+     * @param bytes	the bytes of a map file.
+     * @return			whether the file is in the binary format.
+     */
+    private static boolean isBinaryMap(ByteBuffer bytes) {
+    	return bytes.limit() >= 4 && bytes.getInt(0) == BINARY_MAGIC;
+    }
+
+    /**
+     * Loads a map in the binary format. The checksum is checked over
+     * the whole file first, then the packed tiles and spawn cells are
+     * copied out in bulk.
+     *
+     * @param bytes	the bytes of the map file.
+     * @return			The packed tiles of the map
+     * @throws IllegalArgumentException	if the file is not a valid
+     *										binary map.
+     */
+    private PackedTiles loadBinaryMap(ByteBuffer bytes) {
+    	if (bytes.limit() < 4 + 1 + 2 + 5 * 4 + 4) {
+    		throw new IllegalArgumentException("binary map too short");
+    	}
+    	ByteBuffer checked = bytes.duplicate();
+    	checked.limit(bytes.limit() - 4);
+    	CRC32 crc = new CRC32();
+    	crc.update(checked);
+    	if ((int) crc.getValue() != bytes.getInt(bytes.limit() - 4)) {
+    		throw new IllegalArgumentException("binary map checksum does not match");
+    	}
+    	bytes.position(4);
+    	if (bytes.get() != BINARY_VERSION) {
+    		throw new IllegalArgumentException("binary map version not supported");
+    	}
+    	byte[] name = new byte[bytes.getShort() & 0xFFFF];
+    	bytes.get(name);
+    	mapName = new String(name, StandardCharsets.UTF_8);
+    	goldToWin = bytes.getInt();
+    	mapWidth = bytes.getInt();
+    	mapHeight = bytes.getInt();
+    	// the gold and exit counts are only for tools that inspect the file
+    	bytes.getInt();
+    	bytes.getInt();
+    	PackedTiles map = PackedTiles.readFrom(bytes, mapWidth, mapHeight);
+    	IntBuffer cells = bytes.asIntBuffer();
+    	spawnCells = new int[cells.get()];
+    	cells.get(spawnCells);
+    	return map;
+    }
+
+    /**
+     * Closes the map, releasing any file its tiles are read from.
+     */
+    public void close() {
+    	if (tiles instanceof Closeable) {
+    		try {
+    			((Closeable) tiles).close();
+    		} catch (IOException e) {
+    			System.err.println("map file could not be closed");
+    		}
+    	}
+    }
     
     /**
-     * Reads the map from file.
+     * Parses the map from the bytes of its file in a single pass. The
+     * name and win lines are read as Strings; each row is copied in
+     * bulk out of the bytes into a single reused row buffer, and from
+     * there into the packed tiles. Every row must be as long as the first, and
+     * end with the same line terminator, so the number of rows is
+     * known from the size of the file before they are parsed.
+     *
+     * @param bytes	the bytes of the map file.
+     * @return			The packed tiles of the map
+     */
+    private PackedTiles loadMap(ByteBuffer bytes) {
+
+		int start = readHeader(bytes);
+		if (start < 0) {
+			return null;
+		}
+		int width = lineLength(bytes, start);
+		int terminator = start + width == bytes.limit() ? 0 : bytes.get(start + width) == '\r' ? 2 : 1;
+		int rowLength = width + terminator;
+		int height = terminator == 0 ? 1 : (bytes.limit() - start + rowLength - 1) / rowLength;
+		PackedTiles map = new PackedTiles(width, height);
+		byte[] rowBytes = new byte[width];
+		char[] row = new char[width];
+		for (int y = 0; y < height; y++) {
+			int rowStart = start + y * rowLength;
+			if (rowStart + width > bytes.limit() || !endsRow(bytes, rowStart + width, terminator)) {
+				setName("");
+				setWin("");
+				return null;
+			}
+			bytes.position(rowStart);
+			bytes.get(rowBytes);
+			for (int x = 0; x < width; x++) {
+				if (rowBytes[x] == '\n' || rowBytes[x] == '\r') {
+					setName("");
+					setWin("");
+					return null;
+				}
+				row[x] = (char) (rowBytes[x] & 0xFF);
+			}
+			map.setRow(y, row);
+		}
+		mapHeight = map.getHeight();
+        mapWidth = map.getWidth();
+		return map;
+	}
+
+    /**
+     * Reads the name and win lines, and checks the start of the first
+     * row.
      *
-     * @param reader	BufferedReader for the map file.
-     * @return			The map as a 2D char array
+     * @param bytes	the bytes of the map file.
+     * @return			the index of the first row, or -1 if the map is
+     *					not valid.
      */
-    private char[][] loadMap(BufferedReader reader) throws IOException{
+    private int readHeader(ByteBuffer bytes) {
 
 		boolean error = false;
-		ArrayList<char[]> tempMap = new ArrayList<>();
-		int width = -1;
 		
-		String in = reader.readLine();
-		if (in.startsWith("name")){
+		String in = readHeaderLine(bytes);
+		if (in != null && in.startsWith("name")){
 			error = setName(in);
 		}
 		
-		in = reader.readLine();
-		if (in.startsWith("win")){
+		in = readHeaderLine(bytes);
+		if (in != null && in.startsWith("win")){
 			error = setWin(in);
 		}
 		
-		in = reader.readLine();
-		if (in.charAt(0) == '#' && in.length() > 1){
-			width = in.trim().length();
-		}
-		
-		while (in != null && !error){
-
-			char[] row = new char[in.length()];
-			if  (in.length() != width){
-				error = true;
-			}
-			
-			for (int i = 0; i < in.length(); i++){
-				row[i] = in.charAt(i);
-			}
-
-			tempMap.add(row);
-
-			in = reader.readLine();
+		int start = bytes.position();
+		int width = lineLength(bytes, start);
+		if (width < 2 || bytes.get(start) != '#') {
+			error = true;
 		}
 		
 		if (error) {
 			setName("");
 			setWin("");
+			return -1;
+		}
+		return start;
+    }
+
+    /**
+     * Reads a line of the header, leaving the buffer at the start of
+     * the next line.
+     *
+     * @param bytes	the bytes of the map file.
+     * @return			the line, without its terminator, or null at the end
+     *					of the file.
+     */
+    private static String readHeaderLine(ByteBuffer bytes) {
+		if (!bytes.hasRemaining()) {
 			return null;
 		}
-		char[][] map = new char[tempMap.size()][width];
-		
-		for (int i=0;i<tempMap.size();i++){
-		    char[] mapRow = tempMap.get(i);
-		    for (int j = 0; j < mapRow.length; j++) {
-            }
-			map[i] = mapRow;
+		int start = bytes.position();
+		int length = lineLength(bytes, start);
+		byte[] line = new byte[length];
+		bytes.get(line);
+		while (bytes.hasRemaining() && bytes.get(bytes.position()) != '\n') {
+			bytes.get();
 		}
-		mapHeight = map.length;
-        mapWidth = map[0].length;
-		return map;
-	}
+		if (bytes.hasRemaining()) {
+			bytes.get();
+		}
+		return new String(line, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param bytes	the bytes of the map file.
+     * @param start	the index of the start of a line.
+     * @return			the length of the line, not counting its
+     *					terminator.
+     */
+    private static int lineLength(ByteBuffer bytes, int start) {
+		int end = start;
+		while (end < bytes.limit() && bytes.get(end) != '\n' && bytes.get(end) != '\r') {
+			end++;
+		}
+		return end - start;
+    }
+
+    /**
+     * @param bytes		the bytes of the map file.
+     * @param index		the index just after a row.
+     * @param terminator	the length of the first row's terminator.
+     * @return				whether the row ends as the first row did, or
+     *						at the end of the file.
+     */
+    private static boolean endsRow(ByteBuffer bytes, int index, int terminator) {
+		if (index == bytes.limit()) {
+			return true;
+		} else if (terminator == 2) {
+			return index + 1 < bytes.limit() && bytes.get(index) == '\r' && bytes.get(index + 1) == '\n';
+		}
+		return terminator == 1 && bytes.get(index) == '\n';
+    }
     
     /**
      * Sets the win condition for the game 
@@ -0,0 +1,36 @@
+import java.io.IOException;
+
+/**
+ * Converts a text map into the binary format, which the server loads
+ * without parsing. Run offline, once for each map:
+ * <pre>
+ * java MapConverter maps/example_map.txt maps/example_map.dodmap
+ * </pre>
+ * and then start the server with <code>map=maps/example_map.dodmap</code>.
+ *
+ * @author Jonathan Beaumont
+ */
+public class MapConverter {
+
+    /**
+     * Reads the text map and writes the binary map.
+     *
+     * @param args  the text map file, then the binary map file.
+     */
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: java MapConverter TEXT_MAP BINARY_MAP");
+            System.exit(-1);
+        }
+        Map map = new Map();
+        map.readMap(args[0]);
+        try {
+            map.writeBinaryMap(args[1]);
+        } catch (IOException e) {
+            System.err.println("could not write " + args[1] + ": " + e.getMessage());
+            System.exit(-1);
+        }
+        System.out.println("Wrote " + map.getMapName() + " (" + map.getMapWidth() + "x" + map.getMapHeight()
+                + ", " + map.getSpawnCells().length + " spawn cells) to " + args[1]);
+    }
+}
@@ -110,7 +110,7 @@ public class MapGrid extends JPanel {
      * @param y y index of the element.
      * @param c character to replace in the index.
      */
-    private synchronized void insertMapItem(int x, int y, char c) {
+    public synchronized void insertMapItem(int x, int y, char c) {
         if (mapIcons.containsKey(c)) {
             labelGrid[y][x].setIcon(mapIcons.get(c));
         } else {
@@ -1,3 +1,4 @@
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import org.junit.Test;
 
@@ -25,18 +26,77 @@ public class MapTest {
 
     }
 
+    /**
+     * A map wider than the 16 tiles packed into a long, with an exit
+     * and gold either side of the first boundary.
+     */
+    private static Map wideMap() {
+        char[][] tiles = new char[3][20];
+        for (char[] row : tiles) {
+            java.util.Arrays.fill(row, '.');
+        }
+        tiles[1][15] = 'G';
+        tiles[1][16] = 'E';
+        return new Map("wide", 1, tiles);
+    }
+
     @Test
     public void look() {
-
+        char[] window = new char[Map.LOOK_WINDOW_LENGTH];
+        wideMap().look(16, 0, window);
+        assertEquals("#####\n#####\n.....\n.GE..\n.....", new String(window));
+        wideMap().look(18, 2, window);
+        assertEquals("....#\nE...#\n....#\n#####\n#####", new String(window));
     }
 
     @Test
     public void getTile() {
-
+        Map map = wideMap();
+        assertEquals('G', map.getTile(15, 1));
+        assertEquals('E', map.getTile(16, 1));
+        assertEquals('.', map.getTile(19, 2));
+        assertEquals('#', map.getTile(20, 2));
+        assertEquals('#', map.getTile(-1, 0));
+        assertEquals(20, map.getMap()[1].length);
+        assertEquals('E', map.getMap()[1][16]);
     }
 
     @Test
     public void replaceTile() {
+        Map map = wideMap();
+        map.replaceTile(15, 1, '.');
+        map.replaceTile(17, 1, 'X');
+        map.replaceTile(20, 1, 'G');
+        assertEquals('.', map.getTile(15, 1));
+        assertEquals('E', map.getTile(16, 1));
+        assertEquals('X', map.getTile(17, 1));
+        assertEquals('.', map.getTile(18, 1));
+    }
+
+    @Test
+    public void binaryMapLoadsAsWritten() throws Exception {
+        Map written = wideMap();
+        written.replaceTile(0, 2, '#');
+        java.io.File file = java.io.File.createTempFile("wide", ".dodmap");
+        file.deleteOnExit();
+        written.writeBinaryMap(file.getPath());
+        Map read = new Map();
+        read.readMap(file.getPath());
+        assertEquals("wide", read.getMapName());
+        assertEquals(1, read.getGoldToWin());
+        assertEquals(20, read.getMapWidth());
+        assertEquals(3, read.getMapHeight());
+        assertArrayEquals(written.getMap(), read.getMap());
+        assertArrayEquals(written.getSpawnCells(), read.getSpawnCells());
+        assertEquals(59, read.getSpawnCells().length);
+        assertEquals(41, read.getSpawnCells()[40]);
+    }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void tilesHaveAtMostSixteenKinds() {
+        Map map = wideMap();
+        for (int kind = 0; kind < PackedTiles.MAX_KINDS; kind++) {
+            map.replaceTile(kind, 0, (char) ('a' + kind));
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,42 @@
+/**
+ * The tiles of a map, however they are stored. Map reads and writes
+ * its tiles only through this interface, so the game never knows
+ * whether the whole map is in memory or only the parts of it that
+ * are being played on.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface MapTiles {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return  the tile, or '#' if it is outside the map.
+     */
+    char get(int x, int y);
+
+    /**
+     * Copies part of a row into a buffer. Tiles outside the map are
+     * copied as '#'.
+     *
+     * @param x         x coordinate of the first tile.
+     * @param y         y coordinate of the row.
+     * @param length    the number of tiles.
+     * @param chars     the buffer to copy into.
+     * @param offset    the index to copy the first tile to.
+     */
+    void getRow(int x, int y, int length, char[] chars, int offset);
+
+    /**
+     * Replaces a tile. Tiles outside the map are ignored.
+     *
+     * @param x     x coordinate of the tile.
+     * @param y     y coordinate of the tile.
+     * @param tile  the new tile.
+     */
+    void set(int x, int y, char tile);
+}
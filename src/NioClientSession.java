@@ -0,0 +1,271 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client connected to a non-blocking SocketChannel, owned by a
+ * single NioWorker. Bytes read from the channel are framed into
+ * lines; the first line is the human/bot handshake that creates the
+ * Player, and every line after it is handed to the Player to be
+ * processed. If the handshake asks for the binary protocol, the
+ * bytes after it are framed into frames instead, which are decoded
+ * into a reusable Command. Lines and frames written to the client
+ * are encoded straight into the session's bounded OutboundQueue,
+ * which the worker drains when the channel is writable, so writing
+ * a line allocates nothing once the queue has grown to fit the
+ * traffic, and a client that stops reading never blocks the thread
+ * writing to it.
+ *
+ * @author Jonathan Beaumont
+ */
+public class NioClientSession implements PlayerConnection {
+
+    private static final int MAX_LINE_LENGTH = 4096;
+
+    private SocketChannel channel;
+    private NioWorker worker;
+    private GameLogic game;
+    private int id;
+    private SelectionKey key;
+    private LineFramer framer;
+    private BinaryFramer binaryFramer;
+    private Command command;
+    private OutboundQueue outbound;
+    private char[] scratch;
+    private Player player;
+    private volatile boolean closeRequested;
+    private boolean inputFinished;
+
+    /**
+     * Constructor.
+     *
+     * @param channel   the accepted channel, already non-blocking.
+     * @param worker    the worker whose Selector the channel is
+     *                  registered with.
+     * @param game      the current game object.
+     * @param id        the id to give the player.
+     */
+    public NioClientSession(SocketChannel channel, NioWorker worker, GameLogic game, int id) {
+        this.channel = channel;
+        this.worker = worker;
+        this.game = game;
+        this.id = id;
+        framer = new LineFramer(MAX_LINE_LENGTH);
+        outbound = game.newOutboundQueue();
+        scratch = new char[MAX_LINE_LENGTH];
+    }
+
+    /**
+     * Registers the channel for reading with a Selector. Called by
+     * the worker on its own thread.
+     *
+     * @param selector  the worker's Selector.
+     * @throws ClosedChannelException   if the client has already gone.
+     */
+    public void register(Selector selector) throws ClosedChannelException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Called by the worker when the channel is readable. Reads what
+     * is available into the worker's shared read buffer, then
+     * processes every complete line. If the client has disconnected,
+     * the game is told it has lost its connection.
+     *
+     * @param readBuffer    the worker's read buffer.
+     */
+    public void onReadable(ByteBuffer readBuffer) {
+        int bytesRead;
+        try {
+            readBuffer.clear();
+            bytesRead = channel.read(readBuffer);
+        } catch (IOException e) {
+            bytesRead = -1;
+        }
+        if (bytesRead < 0) {
+            connectionLost();
+            return;
+        }
+        readBuffer.flip();
+        if (binaryFramer != null) {
+            binaryFramer.append(readBuffer);
+        } else {
+            framer.append(readBuffer);
+        }
+
+        String line;
+        while (!inputFinished && binaryFramer == null && (line = framer.nextLine()) != null) {
+            processLine(line);
+        }
+        if (binaryFramer != null) {
+            processFrames();
+        } else if (framer.isOverflowing()) {
+            connectionLost();
+        }
+    }
+
+    /**
+     * Decodes every complete frame and passes it to the player.
+     */
+    private void processFrames() {
+        while (!inputFinished && binaryFramer.nextFrame()) {
+            BinaryProtocol.decodeCommand(binaryFramer.getBuffer(), binaryFramer.getFrameOffset(), binaryFramer.getFrameLength(), command);
+            if (!player.processInput(command)) {
+                inputFinished = true;
+            }
+        }
+        if (binaryFramer.isOverflowing()) {
+            connectionLost();
+        }
+    }
+
+    /**
+     * Called by the worker when the channel is writable. Writes as
+     * much of the queued output as the channel will take, and stops
+     * asking to be told about writability once it is all sent.
+     */
+    public void onWritable() {
+        try {
+            synchronized (this) {
+                if (outbound.isOverflowed()) {
+                    throw new IOException("Client is not reading");
+                } else if (!outbound.writeTo(channel)) {
+                    return;
+                } else if (closeRequested) {
+                    closeChannel();
+                } else if (key.isValid()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            }
+        } catch (IOException e) {
+            // outside the lock, as removing the player writes to other sessions
+            connectionLost();
+        }
+    }
+
+    /**
+     * Called by the worker on its own thread once a write has been
+     * requested, to start listening for writability. If the client
+     * has stopped reading and its outbound queue has overflowed, it
+     * is disconnected instead.
+     */
+    public void enableWriteInterest() {
+        boolean overflowed;
+        synchronized (this) {
+            overflowed = outbound.isOverflowed();
+        }
+        if (overflowed) {
+            connectionLost();
+        } else if (key != null && key.isValid()) {
+            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        }
+    }
+
+    /**
+     * Queues a line to be written to the client by the worker.
+     *
+     * @param message   the line, without a line separator.
+     */
+    public synchronized void writeLine(String message) {
+        if (scratch.length < message.length()) {
+            scratch = new char[message.length()];
+        }
+        message.getChars(0, message.length(), scratch, 0);
+        writeLine(scratch, message.length());
+    }
+
+    /**
+     * Queues a line to be written to the client by the worker,
+     * encoding it straight into the outbound queue. The worker is
+     * only woken if the queue was empty; otherwise a write is
+     * already pending and the line goes out with it.
+     *
+     * @param chars     the buffer holding the line.
+     * @param length    the number of chars in the line.
+     */
+    public synchronized void writeLine(char[] chars, int length) {
+        if (!closeRequested && outbound.offerLine(chars, length)) {
+            worker.requestWrite(this);
+        }
+    }
+
+    /**
+     * Queues encoded bytes, such as a frame, to be written to the
+     * client by the worker, copying them into the outbound queue.
+     *
+     * @param bytes     the buffer holding the bytes.
+     * @param offset    the index of the first byte.
+     * @param length    the number of bytes.
+     */
+    public synchronized void writeBytes(byte[] bytes, int offset, int length) {
+        if (!closeRequested && outbound.offerBytes(bytes, offset, length)) {
+            worker.requestWrite(this);
+        }
+    }
+
+    /**
+     * Closes the channel once the queued output has been written.
+     */
+    public void close() {
+        closeRequested = true;
+        worker.requestWrite(this);
+    }
+
+    public boolean isClosed() {
+        return closeRequested || !channel.isOpen();
+    }
+
+    /**
+     * Closes the channel immediately, dropping any queued output.
+     */
+    public void closeChannel() {
+        closeRequested = true;
+        inputFinished = true;
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Processes a complete line from the client. The first line
+     * creates the player and, if it is a valid handshake, adds them
+     * to the game, and switches to
+     * framing frames if the player speaks the binary protocol; every
+     * other line is passed to the player.
+     *
+     * @param line  the line.
+     */
+    private void processLine(String line) {
+        if (player == null) {
+            player = new Player(this, game, id, line);
+            if (!player.hasValidHandshake() || !game.addPlayer(player)) {
+                inputFinished = true;
+                return;
+            }
+            player.welcome();
+            if (player.isBinary()) {
+                command = new Command();
+                binaryFramer = new BinaryFramer(BinaryProtocol.MAX_FRAME_LENGTH);
+                binaryFramer.append(framer.takeRemaining());
+            }
+        } else if (!player.processInput(line)) {
+            inputFinished = true;
+        }
+    }
+
+    /**
+     * Removes the player from the game, if they were added to it,
+     * and closes the channel.
+     */
+    private void connectionLost() {
+        if (player != null) {
+            game.playerLostConnection(id);
+        }
+        closeChannel();
+    }
+}
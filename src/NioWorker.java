@@ -0,0 +1,159 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One of a small pool of I/O threads, each with its own Selector,
+ * that between them serve every client connected to a
+ * DoDServerNioClientListener. Other threads never touch the Selector
+ * directly; they queue new channels and write requests, then wake
+ * the worker up to deal with them.
+ *
+ * @author Jonathan Beaumont
+ */
+public class NioWorker implements Runnable {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private Selector selector;
+    private GameLogic game;
+    private Queue<NioClientSession> pendingRegistrations;
+    private Queue<NioClientSession> pendingWrites;
+    private ByteBuffer readBuffer;
+    private volatile boolean running;
+
+    /**
+     * Constructor. Opens the worker's Selector.
+     *
+     * @param game  the current game object.
+     * @throws IOException  if the Selector cannot be opened.
+     */
+    public NioWorker(GameLogic game) throws IOException {
+        this.game = game;
+        selector = Selector.open();
+        pendingRegistrations = new ConcurrentLinkedQueue<>();
+        pendingWrites = new ConcurrentLinkedQueue<>();
+        readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+        running = true;
+    }
+
+    /**
+     * Hands a newly accepted client to this worker.
+     *
+     * @param channel   the client's channel.
+     * @param id        the id to give the player.
+     * @throws IOException  if the channel cannot be made non-blocking.
+     */
+    public void addClient(SocketChannel channel, int id) throws IOException {
+        channel.configureBlocking(false);
+        pendingRegistrations.add(new NioClientSession(channel, this, game, id));
+        selector.wakeup();
+    }
+
+    /**
+     * Asks the worker to start writing a session's queued output.
+     * Safe to call from any thread.
+     *
+     * @param session   the session with output to write.
+     */
+    public void requestWrite(NioClientSession session) {
+        pendingWrites.add(session);
+        selector.wakeup();
+    }
+
+    /**
+     * Stops the worker, closing every channel it serves once the
+     * output already queued has had a final chance to be written.
+     */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Executed when it is started in a new Thread. Loops selecting
+     * ready channels and dispatching them to their sessions until
+     * the worker is shut down.
+     */
+    public void run() {
+        while (running) {
+            try {
+                selector.select();
+                registerPendingClients();
+                enablePendingWrites();
+                dispatchSelectedKeys();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        closeAll();
+    }
+
+    /**
+     * Registers the channels handed over since the last select.
+     */
+    private void registerPendingClients() {
+        NioClientSession session;
+        while ((session = pendingRegistrations.poll()) != null) {
+            try {
+                session.register(selector);
+            } catch (ClosedChannelException e) {
+                session.closeChannel();
+            }
+        }
+    }
+
+    /**
+     * Starts listening for writability on the sessions that have
+     * queued output since the last select.
+     */
+    private void enablePendingWrites() {
+        NioClientSession session;
+        while ((session = pendingWrites.poll()) != null) {
+            session.enableWriteInterest();
+        }
+    }
+
+    /**
+     * Passes each ready key to its session.
+     */
+    private void dispatchSelectedKeys() {
+        Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+        while (iterator.hasNext()) {
+            SelectionKey key = iterator.next();
+            iterator.remove();
+            NioClientSession session = (NioClientSession) key.attachment();
+            if (key.isValid() && key.isReadable()) {
+                session.onReadable(readBuffer);
+            }
+            if (key.isValid() && key.isWritable()) {
+                session.onWritable();
+            }
+        }
+    }
+
+    /**
+     * Writes what output it can to each session, then closes them
+     * and the Selector.
+     */
+    private void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            NioClientSession session = (NioClientSession) key.attachment();
+            if (key.isValid()) {
+                session.onWritable();
+            }
+            session.closeChannel();
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Records which player, if any, is on each tile of the map, so that
+ * finding the player on a tile takes constant time instead of a scan
+ * of every player. Players are held directly, rather than by id, so
+ * that looking one up allocates nothing.
+ *
+ * The grid is kept in blocks, one for each RegionLocks region, that
+ * are only allocated while a player is in them, so it takes memory in
+ * proportion to the number of players rather than to the size of the
+ * map, which may be too large to keep in memory.
+ *
+ * Tiles are read and written under the lock of the region they are
+ * in, so the grid needs no locking of its own. It also keeps a
+ * FreeCells index of the spawn tiles nobody is on, if the map has a
+ * list of spawn tiles, so that a free tile can be picked at random.
+ *
+ * @author Jonathan Beaumont
+ */
+public class OccupancyGrid {
+
+    private static final int BLOCK_SIZE = RegionLocks.REGION_SIZE;
+
+    private Player[][] blocks;
+    private byte[] counts;
+    private FreeCells freeCells;
+    private int width;
+    private int height;
+    private int blocksWide;
+
+    /**
+     * Constructor. Creates an empty grid the size of the map.
+     *
+     * @param width     the width of the map.
+     * @param height    the height of the map.
+     */
+    public OccupancyGrid(int width, int height) {
+        this(width, height, null);
+    }
+
+    /**
+     * Constructor. Creates an empty grid the size of the map, with an
+     * index of its free spawn tiles.
+     *
+     * @param width         the width of the map.
+     * @param height        the height of the map.
+     * @param spawnCells    the tiles a player may spawn on, as
+     *                      <code>y * width + x</code>, or null to keep
+     *                      no index.
+     */
+    public OccupancyGrid(int width, int height, int[] spawnCells) {
+        this.width = width;
+        this.height = height;
+        blocksWide = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        blocks = new Player[blocksWide * ((height + BLOCK_SIZE - 1) / BLOCK_SIZE)][];
+        counts = new byte[blocks.length];
+        if (spawnCells != null) {
+            freeCells = new FreeCells(spawnCells, width, height);
+        }
+    }
+
+    /**
+     * @return  whether the grid keeps an index of free spawn tiles.
+     */
+    public boolean hasFreeIndex() {
+        return freeCells != null;
+    }
+
+    /**
+     * Picks a random spawn tile that nobody is on. No lock is taken, so
+     * the caller must still check the tile under its region lock, as a
+     * player may move onto it first.
+     *
+     * @param random    the source of the pick.
+     * @return  the tile, as <code>y * width + x</code>, or
+     *          <code>FreeCells.NONE</code> if there is no index or
+     *          every spawn tile is taken.
+     */
+    public int pickFreeTile(Random random) {
+        return freeCells == null ? FreeCells.NONE : freeCells.pick(random);
+    }
+
+    /**
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return  the player on the tile, or null if the tile is empty
+     *          or outside the map.
+     */
+    public Player getPlayer(int x, int y) {
+        if (!inBounds(x, y)) {
+            return null;
+        }
+        Player[] block = blocks[blockOf(x, y)];
+        return block == null ? null : block[indexInBlock(x, y)];
+    }
+
+    /**
+     * Records a player as being on a tile.
+     *
+     * @param x         x coordinate of the tile.
+     * @param y         y coordinate of the tile.
+     * @param player    the player.
+     */
+    public void occupy(int x, int y, Player player) {
+        if (inBounds(x, y)) {
+            int block = blockOf(x, y);
+            if (blocks[block] == null) {
+                blocks[block] = new Player[BLOCK_SIZE * BLOCK_SIZE];
+            }
+            if (blocks[block][indexInBlock(x, y)] == null) {
+                counts[block]++;
+            }
+            blocks[block][indexInBlock(x, y)] = player;
+            if (freeCells != null) {
+                freeCells.take(y * width + x);
+            }
+        }
+    }
+
+    /**
+     * Records a player as no longer being on a tile, if they were the
+     * one recorded there. The tile's block is dropped once nobody is
+     * in it.
+     *
+     * @param x         x coordinate of the tile.
+     * @param y         y coordinate of the tile.
+     * @param player    the player.
+     */
+    public void vacate(int x, int y, Player player) {
+        if (getPlayer(x, y) == player && player != null) {
+            int block = blockOf(x, y);
+            blocks[block][indexInBlock(x, y)] = null;
+            if (--counts[block] == 0) {
+                blocks[block] = null;
+            }
+            if (freeCells != null) {
+                freeCells.release(y * width + x);
+            }
+        }
+    }
+
+    /**
+     * Records a player as having moved from one tile to another.
+     *
+     * @param fromX     x coordinate of the tile moved from.
+     * @param fromY     y coordinate of the tile moved from.
+     * @param toX       x coordinate of the tile moved to.
+     * @param toY       y coordinate of the tile moved to.
+     * @param player    the player.
+     */
+    public void move(int fromX, int fromY, int toX, int toY, Player player) {
+        vacate(fromX, fromY, player);
+        occupy(toX, toY, player);
+    }
+
+    /**
+     * Empties every tile.
+     */
+    public void clear() {
+        Arrays.fill(blocks, null);
+        Arrays.fill(counts, (byte) 0);
+        if (freeCells != null) {
+            freeCells.clear();
+        }
+    }
+
+    private int blockOf(int x, int y) {
+        return (y / BLOCK_SIZE) * blocksWide + x / BLOCK_SIZE;
+    }
+
+    private static int indexInBlock(int x, int y) {
+        return (y % BLOCK_SIZE) * BLOCK_SIZE + x % BLOCK_SIZE;
+    }
+
+    /**
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return  whether the tile is on the map.
+     */
+    private boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+}
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The bytes waiting to be written to a client. Messages are encoded
+ * straight into the queue by whichever thread sends them, and the
+ * I/O layer drains it on its own thread, so a client that reads
+ * slowly only holds up its own queue. Everything queued before a
+ * drain goes out in a single write.
+ *
+ * The queue holds at most a fixed number of bytes. When a message
+ * does not fit, the queue's OverflowPolicy either drops the message
+ * or marks the queue as overflowed, for the I/O layer to disconnect
+ * the client.
+ *
+ * The queue is not thread safe; its owner guards it with a lock of
+ * its own.
+ *
+ * @author Jonathan Beaumont
+ */
+public class OutboundQueue {
+
+    public static final int DEFAULT_MAX_BYTES = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private ByteBuffer pending;
+    private ByteBuffer taken;
+    private int maxBytes;
+    private OverflowPolicy policy;
+    private boolean overflowed;
+
+    /**
+     * Constructor.
+     *
+     * @param maxBytes  the most bytes the queue will hold.
+     * @param policy    what to do with a message that does not fit.
+     */
+    public OutboundQueue(int maxBytes, OverflowPolicy policy) {
+        this.maxBytes = maxBytes;
+        this.policy = policy;
+        pending = ByteBuffer.allocate(Math.min(INITIAL_CAPACITY, maxBytes));
+    }
+
+    /**
+     * Encodes a line into the queue, followed by a line separator. A
+     * line fits if the most bytes it could take once encoded fit.
+     *
+     * @param chars     the buffer holding the line.
+     * @param length    the number of chars in the line.
+     * @return  whether the queue's drainer needs to be woken, because
+     *          the line is the first in the queue or the queue has
+     *          just overflowed.
+     */
+    public boolean offerLine(char[] chars, int length) {
+        int maxLength = LineEncoder.maxEncodedLength(length);
+        if (!fits(maxLength)) {
+            return overflow();
+        }
+        boolean first = pending.position() == 0;
+        ensureCapacity(maxLength);
+        int end = LineEncoder.encodeLine(chars, length, pending.array(), pending.arrayOffset() + pending.position());
+        pending.position(end - pending.arrayOffset());
+        return first;
+    }
+
+    /**
+     * Copies bytes that are already encoded, such as a frame, into
+     * the queue.
+     *
+     * @param bytes     the buffer holding the bytes.
+     * @param offset    the index of the first byte.
+     * @param length    the number of bytes.
+     * @return  whether the queue's drainer needs to be woken, as for
+     *          <code>offerLine()</code>.
+     */
+    public boolean offerBytes(byte[] bytes, int offset, int length) {
+        if (!fits(length)) {
+            return overflow();
+        }
+        boolean first = pending.position() == 0;
+        ensureCapacity(length);
+        pending.put(bytes, offset, length);
+        return first;
+    }
+
+    /**
+     * @return  whether nothing is waiting to be written.
+     */
+    public boolean isEmpty() {
+        return pending.position() == 0;
+    }
+
+    /**
+     * @return  whether a message did not fit and the policy is to
+     *          disconnect the client.
+     */
+    public boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Writes as much of the queue as a non-blocking channel will take.
+     *
+     * @param channel   the channel.
+     * @return  whether the queue is now empty.
+     * @throws IOException  if the write fails.
+     */
+    public boolean writeTo(WritableByteChannel channel) throws IOException {
+        pending.flip();
+        try {
+            channel.write(pending);
+        } finally {
+            pending.compact();
+        }
+        return pending.position() == 0;
+    }
+
+    /**
+     * Takes everything in the queue, so that it can be written to a
+     * blocking stream without holding the owner's lock. The queue
+     * swaps between two buffers, so the one returned is not reused
+     * until the next call.
+     *
+     * @return  the bytes taken, ready to be read.
+     */
+    public ByteBuffer take() {
+        ByteBuffer full = pending;
+        pending = taken == null ? ByteBuffer.allocate(Math.min(INITIAL_CAPACITY, maxBytes)) : taken;
+        pending.clear();
+        taken = full;
+        full.flip();
+        return full;
+    }
+
+    /**
+     * Drops everything in the queue.
+     */
+    public void clear() {
+        pending.clear();
+    }
+
+    /**
+     * @param length    a number of bytes.
+     * @return  whether that many more bytes fit in the queue.
+     */
+    private boolean fits(int length) {
+        return pending.position() + length <= maxBytes;
+    }
+
+    /**
+     * Applies the policy to a message that does not fit.
+     *
+     * @return  whether the drainer needs to be woken to disconnect the
+     *          client.
+     */
+    private boolean overflow() {
+        if (policy == OverflowPolicy.DROP || overflowed) {
+            return false;
+        }
+        overflowed = true;
+        return true;
+    }
+
+    /**
+     * Grows the pending buffer, if needed, to fit more bytes, up to
+     * the queue's limit.
+     *
+     * @param bytes the number of bytes to make space for.
+     */
+    private void ensureCapacity(int bytes) {
+        if (pending.remaining() < bytes) {
+            int capacity = Math.min(maxBytes, Math.max(pending.capacity() * 2, pending.position() + bytes));
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+    }
+}
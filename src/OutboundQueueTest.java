@@ -0,0 +1,46 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tests that an OutboundQueue coalesces what is queued between drains
+ * and applies its policy when it is full.
+ *
+ * @author Jonathan Beaumont
+ */
+public class OutboundQueueTest {
+
+    @Test
+    public void coalescesUntilTaken() {
+        OutboundQueue queue = new OutboundQueue(1024, OverflowPolicy.DROP);
+        assertTrue(queue.offerLine("SUCCESS".toCharArray(), 7));
+        assertFalse(queue.offerLine("GOLD: 3".toCharArray(), 7));
+        assertFalse(queue.offerBytes(new byte[] {1, 2, 3}, 1, 1));
+        ByteBuffer taken = queue.take();
+        assertEquals("SUCCESS\nGOLD: 3\n\u0002", StandardCharsets.UTF_8.decode(taken).toString());
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.offerLine("FAIL".toCharArray(), 4));
+    }
+
+    @Test
+    public void dropsWhatDoesNotFit() {
+        OutboundQueue queue = new OutboundQueue(16, OverflowPolicy.DROP);
+        assertTrue(queue.offerBytes(new byte[10], 0, 10));
+        assertFalse(queue.offerBytes(new byte[10], 0, 10));
+        assertFalse(queue.isOverflowed());
+        assertEquals(10, queue.take().remaining());
+    }
+
+    @Test
+    public void overflowsOnceToDisconnect() {
+        OutboundQueue queue = new OutboundQueue(16, OverflowPolicy.DISCONNECT);
+        queue.offerBytes(new byte[10], 0, 10);
+        assertTrue(queue.offerBytes(new byte[10], 0, 10));
+        assertTrue(queue.isOverflowed());
+        assertFalse(queue.offerBytes(new byte[10], 0, 10));
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * What a session does when its client stops reading and its bounded
+ * outbound queue fills up, selected by the server's
+ * "overflow=drop" or "overflow=disconnect" option.
+ *
+ * @author Jonathan Beaumont
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Drops each message that does not fit, keeping the client in
+     * the game, so it misses messages until it catches up.
+     */
+    DROP,
+
+    /**
+     * Disconnects the client, which is removed from the game as if
+     * its connection had failed.
+     */
+    DISCONNECT;
+
+    /**
+     * @param argument  an overflow policy argument, such as "drop".
+     * @return  the matching policy, or null if there is none.
+     */
+    public static OverflowPolicy fromArgument(String argument) {
+        for (OverflowPolicy policy : values()) {
+            if (policy.name().equalsIgnoreCase(argument)) {
+                return policy;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,281 @@
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The tiles of a map, packed 4 bits to a tile and 16 tiles to a long,
+ * so that a map takes half a byte a tile instead of the 2 bytes of a
+ * char, and a 10,000 x 10,000 map fits in 50 MB. Each row starts on a
+ * long of its own.
+ *
+ * A tile is stored as its code in a palette of at most 16 kinds of
+ * tile, which starts with the walls, floor, gold and exits every map
+ * has, and takes any other kind the first time it is stored.
+ *
+ * A long holds tiles from more than one region of the map, so a tile
+ * is replaced by compare-and-set, and two players changing tiles in
+ * neighbouring regions at once cannot lose either change.
+ *
+ * @author Jonathan Beaumont
+ */
+public class PackedTiles implements MapTiles {
+
+    public static final int MAX_KINDS = 16;
+
+    private static final String COMMON_TILES = "#.GE";
+    private static final int BITS_PER_TILE = 4;
+    private static final int TILES_PER_WORD = Long.SIZE / BITS_PER_TILE;
+    private static final int WORD_SHIFT = 4;
+    private static final int TILE_MASK = (1 << BITS_PER_TILE) - 1;
+
+    private AtomicLongArray words;
+    private int width;
+    private int height;
+    private int wordsPerRow;
+    private char[] palette;
+    private byte[] asciiCodes;
+    private volatile int kinds;
+
+    /**
+     * Constructor. Every tile starts as a wall.
+     *
+     * @param width     the width of the map.
+     * @param height    the height of the map.
+     */
+    public PackedTiles(int width, int height) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + TILES_PER_WORD - 1) / TILES_PER_WORD;
+        words = new AtomicLongArray(wordsPerRow * height);
+        palette = new char[MAX_KINDS];
+        asciiCodes = new byte[128];
+        Arrays.fill(asciiCodes, (byte) -1);
+        for (int code = 0; code < COMMON_TILES.length(); code++) {
+            palette[code] = COMMON_TILES.charAt(code);
+            asciiCodes[palette[code]] = (byte) code;
+        }
+        kinds = COMMON_TILES.length();
+    }
+
+    /**
+     * Packs the tiles of a map.
+     *
+     * @param tiles the tiles, indexed by row then column.
+     * @return  the packed tiles.
+     * @throws IllegalArgumentException if the map has more than 16
+     *                                  kinds of tile.
+     */
+    public static PackedTiles pack(char[][] tiles) {
+        PackedTiles packed = new PackedTiles(tiles[0].length, tiles.length);
+        for (int y = 0; y < tiles.length; y++) {
+            packed.setRow(y, tiles[y]);
+        }
+        return packed;
+    }
+
+    /**
+     * Reads tiles written by <code>writeTo()</code>, copying the packed
+     * longs straight into place without unpacking them.
+     *
+     * @param in        the buffer to read from.
+     * @param width     the width of the map.
+     * @param height    the height of the map.
+     * @return  the packed tiles.
+     * @throws IllegalArgumentException if the palette is not valid.
+     */
+    public static PackedTiles readFrom(ByteBuffer in, int width, int height) {
+        PackedTiles packed = new PackedTiles(width, height);
+        int kinds = in.get();
+        if (kinds < COMMON_TILES.length() || kinds > MAX_KINDS) {
+            throw new IllegalArgumentException("Not a palette of tiles: " + kinds + " kinds");
+        }
+        for (int code = 0; code < MAX_KINDS; code++) {
+            char tile = in.getChar();
+            if (code < kinds && packed.code(tile, packed.kinds) != code) {
+                throw new IllegalArgumentException("Not a palette of tiles: " + tile + " at " + code);
+            }
+        }
+        LongBuffer words = in.asLongBuffer();
+        for (int index = 0; index < packed.words.length(); index++) {
+            packed.words.lazySet(index, words.get(index));
+        }
+        in.position(in.position() + packed.words.length() * Long.BYTES);
+        return packed;
+    }
+
+    /**
+     * @return  the number of bytes <code>writeTo()</code> writes.
+     */
+    public int packedSize() {
+        return 1 + MAX_KINDS * Character.BYTES + words.length() * Long.BYTES;
+    }
+
+    /**
+     * Writes the palette, then the packed longs as they are held.
+     *
+     * @param out   the buffer to write to.
+     */
+    public void writeTo(ByteBuffer out) {
+        int known = kinds;
+        out.put((byte) known);
+        for (int code = 0; code < MAX_KINDS; code++) {
+            out.putChar(code < known ? palette[code] : 0);
+        }
+        for (int index = 0; index < words.length(); index++) {
+            out.putLong(words.get(index));
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param x x coordinate of the tile.
+     * @param y y coordinate of the tile.
+     * @return  the tile, or '#' if it is outside the map.
+     */
+    public char get(int x, int y) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return '#';
+        }
+        long word = words.get(y * wordsPerRow + (x >>> WORD_SHIFT));
+        return palette[(int) (word >>> shift(x)) & TILE_MASK];
+    }
+
+    /**
+     * Copies part of a row into a buffer. Up to 16 tiles at a time
+     * are gathered into a single long, from the one or two longs that
+     * hold them, and shifted out of it in turn. Tiles outside the map
+     * are copied as '#'.
+     *
+     * @param x         x coordinate of the first tile.
+     * @param y         y coordinate of the row.
+     * @param length    the number of tiles.
+     * @param chars     the buffer to copy into.
+     * @param offset    the index to copy the first tile to.
+     */
+    public void getRow(int x, int y, int length, char[] chars, int offset) {
+        if (y < 0 || y >= height) {
+            Arrays.fill(chars, offset, offset + length, '#');
+            return;
+        }
+        int end = x + length;
+        int column = x;
+        while (column < 0 && column < end) {
+            chars[offset++] = '#';
+            column++;
+        }
+        int inside = Math.min(end, width);
+        while (column < inside) {
+            int index = y * wordsPerRow + (column >>> WORD_SHIFT);
+            int shift = shift(column);
+            int count = Math.min(TILES_PER_WORD, inside - column);
+            long tiles = words.get(index) >>> shift;
+            if (shift + count * BITS_PER_TILE > Long.SIZE) {
+                tiles |= words.get(index + 1) << (Long.SIZE - shift);
+            }
+            for (int i = 0; i < count; i++) {
+                chars[offset++] = palette[(int) tiles & TILE_MASK];
+                tiles >>>= BITS_PER_TILE;
+            }
+            column += count;
+        }
+        while (column < end) {
+            chars[offset++] = '#';
+            column++;
+        }
+    }
+
+    /**
+     * Replaces a tile. Tiles outside the map are ignored.
+     *
+     * @param x     x coordinate of the tile.
+     * @param y     y coordinate of the tile.
+     * @param tile  the new tile.
+     * @throws IllegalArgumentException if the tile would be a 17th
+     *                                  kind of tile.
+     */
+    public void set(int x, int y, char tile) {
+        if (x < 0 || y < 0 || x >= width || y >= height) {
+            return;
+        }
+        long code = code(tile, kinds);
+        int index = y * wordsPerRow + (x >>> WORD_SHIFT);
+        int shift = shift(x);
+        long word;
+        do {
+            word = words.get(index);
+        } while (!words.compareAndSet(index, word, (word & ~((long) TILE_MASK << shift)) | code << shift));
+    }
+
+    /**
+     * Replaces a whole row, as a map is loaded.
+     *
+     * @param y     y coordinate of the row.
+     * @param row   the tiles of the row, at least the width of the map.
+     * @throws IllegalArgumentException if a tile would be a 17th kind
+     *                                  of tile.
+     */
+    public void setRow(int y, char[] row) {
+        int rowStart = y * wordsPerRow;
+        for (int wordIndex = 0; wordIndex < wordsPerRow; wordIndex++) {
+            long word = 0;
+            int first = wordIndex * TILES_PER_WORD;
+            int known = kinds;
+            for (int column = Math.min(first + TILES_PER_WORD, width) - 1; column >= first; column--) {
+                word = word << BITS_PER_TILE | code(row[column], known);
+            }
+            words.lazySet(rowStart + wordIndex, word);
+        }
+    }
+
+    private static int shift(int column) {
+        return (column & (TILES_PER_WORD - 1)) * BITS_PER_TILE;
+    }
+
+    /**
+     * Finds a tile's code, first in a table of the codes of ASCII
+     * tiles, then in the palette. A code is only taken from the table
+     * if it is below the number of kinds of tile the caller has read,
+     * so the palette entry it names is certain to be visible.
+     *
+     * @param tile  a tile.
+     * @param known the number of kinds of tile, read by the caller.
+     * @return  the tile's code, adding it to the palette if it is a
+     *          new kind of tile.
+     * @throws IllegalArgumentException if the palette is full.
+     */
+    private int code(char tile, int known) {
+        int ascii = tile < asciiCodes.length ? asciiCodes[tile] : -1;
+        if (ascii >= 0 && ascii < known) {
+            return ascii;
+        }
+        for (int code = 0; code < known; code++) {
+            if (palette[code] == tile) {
+                return code;
+            }
+        }
+        synchronized (this) {
+            for (int code = 0; code < kinds; code++) {
+                if (palette[code] == tile) {
+                    return code;
+                }
+            }
+            if (kinds == MAX_KINDS) {
+                throw new IllegalArgumentException("More than " + MAX_KINDS + " kinds of tile: " + tile);
+            }
+            palette[kinds] = tile;
+            if (tile < asciiCodes.length) {
+                asciiCodes[tile] = (byte) kinds;
+            }
+            kinds++;
+            return kinds - 1;
+        }
+    }
+}
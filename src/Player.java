@@ -10,34 +10,55 @@ import java.net.SocketException;
  */
 public class Player implements Runnable {
 
-    private Socket socket;
+	private PlayerConnection connection;
 	private BufferedReader in;
-	private BufferedWriter out;
+	private InputStream frameIn;
+	private byte[] frameBuffer;
+	private boolean binary;
+	private Command input = new Command();
 	private GameLogic game;
 	private boolean isHuman;
-	private String username;
+	private boolean validHandshake;
+	private volatile String username;
 	private int id;
     private int collectedGold;
-    private int x;
-    private int y;
-    private boolean gameLost = false;
+    private int walkGoal = RoutePlanner.NONE;
+    private volatile int x;
+    private volatile int y;
+    private volatile boolean gameLost = false;
+    private char[] lookWindow = new char[Map.LOOK_WINDOW_LENGTH];
+    private static final char[] LOOK_DIFF = "LOOK DIFF".toCharArray();
+    private final Object lookPushLock = new Object();
+    private volatile boolean subscribedToLook = false;
+    private char[] pushedWindow;
+    private char[] pushWindow;
+    private char[] lookDiff;
+    private byte[] lookFrame;
+    private byte[] replyBuffer;
 
     /**
-     * Constructor. Instantiates a BufferedReader and BufferedWriter
-     * to communicate to the client via.
+     * Constructor. Reads the handshake from the client, then
+     * instantiates a BufferedReader, or a buffered stream of frames
+     * for a binary client, and a connection to communicate to the
+     * client via.
      * @param socket    the socket connected to the client.
      * @param game      the GameLogic instance.
      * @param id        the id of the player.
      */
 	public Player(Socket socket, GameLogic game, int id){
-	    this.socket = socket;
 		this.id = id;
 		this.username = "PLAYER_" + id;
 		this.game = game;
 		try {
-			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-			out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            determineTypeOfPlayer();
+			connection = new SocketPlayerConnection(socket, game.newOutboundQueue(), game.getPlayerThreads());
+			String typeOfPlayer = BinaryProtocol.readLine(socket.getInputStream());
+            determineTypeOfPlayer(typeOfPlayer == null ? "" : typeOfPlayer);
+            if (binary) {
+                frameIn = new BufferedInputStream(socket.getInputStream());
+                frameBuffer = new byte[BinaryProtocol.MAX_LOOK_FRAME_LENGTH];
+            } else {
+                in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            }
 		}
 		catch (IOException e) {
 			e.printStackTrace();
@@ -46,22 +67,53 @@ public class Player implements Runnable {
 	}
 
     /**
-     * Determines whether the type of player is human or bot. If
-     * neither, then the API is not being adhered to and an invalid
-     * connection message is sent and the socket it exited.
-     * @throws IOException
+     * Constructor for a player whose input is read by someone else,
+     * such as a non-blocking I/O thread, which then passes each line
+     * to <code>processInput()</code>. The player does not need a
+     * Thread of its own.
+     *
+     * @param connection    the connection to the client.
+     * @param game          the GameLogic instance.
+     * @param id            the id of the player.
+     * @param typeOfPlayer  the first line sent by the client.
+     */
+    public Player(PlayerConnection connection, GameLogic game, int id, String typeOfPlayer) {
+        this.connection = connection;
+        this.id = id;
+        this.username = "PLAYER_" + id;
+        this.game = game;
+        determineTypeOfPlayer(typeOfPlayer);
+    }
+
+    /**
+     * Determines whether the type of player is human or bot, and
+     * whether they speak the binary protocol. If neither, then the
+     * API is not being adhered to and an invalid connection message
+     * is sent and the socket it exited.
+     *
+     * @param typeOfPlayer  the first line sent by the client.
      */
-	private void determineTypeOfPlayer() throws IOException {
-        String typeOfPlayer = in.readLine();
+	private void determineTypeOfPlayer(String typeOfPlayer) {
+        boolean binaryHandshake = BinaryProtocol.isBinaryHandshake(typeOfPlayer);
+        if (binaryHandshake) {
+            typeOfPlayer = typeOfPlayer.substring(0, typeOfPlayer.length() - " binary".length());
+        }
         switch(typeOfPlayer) {
             case "human":
                 isHuman = true;
+                validHandshake = true;
                 break;
             case "bot":
                 isHuman = false;
+                validHandshake = true;
                 break;
             default:
                 exit("INVALID CONNECTION");
+                return;
+        }
+        if (binaryHandshake) {
+            binary = true;
+            lookFrame = new byte[BinaryProtocol.MAX_LOOK_FRAME_LENGTH];
         }
     }
 
@@ -74,21 +126,248 @@ public class Player implements Runnable {
      */
 	public void run() {
         System.out.println("Player Thread Running : (" + id + ")");
-        writeToClient("Welcome to DOD");
-        String input = readLineFromClient();
-        String result;
-        while (!gameLost && input != null) {
-            result = game.processCommand(input, id);
-            if (result.equals("GAME LOST")) {
-                gameLost = true;
-            } else {
-                writeToClient(result);
-                input = readLineFromClient();
+        welcome();
+        if (binary) {
+            while (readFrameFromClient() && processInput(input)) {
+            }
+        } else {
+            String line = readLineFromClient();
+            while (line != null && processInput(line)) {
+                line = readLineFromClient();
             }
         }
         System.out.println("Player Thread Stopped : (" + id + ")");
 	}
 
+    /**
+     * Welcomes the player to the game. The welcome is always a text
+     * line, as it answers the handshake.
+     */
+    public void welcome() {
+        try {
+            if (!connection.isClosed()) {
+                connection.writeLine("Welcome to DOD");
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Passes a line of input from the client to GameLogic. If the game
+     * is run by a GameSimulation, the input is queued for its next
+     * tick; otherwise it is executed straight away.
+     *
+     * @param line  the line of input from the client.
+     * @return  whether more input should be read from the client.
+     */
+    public boolean processInput(String line) {
+        return processInput(input.parse(line));
+    }
+
+    /**
+     * Passes a command from the client to GameLogic, as
+     * <code>processInput(String)</code> does. The command is copied if
+     * it is queued, so the caller may reuse it.
+     *
+     * @param command   the command.
+     * @return  whether more input should be read from the client.
+     */
+    public boolean processInput(Command command) {
+        if (gameLost) {
+            return false;
+        } else if (game.isSimulated()) {
+            game.queueCommand(this, new Command(command));
+            return true;
+        }
+        return executeCommand(command);
+    }
+
+    /**
+     * Passes a command to GameLogic to process and writes the result
+     * back to the client, unless the result is the game lost message.
+     * LOOK is written straight from the player's own look window
+     * buffer, and USERNAMES straight from the game's roster. If the client tagged the command with a sequence
+     * number, the reply is tagged with it too.
+     *
+     * @param command   the command.
+     * @return  whether the player is still in the game.
+     */
+    public boolean executeCommand(Command command) {
+        if (gameLost) {
+            return false;
+        } else if (command.getType() == CommandType.LOOK && game.look(this, lookWindow)) {
+            writeLookWindow(lookWindow, command.getSequence());
+            return true;
+        } else if (command.getType() == CommandType.USERNAMES && game.writeUsernames(this, command.getSequence())) {
+            return true;
+        }
+        String result = game.processCommand(command, id);
+        if (result.equals("GAME LOST")) {
+            gameLost = true;
+            return false;
+        }
+        writeReply(command.getSequence(), result);
+        return true;
+    }
+
+    /**
+     * Writes a whole LOOK window to the client, as a line for each
+     * row, or packed into a frame for a binary client.
+     *
+     * @param window    the window.
+     * @param sequence  the sequence number to tag it with, or
+     *                  <code>Command.NO_SEQUENCE</code>.
+     */
+    private void writeLookWindow(char[] window, int sequence) {
+        if (binary) {
+            int length = BinaryProtocol.encodeLookWindow(window, lookFrame);
+            if (sequence == Command.NO_SEQUENCE) {
+                writeToClient(lookFrame, length);
+            } else {
+                byte[] reply = BinaryProtocol.encodeReply(sequence, lookFrame, length);
+                writeToClient(reply, reply.length);
+            }
+        } else if (sequence == Command.NO_SEQUENCE) {
+            writeToClient(window, window.length);
+        } else {
+            writeToClient(Command.tagReply(sequence, new String(window)));
+        }
+    }
+
+    /**
+     * Writes the reply to a command to the client, tagged with the
+     * command's sequence number, if it has one: every line of it for
+     * a text client, or the whole frame in a REPLY frame for a binary
+     * client.
+     *
+     * @param sequence  the sequence number, or
+     *                  <code>Command.NO_SEQUENCE</code>.
+     * @param reply     the reply.
+     */
+    private void writeReply(int sequence, String reply) {
+        if (sequence == Command.NO_SEQUENCE) {
+            writeToClient(reply);
+        } else if (binary) {
+            byte[] frame = BinaryProtocol.encodeMessage(reply);
+            byte[] tagged = BinaryProtocol.encodeReply(sequence, frame, frame.length);
+            writeToClient(tagged, tagged.length);
+        } else {
+            writeToClient(Command.tagReply(sequence, reply));
+        }
+    }
+
+    /**
+     * Subscribes the player to LOOK updates, sending them their whole
+     * window, which later updates are compared against.
+     *
+     * @return  whether the player was not already subscribed.
+     */
+    public boolean startLookPush() {
+        synchronized (lookPushLock) {
+            boolean firstSubscription = !subscribedToLook;
+            if (firstSubscription) {
+                pushedWindow = new char[Map.LOOK_WINDOW_LENGTH];
+                pushWindow = new char[Map.LOOK_WINDOW_LENGTH];
+                lookDiff = new char[LOOK_DIFF.length + 4 * Map.LOOK_RADIUS * Map.LOOK_RADIUS];
+                subscribedToLook = true;
+            }
+            if (game.look(this, pushedWindow)) {
+                writeLookWindow(pushedWindow, Command.NO_SEQUENCE);
+            }
+            return firstSubscription;
+        }
+    }
+
+    /**
+     * Sends the player the cells of their window that have changed
+     * since it was last sent to them, as a line of the form
+     * <code>LOOK DIFF 12H 22.</code>, where each cell is its row, its
+     * column and its new tile. If the whole window is shorter, which
+     * it is after the player moves, the whole window is sent instead.
+     * Nothing is sent if nothing changed. A binary client is sent a
+     * LOOK_DIFF frame instead, on the same terms.
+     */
+    public void pushLook() {
+        synchronized (lookPushLock) {
+            if (!subscribedToLook || !game.look(this, pushWindow)) {
+                return;
+            } else if (binary) {
+                pushLookFrame();
+                return;
+            }
+            System.arraycopy(LOOK_DIFF, 0, lookDiff, 0, LOOK_DIFF.length);
+            int length = LOOK_DIFF.length;
+            for (int i = 0; i < pushWindow.length; i++) {
+                if (pushWindow[i] != pushedWindow[i]) {
+                    lookDiff[length++] = ' ';
+                    lookDiff[length++] = (char) ('0' + i / (Map.LOOK_RADIUS + 1));
+                    lookDiff[length++] = (char) ('0' + i % (Map.LOOK_RADIUS + 1));
+                    lookDiff[length++] = pushWindow[i];
+                }
+            }
+            if (length == LOOK_DIFF.length) {
+                return;
+            } else if (length < pushWindow.length) {
+                writeToClient(lookDiff, length);
+            } else {
+                writeToClient(pushWindow, pushWindow.length);
+            }
+            System.arraycopy(pushWindow, 0, pushedWindow, 0, pushWindow.length);
+        }
+    }
+
+    /**
+     * Sends a binary client the cells of their window that have
+     * changed, or the whole window if that is shorter. Called with
+     * the look push lock held.
+     */
+    private void pushLookFrame() {
+        int length = BinaryProtocol.encodeLookDiff(pushWindow, pushedWindow, lookFrame);
+        if (length == 0) {
+            return;
+        } else if (length <= 2 + BinaryProtocol.PACKED_LOOK_LENGTH) {
+            writeToClient(lookFrame, length);
+        } else {
+            writeLookWindow(pushWindow, Command.NO_SEQUENCE);
+        }
+        System.arraycopy(pushWindow, 0, pushedWindow, 0, pushWindow.length);
+    }
+
+    /**
+     * @return  whether the player has subscribed to LOOK updates.
+     */
+    public boolean isSubscribedToLook() {
+        return subscribedToLook;
+    }
+
+    /**
+     * @return  whether the player reads its own input, and so needs
+     *          to be run in a Thread of its own.
+     */
+    public boolean readsOwnInput() {
+        return in != null || frameIn != null;
+    }
+
+    /**
+     * @param length    the number of bytes needed.
+     * @return  a buffer of at least that many bytes to assemble a
+     *          reply in, reused by every reply to this player.
+     */
+    public byte[] getReplyBuffer(int length) {
+        if (replyBuffer == null || replyBuffer.length < length) {
+            replyBuffer = new byte[Math.max(length, replyBuffer == null ? 256 : replyBuffer.length * 2)];
+        }
+        return replyBuffer;
+    }
+
+    /**
+     * @return  whether the player speaks the binary protocol.
+     */
+    public boolean isBinary() {
+        return binary;
+    }
+
     /**
      * Reads a line of input from the client. If there is a socket
      * exception, meaning that the socket has been disconnected, the
@@ -110,17 +389,45 @@ public class Player implements Runnable {
     }
 
     /**
-     * Writes a message to a client via their socket if the socket
-     * hasn't been close.
+     * Reads a frame from a binary client and decodes it into the
+     * player's reusable command. A frame that is not a valid command
+     * leaves it invalid, which GameLogic answers with FAIL. If the
+     * stream is broken, the player is removed from the game as with
+     * a socket exception.
+     *
+     * @return  whether a frame was read.
+     */
+    private boolean readFrameFromClient() {
+        try {
+            BinaryProtocol.FrameReader frame = BinaryProtocol.readFrame(frameIn, frameBuffer);
+            if (frame == null) {
+                return false;
+            }
+            frameBuffer = frame.getBytes();
+            BinaryProtocol.decodeCommand(frameBuffer, 0, frame.getEnd(), input);
+            return true;
+        } catch (IOException e) {
+            game.playerLostConnection(id);
+            return false;
+        }
+    }
+
+    /**
+     * Writes a message to a client via their connection if the
+     * connection hasn't been closed. A binary client is sent the
+     * message as a frame.
      *
      * @param message   the message.
      */
 	public void writeToClient(String message) {
 	    try {
-	        if (!socket.isClosed()) {
-                out.write(message);
-                out.newLine();
-                out.flush();
+	        if (connection.isClosed()) {
+	            return;
+            } else if (binary) {
+	            byte[] frame = BinaryProtocol.encodeMessage(message);
+                connection.writeBytes(frame, 0, frame.length);
+            } else {
+                connection.writeLine(message);
             }
         } catch (SocketException e) {
 	        //System.out.println("Player unexpectedly disconnected : (" + id + ")");
@@ -129,6 +436,65 @@ public class Player implements Runnable {
         }
     }
 
+    /**
+     * Writes a line to a client from a buffer that will be reused, if
+     * their connection hasn't been closed.
+     *
+     * @param chars     the buffer holding the line.
+     * @param length    the number of chars in the line.
+     */
+    public void writeToClient(char[] chars, int length) {
+        try {
+            if (!connection.isClosed()) {
+                connection.writeLine(chars, length);
+            }
+        } catch (SocketException e) {
+            //System.out.println("Player unexpectedly disconnected : (" + id + ")");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a broadcast to a client, in whichever protocol they
+     * speak, if their connection hasn't been closed. The bytes are
+     * copied from the broadcast, not encoded again.
+     *
+     * @param broadcast the broadcast.
+     */
+    public void writeToClient(Broadcast broadcast) {
+        byte[] bytes = binary ? broadcast.getFrame() : broadcast.getLine();
+        try {
+            if (!connection.isClosed()) {
+                connection.writeBytes(bytes, 0, bytes.length);
+            }
+        } catch (SocketException e) {
+            //System.out.println("Player unexpectedly disconnected : (" + id + ")");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes bytes already encoded for the client, a frame for a
+     * binary client or a line for anyone else, from a buffer that will
+     * be reused, if their connection hasn't been closed.
+     *
+     * @param bytes     the buffer holding the frame or line.
+     * @param length    the number of bytes to write.
+     */
+    public void writeToClient(byte[] bytes, int length) {
+        try {
+            if (!connection.isClosed()) {
+                connection.writeBytes(bytes, 0, length);
+            }
+        } catch (SocketException e) {
+            //System.out.println("Player unexpectedly disconnected : (" + id + ")");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     /**
      * Sends an exit message to the player along with an optional
      * goodbye message.
@@ -141,7 +507,7 @@ public class Player implements Runnable {
 	    //if (message != null)
 	    //    writeToClient(message);
 	    try {
-            socket.close();
+            connection.close();
         } catch(IOException e) {
 	        e.printStackTrace();
         }
@@ -203,6 +569,31 @@ public class Player implements Runnable {
         collectedGold++;
     }
 
+    /**
+     * @return  the tile the player last chose to WALK to, as
+     *          <code>y * width + x</code>, or RoutePlanner.NONE.
+     */
+    public int getWalkGoal() {
+        return walkGoal;
+    }
+
+    /**
+     * @param walkGoal  the tile the player is walking to, as
+     *                  <code>y * width + x</code>, or RoutePlanner.NONE.
+     */
+    public void setWalkGoal(int walkGoal) {
+        this.walkGoal = walkGoal;
+    }
+
+    /**
+     * @return  whether the client's handshake named a type of player;
+     *          if not, they have already been sent away and must not
+     *          be added to the game.
+     */
+    public boolean hasValidHandshake() {
+        return validHandshake;
+    }
+
     /**
      * @return if the player is human.
      */
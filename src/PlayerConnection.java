@@ -0,0 +1,56 @@
+import java.io.IOException;
+
+/**
+ * The connection a Player uses to write to its client, independent
+ * of whether the client is on a blocking Socket or a non-blocking
+ * channel.
+ *
+ * @author Jonathan Beaumont
+ */
+public interface PlayerConnection {
+
+    /**
+     * Writes a line to the client.
+     *
+     * @param message   the line, without a line separator.
+     * @throws IOException  if the line could not be written.
+     */
+    void writeLine(String message) throws IOException;
+
+    /**
+     * Writes a line to the client from a buffer that the caller will
+     * reuse, without allocating.
+     *
+     * @param chars     the buffer holding the line, without a line
+     *                  separator.
+     * @param length    the number of chars in the line.
+     * @throws IOException  if the line could not be written.
+     */
+    void writeLine(char[] chars, int length) throws IOException;
+
+    /**
+     * Writes bytes already encoded in the client's protocol to the
+     * client: a frame of the binary protocol, or a line of the text
+     * protocol with its line separator. The bytes are copied or
+     * written before returning, so the caller may reuse the buffer.
+     *
+     * @param bytes     the buffer holding the bytes.
+     * @param offset    the index of the first byte.
+     * @param length    the number of bytes.
+     * @throws IOException  if the bytes could not be written.
+     */
+    void writeBytes(byte[] bytes, int offset, int length) throws IOException;
+
+    /**
+     * Closes the connection once anything already written has been
+     * sent.
+     *
+     * @throws IOException  if there is a problem closing it.
+     */
+    void close() throws IOException;
+
+    /**
+     * @return  whether the connection has been closed.
+     */
+    boolean isClosed();
+}
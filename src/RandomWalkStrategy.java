@@ -0,0 +1,18 @@
+import java.util.Random;
+
+/**
+ * Moves a bot in a random direction every step, as BotPlayer does.
+ *
+ * @author Jonathan Beaumont
+ */
+public class RandomWalkStrategy implements BotStrategy {
+
+    private static final char[] DIRECTIONS = {'N', 'S', 'E', 'W'};
+
+    public void startStep(GameLogic game) {
+    }
+
+    public Command nextCommand(Player bot, Command command, Random random) {
+        return command.set(CommandType.MOVE, DIRECTIONS[random.nextInt(DIRECTIONS.length)], null, null);
+    }
+}
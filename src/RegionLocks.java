@@ -0,0 +1,211 @@
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Splits the map into square regions, each guarded by its own
+ * read/write lock, so that players in different parts of the map
+ * never wait for each other. Commands that change a region (moves,
+ * pickups, spawns and removals) take its write lock; LOOK takes the
+ * read locks of every region its window covers, so it sees a
+ * consistent snapshot without blocking other LOOKs.
+ *
+ * To avoid deadlock, the regions a command needs are always locked
+ * together and in ascending order.
+ *
+ * A region's lock is only created the first time it is needed, so
+ * that a map too large to keep in memory does not need a lock for
+ * every region, only for those that have been played in.
+ *
+ * @author Jonathan Beaumont
+ */
+public class RegionLocks {
+
+    public static final int REGION_SIZE = 8;
+
+    private AtomicReferenceArray<ReentrantReadWriteLock> locks;
+    private final ReentrantReadWriteLock unplayedLock = new ReentrantReadWriteLock();
+    private int regionsWide;
+    private int regionsHigh;
+
+    /**
+     * Constructor. Creates a lock for every region of the map.
+     *
+     * @param mapWidth  the width of the map.
+     * @param mapHeight the height of the map.
+     */
+    public RegionLocks(int mapWidth, int mapHeight) {
+        regionsWide = (mapWidth + REGION_SIZE - 1) / REGION_SIZE;
+        regionsHigh = (mapHeight + REGION_SIZE - 1) / REGION_SIZE;
+        locks = new AtomicReferenceArray<>(regionsWide * regionsHigh);
+    }
+
+    /**
+     * Finds the regions covering a rectangle of tiles. Coordinates
+     * outside the map are clamped to its edge.
+     *
+     * @param minX  the left of the rectangle.
+     * @param minY  the top of the rectangle.
+     * @param maxX  the right of the rectangle.
+     * @param maxY  the bottom of the rectangle.
+     * @return  the indexes of the regions, in ascending order.
+     */
+    public int[] regionsCovering(int minX, int minY, int maxX, int maxY) {
+        int left = clamp(minX / REGION_SIZE, regionsWide, minX);
+        int right = clamp(maxX / REGION_SIZE, regionsWide, maxX);
+        int top = clamp(minY / REGION_SIZE, regionsHigh, minY);
+        int bottom = clamp(maxY / REGION_SIZE, regionsHigh, maxY);
+
+        int[] regions = new int[(right - left + 1) * (bottom - top + 1)];
+        int i = 0;
+        for (int regionY = top; regionY <= bottom; regionY++) {
+            for (int regionX = left; regionX <= right; regionX++) {
+                regions[i++] = regionY * regionsWide + regionX;
+            }
+        }
+        return regions;
+    }
+
+    /**
+     * Takes the write lock of every region, in ascending order. The
+     * regions that have no lock yet are given one shared lock, taken
+     * once beforehand, instead of a lock each, and keep it from then on.
+     */
+    public void writeLockAll() {
+        unplayedLock.writeLock().lock();
+        for (int region = 0; region < locks.length(); region++) {
+            if (!locks.compareAndSet(region, null, unplayedLock) && locks.get(region) != unplayedLock) {
+                locks.get(region).writeLock().lock();
+            }
+        }
+    }
+
+    /**
+     * Releases the write locks taken by <code>writeLockAll()</code>.
+     */
+    public void writeUnlockAll() {
+        for (int region = locks.length() - 1; region >= 0; region--) {
+            if (locks.get(region) != unplayedLock) {
+                locks.get(region).writeLock().unlock();
+            }
+        }
+        unplayedLock.writeLock().unlock();
+    }
+
+    /**
+     * Takes the read locks of the regions.
+     *
+     * @param regions   region indexes in ascending order.
+     */
+    public void readLock(int[] regions) {
+        for (int region : regions) {
+            lock(region).readLock().lock();
+        }
+    }
+
+    /**
+     * Releases the read locks of the regions.
+     *
+     * @param regions   region indexes.
+     */
+    public void readUnlock(int[] regions) {
+        for (int i = regions.length - 1; i >= 0; i--) {
+            lock(regions[i]).readLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the write locks of the regions.
+     *
+     * @param regions   region indexes in ascending order.
+     */
+    public void writeLock(int[] regions) {
+        for (int region : regions) {
+            lock(region).writeLock().lock();
+        }
+    }
+
+    /**
+     * Releases the write locks of the regions.
+     *
+     * @param regions   region indexes.
+     */
+    public void writeUnlock(int[] regions) {
+        for (int i = regions.length - 1; i >= 0; i--) {
+            lock(regions[i]).writeLock().unlock();
+        }
+    }
+
+    /**
+     * Takes the read locks of the regions covering a rectangle of
+     * tiles, without allocating. Coordinates outside the map are
+     * clamped to its edge.
+     *
+     * @param minX  the left of the rectangle.
+     * @param minY  the top of the rectangle.
+     * @param maxX  the right of the rectangle.
+     * @param maxY  the bottom of the rectangle.
+     */
+    public void readLock(int minX, int minY, int maxX, int maxY) {
+        int left = clamp(minX / REGION_SIZE, regionsWide, minX);
+        int right = clamp(maxX / REGION_SIZE, regionsWide, maxX);
+        int top = clamp(minY / REGION_SIZE, regionsHigh, minY);
+        int bottom = clamp(maxY / REGION_SIZE, regionsHigh, maxY);
+        for (int regionY = top; regionY <= bottom; regionY++) {
+            for (int regionX = left; regionX <= right; regionX++) {
+                lock(regionY * regionsWide + regionX).readLock().lock();
+            }
+        }
+    }
+
+    /**
+     * Releases the read locks taken by
+     * <code>readLock(minX, minY, maxX, maxY)</code>.
+     *
+     * @param minX  the left of the rectangle.
+     * @param minY  the top of the rectangle.
+     * @param maxX  the right of the rectangle.
+     * @param maxY  the bottom of the rectangle.
+     */
+    public void readUnlock(int minX, int minY, int maxX, int maxY) {
+        int left = clamp(minX / REGION_SIZE, regionsWide, minX);
+        int right = clamp(maxX / REGION_SIZE, regionsWide, maxX);
+        int top = clamp(minY / REGION_SIZE, regionsHigh, minY);
+        int bottom = clamp(maxY / REGION_SIZE, regionsHigh, maxY);
+        for (int regionY = bottom; regionY >= top; regionY--) {
+            for (int regionX = right; regionX >= left; regionX--) {
+                lock(regionY * regionsWide + regionX).readLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * @param region    the index of the region.
+     * @return  the region's lock, created if this is the first time
+     *          it is needed.
+     */
+    private ReentrantReadWriteLock lock(int region) {
+        ReentrantReadWriteLock lock = locks.get(region);
+        if (lock == null) {
+            lock = new ReentrantReadWriteLock();
+            if (!locks.compareAndSet(region, null, lock)) {
+                lock = locks.get(region);
+            }
+        }
+        return lock;
+    }
+
+    /**
+     * Clamps a region coordinate to the regions of the map.
+     *
+     * @param region    the region coordinate.
+     * @param regions   the number of regions along that axis.
+     * @param tile      the tile coordinate it was calculated from.
+     * @return  the clamped region coordinate.
+     */
+    private int clamp(int region, int regions, int tile) {
+        if (tile < 0) {
+            return 0;
+        }
+        return Math.min(region, regions - 1);
+    }
+}
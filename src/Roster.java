@@ -0,0 +1,413 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The humans in a game, kept as the encoded body of the reply to
+ * USERNAMES, an <code>id-username</code> entry and a tab for each
+ * human, in the order they joined. The body is updated in place when
+ * a human joins, leaves or is renamed. A reply is copied straight out
+ * of it, around the entry of the player who asked, in either protocol,
+ * instead of every human's entry being built and encoded again for
+ * every reply.
+ *
+ * A player who sends <code>USERNAMES PUSH</code> is sent the whole
+ * list once, and then a line for every change:
+ * <pre>
+ * USERNAMES JOINED: 12-alice
+ * USERNAMES LEFT: 12-alice
+ * USERNAMES RENAMED: 12-alice bob
+ * </pre>
+ * The list and the changes are queued under the roster's lock, with
+ * the players who were subscribed at that moment, and written after
+ * it is released, in the order they were queued, so a player never
+ * sees a change the list already held, nor misses one, and no lock is
+ * held while writing to them.
+ *
+ * An entry is found by walking the humans, which is linear in their
+ * number, as is moving the entries after it; both are array scans
+ * and copies, far cheaper than the rebuilding they replace.
+ *
+ * @author Jonathan Beaumont
+ */
+public class Roster {
+
+    private static final Player[] NO_PLAYERS = new Player[0];
+    private static final byte[] OTHER_PLAYER = " OTHER PLAYER".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ACTIVE = " ACTIVE:\t".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * The most bytes that can come before the text of a reply: a tag,
+     * or a frame's length, REPLY tag and TEXT length, as varints.
+     */
+    private static final int MAX_PREFIX_LENGTH = 17;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private byte[] body;
+    private int length;
+    private Player[] humans;
+    private int[] starts;
+    private int count;
+    private volatile Player[] subscribers;
+    private ConcurrentLinkedQueue<Push> pushes;
+    private AtomicBoolean pushing;
+
+    public Roster() {
+        body = new byte[256];
+        humans = new Player[16];
+        starts = new int[16];
+        subscribers = NO_PLAYERS;
+        pushes = new ConcurrentLinkedQueue<>();
+        pushing = new AtomicBoolean();
+    }
+
+    /**
+     * Adds a human at the end of the list.
+     *
+     * @param human the human who joined.
+     */
+    public void add(Player human) {
+        lock.writeLock().lock();
+        try {
+            if (count == humans.length) {
+                humans = Arrays.copyOf(humans, count * 2);
+                starts = Arrays.copyOf(starts, count * 2);
+            }
+            String entry = entry(human, human.getUsername());
+            humans[count] = human;
+            starts[count] = length;
+            count++;
+            replace(length, length, entry + "\t");
+            queue(human, "USERNAMES JOINED: " + entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        push();
+    }
+
+    /**
+     * Removes a human from the list, and from the players who are sent
+     * changes. Removing a human who is not in the list does nothing.
+     *
+     * @param human the human who left.
+     */
+    public void remove(Player human) {
+        lock.writeLock().lock();
+        try {
+            unsubscribe(human);
+            int index = indexOf(human);
+            if (index < 0) {
+                return;
+            }
+            String entry = entryAt(index);
+            replace(starts[index], end(index), "");
+            System.arraycopy(humans, index + 1, humans, index, count - index - 1);
+            System.arraycopy(starts, index + 1, starts, index, count - index - 1);
+            humans[--count] = null;
+            queue(human, "USERNAMES LEFT: " + entry);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        push();
+    }
+
+    /**
+     * Changes the username in a human's entry. Renaming a human who is
+     * not in the list does nothing.
+     *
+     * @param human     the human being renamed.
+     * @param username  their new username.
+     */
+    public void rename(Player human, String username) {
+        lock.writeLock().lock();
+        try {
+            int index = indexOf(human);
+            if (index < 0) {
+                return;
+            }
+            String entry = entryAt(index);
+            replace(starts[index], end(index), entry(human, username) + "\t");
+            queue(human, "USERNAMES RENAMED: " + entry + " " + username);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        push();
+    }
+
+    /**
+     * @param player    the player asking, who is left out of the list.
+     * @return  the reply to USERNAMES.
+     */
+    public String list(Player player) {
+        lock.readLock().lock();
+        try {
+            int index = indexOf(player);
+            byte[] reply = new byte[listLength(index)];
+            copyList(index, reply, 0);
+            return new String(reply, StandardCharsets.UTF_8);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the reply to USERNAMES to a player, in the protocol they
+     * speak, without building it as a String. The line or frame's
+     * header is written into the player's reply buffer, followed by
+     * the parts of the encoded list before and after their own entry,
+     * and the buffer is written to them in one go, once the roster's
+     * lock has been released, so that nothing written to them by
+     * another Thread can come between the parts.
+     *
+     * @param player    the player asking, who is left out of the list.
+     * @param sequence  the sequence number to tag the reply with, or
+     *                  <code>Command.NO_SEQUENCE</code>.
+     */
+    public void writeList(Player player, int sequence) {
+        byte[] reply;
+        int offset = 0;
+        lock.readLock().lock();
+        try {
+            int index = indexOf(player);
+            int textLength = listLength(index);
+            reply = player.getReplyBuffer(MAX_PREFIX_LENGTH + textLength + 1);
+            if (player.isBinary()) {
+                int bodyLength = 1 + BinaryProtocol.varintLength(textLength) + textLength;
+                if (sequence != Command.NO_SEQUENCE) {
+                    bodyLength += 1 + BinaryProtocol.varintLength(sequence);
+                }
+                offset = BinaryProtocol.writeVarint(bodyLength, reply, offset);
+                if (sequence != Command.NO_SEQUENCE) {
+                    reply[offset++] = (byte) BinaryProtocol.REPLY;
+                    offset = BinaryProtocol.writeVarint(sequence, reply, offset);
+                }
+                reply[offset++] = (byte) BinaryProtocol.TEXT;
+                offset = BinaryProtocol.writeVarint(textLength, reply, offset);
+                offset = copyList(index, reply, offset);
+            } else {
+                if (sequence != Command.NO_SEQUENCE) {
+                    reply[offset++] = '#';
+                    offset = writeNumber(sequence, reply, offset);
+                    reply[offset++] = ' ';
+                }
+                offset = copyList(index, reply, offset);
+                reply[offset++] = '\n';
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        player.writeToClient(reply, offset);
+    }
+
+    /**
+     * Sends a player the whole list, and from then on every change to
+     * it, other than those about themselves.
+     *
+     * @param player    the player.
+     */
+    public void subscribe(Player player) {
+        lock.writeLock().lock();
+        try {
+            if (indexOfSubscriber(player) < 0) {
+                Player[] newSubscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+                newSubscribers[subscribers.length] = player;
+                subscribers = newSubscribers;
+            }
+            pushes.add(new Push(new Broadcast(list(player)), new Player[] {player}, null));
+        } finally {
+            lock.writeLock().unlock();
+        }
+        push();
+    }
+
+    /**
+     * Forgets every human and every player who is sent changes.
+     */
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            Arrays.fill(humans, 0, count, null);
+            count = 0;
+            length = 0;
+            subscribers = NO_PLAYERS;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static String entry(Player human, String username) {
+        return human.getPlayerId() + "-" + username;
+    }
+
+    /**
+     * @return  the entry of the human at an index, without its tab.
+     */
+    private String entryAt(int index) {
+        return new String(body, starts[index], end(index) - starts[index] - 1, StandardCharsets.UTF_8);
+    }
+
+    private int indexOf(Player human) {
+        for (int i = 0; i < count; i++) {
+            if (humans[i] == human) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int end(int index) {
+        return index + 1 < count ? starts[index + 1] : length;
+    }
+
+    /**
+     * @param index the index of the player asking, or -1 if they are
+     *              not in the list.
+     * @return  the length of the text of the reply to USERNAMES.
+     */
+    private int listLength(int index) {
+        int others = index < 0 ? count : count - 1;
+        int headerLength = digits(others) + OTHER_PLAYER.length + (others == 1 ? 0 : 1) + ACTIVE.length;
+        return headerLength + length - (index < 0 ? 0 : end(index) - starts[index]);
+    }
+
+    /**
+     * Copies the text of the reply to USERNAMES into a buffer: the
+     * header, then the list without the entry of the player asking.
+     *
+     * @param index the index of the player asking, or -1 if they are
+     *              not in the list.
+     * @return  the index after the text.
+     */
+    private int copyList(int index, byte[] reply, int offset) {
+        int others = index < 0 ? count : count - 1;
+        offset = writeNumber(others, reply, offset);
+        System.arraycopy(OTHER_PLAYER, 0, reply, offset, OTHER_PLAYER.length);
+        offset += OTHER_PLAYER.length;
+        if (others != 1) {
+            reply[offset++] = 'S';
+        }
+        System.arraycopy(ACTIVE, 0, reply, offset, ACTIVE.length);
+        offset += ACTIVE.length;
+        int skipStart = index < 0 ? length : starts[index];
+        int skipEnd = index < 0 ? length : end(index);
+        System.arraycopy(body, 0, reply, offset, skipStart);
+        offset += skipStart;
+        System.arraycopy(body, skipEnd, reply, offset, length - skipEnd);
+        return offset + length - skipEnd;
+    }
+
+    private static int digits(int number) {
+        int digits = 1;
+        for (int rest = number / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        return digits;
+    }
+
+    /**
+     * Writes a number in decimal ASCII digits.
+     *
+     * @return  the index after the number.
+     */
+    private static int writeNumber(int number, byte[] bytes, int offset) {
+        int end = offset + digits(number);
+        for (int i = end - 1; i >= offset; i--) {
+            bytes[i] = (byte) ('0' + number % 10);
+            number /= 10;
+        }
+        return end;
+    }
+
+    /**
+     * Replaces part of the body, moving everything after it, and the
+     * starts of the entries after it.
+     */
+    private void replace(int start, int end, String text) {
+        byte[] encoded = text.getBytes(StandardCharsets.UTF_8);
+        int shift = encoded.length - (end - start);
+        if (length + shift > body.length) {
+            body = Arrays.copyOf(body, Math.max(body.length * 2, length + shift));
+        }
+        System.arraycopy(body, end, body, end + shift, length - end);
+        System.arraycopy(encoded, 0, body, start, encoded.length);
+        length += shift;
+        for (int i = 0; i < count; i++) {
+            if (starts[i] > start) {
+                starts[i] += shift;
+            }
+        }
+    }
+
+    private int indexOfSubscriber(Player player) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i] == player) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void unsubscribe(Player player) {
+        int index = indexOfSubscriber(player);
+        if (index >= 0) {
+            Player[] newSubscribers = new Player[subscribers.length - 1];
+            System.arraycopy(subscribers, 0, newSubscribers, 0, index);
+            System.arraycopy(subscribers, index + 1, newSubscribers, index, newSubscribers.length - index);
+            subscribers = newSubscribers;
+        }
+    }
+
+    /**
+     * Queues a change for every subscriber other than the human it is
+     * about, encoded once for all of them. Must be called under the
+     * write lock, so changes are queued in the order they are made.
+     */
+    private void queue(Player about, String line) {
+        if (subscribers.length > 0) {
+            pushes.add(new Push(new Broadcast(line), subscribers, about));
+        }
+    }
+
+    /**
+     * Writes every queued push, in order, unless another Thread is
+     * already writing them, in which case it writes these too.
+     */
+    private void push() {
+        while (!pushes.isEmpty() && pushing.compareAndSet(false, true)) {
+            try {
+                Push push;
+                while ((push = pushes.poll()) != null) {
+                    push.write();
+                }
+            } finally {
+                pushing.set(false);
+            }
+        }
+    }
+
+    /**
+     * A line waiting to be written to the players who were subscribed
+     * when it was queued.
+     */
+    private static class Push {
+
+        private Broadcast broadcast;
+        private Player[] recipients;
+        private Player about;
+
+        private Push(Broadcast broadcast, Player[] recipients, Player about) {
+            this.broadcast = broadcast;
+            this.recipients = recipients;
+            this.about = about;
+        }
+
+        private void write() {
+            for (Player recipient : recipients) {
+                if (recipient != about) {
+                    recipient.writeToClient(broadcast);
+                }
+            }
+        }
+    }
+}
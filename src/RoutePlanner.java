@@ -0,0 +1,418 @@
+import java.util.Arrays;
+
+/**
+ * Finds the way between two tiles of a map with an A* search, and
+ * remembers it, so that players walking to the same gold or exit do
+ * not search the map again for every move.
+ *
+ * A route is remembered as the move to make from each tile on it,
+ * keyed by that tile and the goal, so a player anywhere along a route
+ * that has been found finds the rest of the way without a search. A
+ * search from anywhere else stops as soon as it reaches a tile on a
+ * known route to the same goal, and follows it from there, so players
+ * spread over a large map heading for the same few goals only search
+ * as far as the nearest route someone else has found. The routes are
+ * held in one open addressing hash table of longs and ints, which
+ * takes about 24 bytes a tile, and is emptied once it holds as many
+ * tiles as it may, or a tile becomes or stops being a wall, which is
+ * the only change to a map that can change its routes.
+ *
+ * The search weighs the moves still to come half as much again as
+ * the moves made. On maps with scattered walls, a search that weighs
+ * them evenly tries almost every tile that is as near to the goal as
+ * the best route so far before taking a detour, hundreds of thousands
+ * of tiles for a route across a 2000 x 2000 map, whereas a weighted
+ * search tries not many more tiles than are on the route. Routes
+ * across such a map come out a few percent longer than the shortest.
+ * A search gives up after <code>MAX_EXPANDED</code> tiles, so a goal
+ * that is walled off costs a bounded search, which is remembered too.
+ *
+ * Costs are kept, like FlowField's distances, in blocks of 16 x 16
+ * tiles that are only allocated once a search reaches them. Every
+ * method that searches or reads the routes is synchronized, so a
+ * planner can be shared by every player in a game.
+ *
+ * @author Jonathan Beaumont
+ */
+public class RoutePlanner {
+
+    public static final int NONE = -1;
+    public static final int DEFAULT_CACHE_SIZE = 1 << 21;
+    public static final int MAX_EXPANDED = 1 << 20;
+    public static final int MAX_TARGET_DISTANCE = 64;
+
+    private static final char[] DIRECTIONS = {'N', 'E', 'S', 'W'};
+    private static final int[] DX = {0, 1, 0, -1};
+    private static final int[] DY = {-1, 0, 1, 0};
+    private static final byte NO_MOVE = -1;
+
+    /**
+     * A tile's step is the move to make from it plus one, so that an
+     * unknown step is 0.
+     */
+    private static final int UNKNOWN = 0;
+    private static final int UNREACHABLE = -1;
+    private static final long EMPTY = -1;
+    private static final int MIN_TABLE_SIZE = 1 << 10;
+
+    private static final int BLOCK_SHIFT = 4;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    private static final int BLOCK_MASK = BLOCK_SIZE - 1;
+
+    private Map map;
+    private int width;
+    private int height;
+    private int blocksWide;
+    private int[][] costs;
+    private byte[][] moves;
+    private int[] blockSearches;
+    private int search;
+    private long[] heapKeys;
+    private int[] heapCells;
+    private int heapSize;
+    private long[] stepKeys;
+    private int[] steps;
+    private int stepCount;
+    private int cacheSize;
+    private int wallVersion;
+    private int searches;
+
+    /**
+     * Constructor.
+     *
+     * @param map       the map to find routes on.
+     * @param cacheSize the most tiles of routes to remember.
+     */
+    public RoutePlanner(Map map, int cacheSize) {
+        this.map = map;
+        this.cacheSize = cacheSize;
+        width = map.getMapWidth();
+        height = map.getMapHeight();
+        blocksWide = (width + BLOCK_MASK) >>> BLOCK_SHIFT;
+        int blocksHigh = (height + BLOCK_MASK) >>> BLOCK_SHIFT;
+        costs = new int[blocksWide * blocksHigh][];
+        moves = new byte[costs.length][];
+        blockSearches = new int[costs.length];
+        heapKeys = new long[256];
+        heapCells = new int[256];
+        stepKeys = new long[MIN_TABLE_SIZE];
+        Arrays.fill(stepKeys, EMPTY);
+        steps = new int[MIN_TABLE_SIZE];
+        wallVersion = map.getWallVersion();
+    }
+
+    /**
+     * Finds the first move of the way from one tile to another, from
+     * the known routes if it can.
+     *
+     * @param fromX x coordinate of the tile to start from.
+     * @param fromY y coordinate of the tile to start from.
+     * @param toX   x coordinate of the goal.
+     * @param toY   y coordinate of the goal.
+     * @return  'N', 'E', 'S' or 'W', or 0 if the tiles are the same or
+     *          there is no way between them.
+     */
+    public synchronized char getDirection(int fromX, int fromY, int toX, int toY) {
+        if (!contains(fromX, fromY) || !contains(toX, toY) || (fromX == toX && fromY == toY)) {
+            return 0;
+        }
+        int version = map.getWallVersion();
+        if (version != wallVersion) {
+            clearSteps();
+            wallVersion = version;
+        }
+        int start = fromY * width + fromX;
+        int goal = toY * width + toX;
+        int step = getStep(start, goal);
+        if (step == UNKNOWN) {
+            int end = findRoute(start, goal);
+            if (end == NONE) {
+                step = UNREACHABLE;
+                putStep(start, goal, step);
+            } else {
+                step = remember(start, end, goal);
+            }
+        }
+        return step == UNREACHABLE ? 0 : DIRECTIONS[step - 1];
+    }
+
+    /**
+     * Finds the nearest tile of a kind, looking in squares of growing
+     * size around a tile, up to <code>MAX_TARGET_DISTANCE</code> tiles
+     * away in each direction. Nearest is as the crow flies, not along
+     * a route, so that no search is needed to pick a goal.
+     *
+     * @param x     x coordinate of the tile to look around.
+     * @param y     y coordinate of the tile to look around.
+     * @param tile  the kind of tile, e.g. 'G' or 'E'.
+     * @return  the tile, as <code>y * width + x</code>, or NONE if there
+     *          is none close enough.
+     */
+    public int findNearest(int x, int y, char tile) {
+        for (int distance = 0; distance <= MAX_TARGET_DISTANCE; distance++) {
+            int best = NONE;
+            int bestLength = Integer.MAX_VALUE;
+            for (int dy = -distance; dy <= distance; dy++) {
+                int step = dy == -distance || dy == distance ? 1 : 2 * distance;
+                for (int dx = -distance; dx <= distance; dx += step) {
+                    int length = Math.abs(dx) + Math.abs(dy);
+                    if (length < bestLength && contains(x + dx, y + dy) && map.getTile(x + dx, y + dy) == tile) {
+                        best = (y + dy) * width + x + dx;
+                        bestLength = length;
+                    }
+                }
+            }
+            if (best != NONE) {
+                return best;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @return  the number of A* searches made, for tests of the cache.
+     */
+    public synchronized int getSearchCount() {
+        return searches;
+    }
+
+    /**
+     * Searches from one tile to another, moving to neighbouring tiles
+     * that are not walls, until it takes the goal or a tile on a known
+     * route to it from the heap. The estimate of the moves still to
+     * come from a tile is the number of moves if there were no walls.
+     * Of the tiles with the same estimated total, the nearest to the
+     * goal is expanded first.
+     *
+     * @return  the tile at which the search reached the goal or a known
+     *          route to it, or NONE if there is no way to the goal.
+     */
+    private int findRoute(int start, int goal) {
+        searches++;
+        search++;
+        heapSize = 0;
+        int fromX = start % width;
+        int fromY = start / width;
+        setCost(fromX, fromY, 0, NO_MOVE);
+        int estimate = estimate(start, goal);
+        push(start, 3 * estimate, estimate);
+        int expanded = 0;
+        while (heapSize > 0) {
+            long key = heapKeys[0];
+            int cell = pop();
+            int x = cell % width;
+            int y = cell / width;
+            int cost = getCost(x, y);
+            int remaining = estimate(cell, goal);
+            if ((int) (key >>> 32) != 2 * cost + 3 * remaining) {
+                continue;
+            }
+            if (cell == goal || getStep(cell, goal) != UNKNOWN) {
+                return cell;
+            }
+            if (++expanded > MAX_EXPANDED) {
+                return NONE;
+            }
+            for (int direction = 0; direction < DIRECTIONS.length; direction++) {
+                int nextX = x + DX[direction];
+                int nextY = y + DY[direction];
+                int next = nextY * width + nextX;
+                if (contains(nextX, nextY) && getCost(nextX, nextY) > cost + 1 && map.getTile(nextX, nextY) != '#'
+                        && getStep(next, goal) != UNREACHABLE) {
+                    setCost(nextX, nextY, cost + 1, (byte) direction);
+                    int nextRemaining = estimate(next, goal);
+                    push(next, 2 * (cost + 1) + 3 * nextRemaining, nextRemaining);
+                }
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * Walks back from the tile at which the last search ended to the
+     * tile it started from, remembering the step from every tile on
+     * the way.
+     *
+     * @return  the step from the start.
+     */
+    private int remember(int start, int end, int goal) {
+        int cell = end;
+        int step = UNKNOWN;
+        while (cell != start) {
+            int x = cell % width;
+            int y = cell / width;
+            byte move = getMove(x, y);
+            cell = (y - DY[move]) * width + x - DX[move];
+            step = move + 1;
+            putStep(cell, goal, step);
+        }
+        return step;
+    }
+
+    private int estimate(int cell, int goal) {
+        return Math.abs(goal % width - cell % width) + Math.abs(goal / width - cell / width);
+    }
+
+    private int getStep(int cell, int goal) {
+        long key = (long) cell << 32 | goal;
+        int mask = stepKeys.length - 1;
+        for (int index = hash(key) & mask; stepKeys[index] != EMPTY; index = (index + 1) & mask) {
+            if (stepKeys[index] == key) {
+                return steps[index];
+            }
+        }
+        return UNKNOWN;
+    }
+
+    /**
+     * Remembers the step from a tile to a goal, first growing the table
+     * if it is half full, or emptying it if it already holds as many
+     * tiles as it may.
+     */
+    private void putStep(int cell, int goal, int step) {
+        if (2 * (stepCount + 1) > stepKeys.length) {
+            if (stepCount >= cacheSize) {
+                clearSteps();
+            } else {
+                resize(stepKeys.length * 2);
+            }
+        }
+        long key = (long) cell << 32 | goal;
+        int mask = stepKeys.length - 1;
+        int index = hash(key) & mask;
+        while (stepKeys[index] != EMPTY && stepKeys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        if (stepKeys[index] == EMPTY) {
+            stepKeys[index] = key;
+            stepCount++;
+        }
+        steps[index] = step;
+    }
+
+    private void resize(int length) {
+        long[] oldKeys = stepKeys;
+        int[] oldSteps = steps;
+        stepKeys = new long[length];
+        Arrays.fill(stepKeys, EMPTY);
+        steps = new int[length];
+        int mask = length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int index = hash(oldKeys[i]) & mask;
+                while (stepKeys[index] != EMPTY) {
+                    index = (index + 1) & mask;
+                }
+                stepKeys[index] = oldKeys[i];
+                steps[index] = oldSteps[i];
+            }
+        }
+    }
+
+    private void clearSteps() {
+        if (stepKeys.length > MIN_TABLE_SIZE) {
+            stepKeys = new long[MIN_TABLE_SIZE];
+            steps = new int[MIN_TABLE_SIZE];
+        }
+        Arrays.fill(stepKeys, EMPTY);
+        stepCount = 0;
+    }
+
+    private static int hash(long key) {
+        long mixed = key * 0x9E3779B97F4A7C15L;
+        return (int) (mixed >>> 32);
+    }
+
+    private boolean contains(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    private int getCost(int x, int y) {
+        int block = (y >>> BLOCK_SHIFT) * blocksWide + (x >>> BLOCK_SHIFT);
+        if (blockSearches[block] != search) {
+            return Integer.MAX_VALUE;
+        }
+        return costs[block][(y & BLOCK_MASK) << BLOCK_SHIFT | (x & BLOCK_MASK)];
+    }
+
+    private byte getMove(int x, int y) {
+        int block = (y >>> BLOCK_SHIFT) * blocksWide + (x >>> BLOCK_SHIFT);
+        return moves[block][(y & BLOCK_MASK) << BLOCK_SHIFT | (x & BLOCK_MASK)];
+    }
+
+    /**
+     * Records the cost of reaching a tile and the move that reached
+     * it, allocating or resetting its block if this search has not
+     * written to it yet.
+     */
+    private void setCost(int x, int y, int cost, byte move) {
+        int block = (y >>> BLOCK_SHIFT) * blocksWide + (x >>> BLOCK_SHIFT);
+        if (blockSearches[block] != search) {
+            if (costs[block] == null) {
+                costs[block] = new int[BLOCK_SIZE * BLOCK_SIZE];
+                moves[block] = new byte[BLOCK_SIZE * BLOCK_SIZE];
+            }
+            Arrays.fill(costs[block], Integer.MAX_VALUE);
+            blockSearches[block] = search;
+        }
+        int index = (y & BLOCK_MASK) << BLOCK_SHIFT | (x & BLOCK_MASK);
+        costs[block][index] = cost;
+        moves[block][index] = move;
+    }
+
+    /**
+     * Adds a tile to the binary heap of tiles to expand, ordered by
+     * weighted total, then by estimate of the moves still to come. A
+     * tile whose cost is lowered is added again, and the stale entry
+     * is skipped when it comes out.
+     */
+    private void push(int cell, int total, int remaining) {
+        if (heapSize == heapKeys.length) {
+            heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            heapCells = Arrays.copyOf(heapCells, heapSize * 2);
+        }
+        long key = (long) total << 32 | remaining;
+        int index = heapSize++;
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (heapKeys[parent] <= key) {
+                break;
+            }
+            heapKeys[index] = heapKeys[parent];
+            heapCells[index] = heapCells[parent];
+            index = parent;
+        }
+        heapKeys[index] = key;
+        heapCells[index] = cell;
+    }
+
+    /**
+     * Removes the first tile from the heap.
+     *
+     * @return  the tile, as <code>y * width + x</code>.
+     */
+    private int pop() {
+        int cell = heapCells[0];
+        long key = heapKeys[--heapSize];
+        int last = heapCells[heapSize];
+        int index = 0;
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= heapSize) {
+                break;
+            }
+            if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                child++;
+            }
+            if (key <= heapKeys[child]) {
+                break;
+            }
+            heapKeys[index] = heapKeys[child];
+            heapCells[index] = heapCells[child];
+            index = child;
+        }
+        heapKeys[index] = key;
+        heapCells[index] = last;
+        return cell;
+    }
+}
@@ -0,0 +1,75 @@
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
+/**
+ * Tests that RoutePlanner finds the shortest way around walls, and
+ * only searches again once a wall has changed.
+ *
+ * @author Jonathan Beaumont
+ */
+public class RoutePlannerTest {
+
+    private static Map zigzag() {
+        char[][] tiles = {
+                "..........".toCharArray(),
+                "#########.".toCharArray(),
+                "..........".toCharArray(),
+                ".#########".toCharArray(),
+                "....G.....".toCharArray()};
+        return new Map("zigzag", 1, tiles);
+    }
+
+    /**
+     * Follows the planner from a tile to the goal.
+     *
+     * @return  the number of moves taken, or -1 if it got lost.
+     */
+    private static int walk(RoutePlanner planner, int x, int y, int toX, int toY) {
+        int moves = 0;
+        while (x != toX || y != toY) {
+            char direction = planner.getDirection(x, y, toX, toY);
+            if (direction == 0 || moves > 100) {
+                return -1;
+            }
+            x += direction == 'E' ? 1 : direction == 'W' ? -1 : 0;
+            y += direction == 'S' ? 1 : direction == 'N' ? -1 : 0;
+            moves++;
+        }
+        return moves;
+    }
+
+    @Test
+    public void followsTheShortestWayWithOneSearch() {
+        RoutePlanner planner = new RoutePlanner(zigzag(), RoutePlanner.DEFAULT_CACHE_SIZE);
+        assertEquals(9 + 2 + 9 + 2 + 4, walk(planner, 0, 0, 4, 4));
+        assertEquals(1, planner.getSearchCount());
+        assertEquals(5 + 2 + 4, walk(planner, 5, 2, 4, 4));
+        assertEquals(1, planner.getSearchCount());
+        assertEquals(5, walk(planner, 9, 4, 4, 4));
+        assertEquals(2, planner.getSearchCount());
+        assertEquals(0, planner.getDirection(0, 0, 0, 1));
+        assertEquals(3, planner.getSearchCount());
+    }
+
+    @Test
+    public void searchesAgainWhenAWallChanges() {
+        Map map = zigzag();
+        RoutePlanner planner = new RoutePlanner(map, RoutePlanner.DEFAULT_CACHE_SIZE);
+        assertEquals(26, walk(planner, 0, 0, 4, 4));
+        map.replaceTile(4, 0, 'G');
+        assertEquals(26, walk(planner, 0, 0, 4, 4));
+        assertEquals(1, planner.getSearchCount());
+        map.replaceTile(0, 1, '.');
+        map.replaceTile(0, 3, '#');
+        map.replaceTile(1, 3, '.');
+        assertEquals(2 + 1 + 2 + 3, walk(planner, 0, 0, 4, 4));
+        assertEquals(2, planner.getSearchCount());
+    }
+
+    @Test
+    public void findsTheNearestTileOfAKind() {
+        RoutePlanner planner = new RoutePlanner(zigzag(), RoutePlanner.DEFAULT_CACHE_SIZE);
+        assertEquals(4 * 10 + 4, planner.findNearest(0, 0, 'G'));
+        assertEquals(RoutePlanner.NONE, planner.findNearest(0, 0, 'E'));
+    }
+}
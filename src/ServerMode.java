@@ -0,0 +1,102 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The ways in which the server can serve its clients, selected by
+ * the optional second argument given to the server after the port.
+ *
+ * @author Jonathan Beaumont
+ */
+public enum ServerMode {
+
+    /**
+     * A blocking Socket and a Thread for every Player.
+     */
+    BLOCKING,
+
+    /**
+     * Non-blocking channels shared between a small pool of I/O
+     * threads.
+     */
+    NIO,
+
+    /**
+     * A blocking Socket for every Player, each read by its own
+     * virtual Thread. Needs Java 21 or later; on older runtimes
+     * platform Threads are used instead.
+     */
+    VIRTUAL;
+
+    /**
+     * Creates platform Threads, as the server has always used.
+     */
+    private static final ThreadFactory PLATFORM_THREADS = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable);
+        }
+    };
+
+    /**
+     * Creates a client listener that serves clients in this mode.
+     *
+     * @param game          the current game object.
+     * @param portNumber    the port number to listen on.
+     * @return  the new client listener.
+     */
+    public DoDServerClientListener createClientListener(GameLogic game, int portNumber) {
+        switch (this) {
+            case NIO:
+                return new DoDServerNioClientListener(game, portNumber);
+            default:
+                return new DoDServerClientListener(game, portNumber);
+        }
+    }
+
+    /**
+     * @return  the factory for the Threads that run each Player and
+     *          each client listener's accept loop in this mode.
+     */
+    public ThreadFactory getThreadFactory() {
+        if (this == VIRTUAL) {
+            ThreadFactory virtualThreads = getVirtualThreadFactory();
+            if (virtualThreads != null) {
+                return virtualThreads;
+            }
+            System.out.println("Server : Virtual threads need Java 21, using platform threads");
+        }
+        return PLATFORM_THREADS;
+    }
+
+    /**
+     * Looks up <code>Thread.ofVirtual().factory()</code> reflectively,
+     * so that the server still compiles and runs on runtimes without
+     * virtual threads.
+     *
+     * @return  a factory for virtual Threads, or null if the runtime
+     *          does not support them.
+     */
+    private static ThreadFactory getVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = ofVirtual.getReturnType().getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @param argument  a server mode argument, such as "nio".
+     * @return  the matching server mode, or null if there is none.
+     */
+    public static ServerMode fromArgument(String argument) {
+        for (ServerMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(argument)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,128 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A PlayerConnection over a blocking Socket. Each line or frame is
+ * encoded into the connection's bounded OutboundQueue on the calling
+ * thread, and a writer Thread of the connection's own drains the
+ * queue into the socket, so a client that reads slowly never blocks
+ * a thread that is writing to it, however many locks that thread
+ * holds. Everything queued while the writer is busy goes out in its
+ * next single write.
+ *
+ * @author Jonathan Beaumont
+ */
+public class SocketPlayerConnection implements PlayerConnection, Runnable {
+
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+
+    private Socket socket;
+    private OutputStream out;
+    private OutboundQueue outbound;
+    private char[] chars;
+    private boolean closeRequested;
+
+    /**
+     * Constructor. Gets the socket's output stream to write to the
+     * client via, and starts the writer Thread.
+     *
+     * @param socket        the socket connected to the client.
+     * @param outbound      the queue to hold output until it is
+     *                      written.
+     * @param writerThreads the factory for the writer Thread.
+     * @throws IOException  if the socket's output stream cannot be
+     *                      opened.
+     */
+    public SocketPlayerConnection(Socket socket, OutboundQueue outbound, ThreadFactory writerThreads) throws IOException {
+        this.socket = socket;
+        this.outbound = outbound;
+        out = socket.getOutputStream();
+        chars = new char[INITIAL_BUFFER_SIZE];
+        writerThreads.newThread(this).start();
+    }
+
+    public synchronized void writeLine(String message) {
+        if (chars.length < message.length()) {
+            chars = new char[message.length()];
+        }
+        message.getChars(0, message.length(), chars, 0);
+        writeLine(chars, message.length());
+    }
+
+    public synchronized void writeLine(char[] line, int length) {
+        if (!closeRequested && outbound.offerLine(line, length)) {
+            wakeWriter();
+        }
+    }
+
+    public synchronized void writeBytes(byte[] bytes, int offset, int length) {
+        if (!closeRequested && outbound.offerBytes(bytes, offset, length)) {
+            wakeWriter();
+        }
+    }
+
+    /**
+     * Wakes the writer Thread for newly queued output. If the queue
+     * has overflowed instead, the socket is closed straight away, as
+     * the writer is most likely blocked writing to the client that
+     * has stopped reading.
+     */
+    private void wakeWriter() {
+        if (outbound.isOverflowed()) {
+            closeSocket();
+        }
+        notifyAll();
+    }
+
+    /**
+     * Executed when the writer Thread is started. Waits for output to
+     * be queued, then writes all of it to the socket without holding
+     * the connection's lock, until the connection is closed and its
+     * output written. If the client stops reading and the queue
+     * overflows, the socket is closed, which the Player reading from
+     * it sees as a lost connection.
+     */
+    public void run() {
+        try {
+            while (true) {
+                ByteBuffer bytes;
+                synchronized (this) {
+                    while (outbound.isEmpty() && !closeRequested && !outbound.isOverflowed()) {
+                        wait();
+                    }
+                    if (outbound.isOverflowed() || outbound.isEmpty()) {
+                        break;
+                    }
+                    bytes = outbound.take();
+                }
+                out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            }
+        } catch (IOException | InterruptedException e) {
+            // the client has gone; the socket is closed below
+        }
+        closeSocket();
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Closes the socket once the queued output has been written.
+     */
+    public synchronized void close() {
+        closeRequested = true;
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return closeRequested || socket.isClosed();
+    }
+}